@@ -12,6 +12,9 @@ import android.view.Menu;
 import android.view.MenuItem;
 import android.widget.TextView;
 
+import com.pencilanimations.BitmapAssetCache;
+import com.pencilanimations.PencilSpriteCache;
+
 /** Show a pencil balanced on its tip, falling over. */
 
 public class PencilActivity extends Activity implements SensorEventListener {
@@ -104,6 +107,14 @@ public class PencilActivity extends Activity implements SensorEventListener {
 		super.onPause();
 	}
 	
+	@Override
+	public void onTrimMemory(int level) {
+		super.onTrimMemory(level);
+		//drop the images no surface draws any more, and the pencil sprites the surfaces render again when needed
+		BitmapAssetCache.getInstance().trimMemory(level);
+		PencilSpriteCache.trimMemory(level);
+	}
+	
     /**
      * Handle sensor detection
      */
@@ -127,7 +138,7 @@ public class PencilActivity extends Activity implements SensorEventListener {
 
 			if (mPencilView.thread != null)
 			{
-				mPencilView.thread.setAccelerationData(g, theta);
+				mPencilView.thread.setAccelerationData(g, theta, event.timestamp);
 			}
 			
 		} else
@@ -1,5 +1,9 @@
 package com.pencilsimulator;
 
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
 
 import android.content.Context;
@@ -9,12 +13,13 @@ import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.Paint.Align;
+import android.graphics.Rect;
 import android.graphics.drawable.BitmapDrawable;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.Looper;
 import android.os.Message;
 import android.util.AttributeSet;
 import android.util.Log;
@@ -22,23 +27,47 @@ import android.view.MotionEvent;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 import android.view.View;
+import android.view.WindowManager;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import com.explode1.Exploder1;
+import com.explode1.Exploder1Pool;
 import com.explode2.Exploder2;
 import com.explode3.Exploder3;
+import com.explode4.ParticleExploder;
+import com.explode4.ParticleExploderPool;
+import com.pencilanimations.BitmapAssetCache;
+import com.pencilanimations.BitmapAtlas;
+import com.pencilanimations.BitmapDecoder;
+import com.pencilanimations.DirtyRegion;
+import com.pencilanimations.ExploderPool;
 import com.pencilanimations.ExplosionConfig;
 import com.pencilanimations.FallAnimator;
 import com.pencilanimations.FallConfig;
+import com.pencilanimations.FrameScheduler;
+import com.pencilanimations.HudText;
+import com.pencilanimations.PencilSpriteCache;
 import com.pencildisplay.PencilDisplayHelper;
-import com.pencilmotionsimulator.MotionSimulator;
+import com.pencilmetrics.FrameMetrics;
+import com.pencilmetrics.MetricsOverlay;
+import com.pencilsession.PencilSession;
+import com.pencilsession.PencilSnapshot;
+import com.pencilsession.SessionRecorder;
 
 /** Show a pencil balanced on its tip, falling over. */
 
 class PencilView extends SurfaceView implements SurfaceHolder.Callback {
 
+	//1 = fragments of the image, 2 = series of images, 3 = growing image, 4 = particles of debris
 	static int EXPLODE_STYLE = 1;
+
+	//record the inputs of the last session to SESSION_LOG_FILE_NAME in the app's files, for replay with SessionReplayer,
+	//in debug builds only
+	final static boolean RECORD_SESSION = BuildConfig.DEBUG;
+	final static String SESSION_LOG_FILE_NAME = "session.pencillog";
+
+	//show percentiles of the frame timing of the last few seconds instead of the frame rate, in debug builds only
+	static boolean SHOW_FRAME_METRICS = BuildConfig.DEBUG;
     
     private TextView mStatusText;
     
@@ -52,25 +81,15 @@ class PencilView extends SurfaceView implements SurfaceHolder.Callback {
 
 	public static HashMap<String, Long> highScores = new HashMap<String, Long>();
 	
-    class PencilThread extends Thread {
+    class PencilThread extends Thread implements PencilSession.Listener, FrameScheduler.Callback {
   
 
         
-    	//gravitational parameter
-    	private double g = 9.81;
-    	
-    	//artificial parameter we use to reduce the size of gravity for testing because pencil falls over too fast
-    	//with real gravity
-    	//final private double GRAVITY_REDUCTION_FACTOR = 0.05;
-    	
-    	//angle of gravitational force from negative y axis
-    	private double theta = 0.0;
-
-    	//distance from pivot to center of mass of pencil as used in physical calculations
-    	private double pencilPhysicalLength = 0.05;
+    	//motion of the pencil, advanced from the sensor, touch and frame time inputs
+    	private PencilSession session = new PencilSession();
     	
-    	//motion simulator used to animate pencil
-    	private MotionSimulator motionSimulator = new MotionSimulator(pencilPhysicalLength);
+    	//writes the inputs of the session to a log, null if not recording
+    	private SessionRecorder sessionRecorder = null;
     	
     	//display length of pencil
     	private float pencilDisplayLength;
@@ -78,21 +97,6 @@ class PencilView extends SurfaceView implements SurfaceHolder.Callback {
     	//display width of pencil
     	private float pencilDisplayWidth;
 
-    	//maximum angle that the pencil is allowed to tilt before it hits the side of the box
-    	private double maxTiltAngle;
-
-    	//initial angular displacement
-    	final private double INITIAL_TILT_ANGLE = 0.0;
-    	
-    	//angular displacement
-    	private double tiltAngle = INITIAL_TILT_ANGLE;
-    	
-    	//initial angular velocity
-    	final private double INITIAL_ANGULAR_VELOCITY = 0.0;
-    	
-    	//angular velocity
-    	private double angularVelocity = INITIAL_ANGULAR_VELOCITY;
-
     	private Handler mHandler;
         /*
          * State-tracking constants
@@ -127,25 +131,74 @@ class PencilView extends SurfaceView implements SurfaceHolder.Callback {
         private float pivotXInverted, pivotYInverted;
         
         /** The state of the game. One of READY, RUNNING, PAUSE or LOSE */
-        private int mMode;
+        private volatile int mMode;
+        
+        /**
+         * Surface size set from the UI thread, width in the upper and height in the lower 32 bits, and the size the
+         * thread has taken over. 0 before the first size is known.
+         *
+         * @see #setSurfaceSize
+         */
+        private volatile long pendingSurfaceSize = 0;
+        private long surfaceSize = 0;
 
         /** Indicate whether the surface has been created & is ready to draw */
-        private boolean mRun = false;
+        private volatile boolean mRun = false;
+        
+        /** Message loop of the thread, quit to end the thread */
+        private volatile Looper mLooper = null;
+        
+        /** Posts to the message loop of the thread, to wake it up while idle */
+        private volatile Handler mFrameHandler = null;
+        
+        /** Restarts the frame callbacks, on the thread */
+        private final Runnable mWakeUp = new Runnable() {
+        	public void run() {
+        		if (!frameScheduler.isRunning())
+        		{
+        			//draw a few frames again before going idle
+        			noUpdateCount = 0;
+        			frameScheduler.start();
+        		}
+        	}
+        };
+        
+        /** Calls onFrame once per display refresh */
+        private FrameScheduler frameScheduler;
+        
+        /** Vsync time of the current frame, the time all updates and drawing of the frame use */
+        private long mFrameTime;
+        
+        //count for how many frames the physics has not been updated
+        private int noUpdateCount = 0;
 
         /** Handle to the surface manager object we interact with */
         private SurfaceHolder mSurfaceHolder;
         
-        /** Used to figure out elapsed time between frames */
-        private long mLastTime = 0;
+        //area of the surface to repaint on the next frame
+        private DirtyRegion dirtyRegion = new DirtyRegion();
+        
+        //scratch for the area covered by an explosion
+        private Rect explosionBounds = new Rect();
         
         private BitmapDrawable pencilDrawable = null;
         
-        private Exploder1 exploder1 = null;
-        private Exploder1 exploder1Inverted = null;
+        //pencil images pre-rendered at the display size, for the current surface size
+        private PencilSpriteCache pencilSprites = null;
         
-        private Exploder2 exploder2 = null;
+        //at most one explosion on each wall
+        final private static int EXPLOSIONS_AT_ONCE = 2;
         
-        private Exploder3 exploder3 = null;
+        //exploders of EXPLODE_STYLE for the standard and the inverted orientation, one taken for each explosion
+        private ExploderPool explosions = null;
+        private ExploderPool explosionsInverted = null;
+        
+        //canvas width the explosion images were made for
+        private int explosionImageWidth = 0;
+        
+        //explosion images taken from the BitmapAssetCache, to give back when they are replaced
+        private ArrayList<Bitmap> explosionBitmaps = new ArrayList<Bitmap>();
+        private BitmapAtlas explosionAtlas = null;
 
         //config for the explosion when the pencil hits the right-hand wall
         private ExplosionConfig explosionConfigRhs = new ExplosionConfig(1);
@@ -153,20 +206,9 @@ class PencilView extends SurfaceView implements SurfaceHolder.Callback {
         //config for the explosion when the pencil hits the left-hand wall
         private ExplosionConfig explosionConfigLhs = new ExplosionConfig(-1);
 
-        //last user touch positions
-        private float mTouchX = -1, mTouchY = -1;
-        
         //helper for doing calculations related to display
         PencilDisplayHelper displayHelper = null;
         
-        //whether or not the pencil is under touch control
-        private boolean underTouchControl = false;
-        
-        //angular offset between the position the user is touching the pencil and the pencil center
-        private double touchControlOffset = 0.0f;
-        
-
-        
         //paint object for drawing timer
         private Paint paintTimer;
         
@@ -176,9 +218,6 @@ class PencilView extends SurfaceView implements SurfaceHolder.Callback {
         //get the screen's density scale
         final float scale = getResources().getDisplayMetrics().density;
         
-        //true if view is inverted and pencil is balanced on the top of the screen, otherwise false
-        private boolean isInverted = false;
-
         //controls the falling pencil animation when the phone is flipped upside down
         private FallConfig fallConfig = new FallConfig();
         
@@ -187,6 +226,14 @@ class PencilView extends SurfaceView implements SurfaceHolder.Callback {
 
         private int framesPerSecond = 0;
         
+        //text of the balance timer and of the frame rate for the frame being drawn
+        private HudText timerText;
+        private HudText fpsText;
+        
+        //timing of the frames, and the text showing it
+        private final FrameMetrics frameMetrics = new FrameMetrics();
+        private MetricsOverlay metricsOverlay;
+        
         public BalanceTimer balanceTimer;
 
         public PencilThread(SurfaceHolder surfaceHolder, Context context,
@@ -206,16 +253,48 @@ class PencilView extends SurfaceView implements SurfaceHolder.Callback {
         	paintText.setTextAlign(Align.RIGHT);
         	paintText.setTextSize(10.0f * scale + 0.5f);
         	
+        	timerText = new HudText(paintTimer);
+        	fpsText = new HudText(paintText);
+        	metricsOverlay = new MetricsOverlay(frameMetrics, paintText);
+        	frameMetrics.setRefreshRate(((WindowManager) context.getSystemService(Context.WINDOW_SERVICE))
+        			.getDefaultDisplay().getRefreshRate());
+        	
         	balanceTimer = new BalanceTimer(context, this);
+        	
+        	session.setFallDuration(fallConfig.duration);
+        	session.setGravityFactor(gravityFactor);
+        	session.setListener(this);
+        	session.setWakeUpCall(new Runnable() {
+        		public void run() {
+        			wakeUp();
+        		}
+        	});
+        	if (RECORD_SESSION)
+        	{
+        		try
+        		{
+        			sessionRecorder = new SessionRecorder(new FileOutputStream(new File(context.getFilesDir(), SESSION_LOG_FILE_NAME)));
+        			session.setRecorder(sessionRecorder);
+        		} catch (FileNotFoundException e)
+        		{
+        			Log.w("pencil", "cannot record session", e);
+        		}
+        	}
         }
 
         /**
          * Initialize the pencil image
          */
-        private void initializePencilBitmap(Context context)
+        private void initializePencilBitmap(Context context, int width, int height)
         {
         	Resources res = context.getResources();
-        	pencilDrawable = new BitmapDrawable(res, BitmapFactory.decodeResource(res, R.drawable.pencil));
+        	BitmapAssetCache assets = BitmapAssetCache.getInstance();
+        	if (pencilDrawable != null)
+        	{
+        		assets.release(pencilDrawable.getBitmap());
+        	}
+        	//decoded straight to the size it is drawn at, so drawing it needs no scaling
+        	pencilDrawable = new BitmapDrawable(res, assets.acquire(res, R.drawable.pencil, width, height));
         	pencilDrawable.setAntiAlias(true);    	
         }
         
@@ -224,97 +303,206 @@ class PencilView extends SurfaceView implements SurfaceHolder.Callback {
          */
         private void initializeExplosionBitmap(Context context)
         {
+        	//the explosion images only depend on the width of the canvas
+        	if (explosionImageWidth == mCanvasWidth)
+        	{
+        		return;
+        	}
+        	explosionImageWidth = mCanvasWidth;
+        	releaseExplosionBitmaps();
+        	
         	if (EXPLODE_STYLE == 1)
         	{
-        		//explodable picture for the standard pencil orientation
-        		Bitmap explodableBmp = BitmapFactory.decodeResource(getResources(), R.drawable.explodable);
-        		Matrix matrix = new Matrix();
-        		float scale = (0.03f * mCanvasWidth)/ explodableBmp.getWidth();
-        		matrix.postScale(scale, scale);
-        		Bitmap resizedBitmap = Bitmap.createBitmap(explodableBmp, 0, 0, explodableBmp.getWidth(), explodableBmp.getHeight(), matrix, true);
-        		exploder1 = new Exploder1(resizedBitmap, 0.9f, 0.6f);
-        		
-        		//explodable picture for the inverted pencil orientation
-        		Bitmap explodableBmpInverted = BitmapFactory.decodeResource(getResources(), R.drawable.explodable_inverted);
-        		Matrix matrixInverted = new Matrix();
-        		float scaleInverted = (0.02f * mCanvasWidth)/ explodableBmpInverted.getWidth();
-        		matrixInverted.postScale(scaleInverted, scaleInverted);
-        		Bitmap resizedBitmapInverted = Bitmap.createBitmap(explodableBmpInverted, 0, 0, explodableBmpInverted.getWidth(), explodableBmpInverted.getHeight(), matrixInverted, true);
-        		exploder1Inverted = new Exploder1(resizedBitmapInverted, 0.9f, 0.4f);	
+        		explosions = new Exploder1Pool(acquireExplodable(R.drawable.explodable, 0.03f), EXPLOSIONS_AT_ONCE);
+        		explosionsInverted = new Exploder1Pool(acquireExplodable(R.drawable.explodable_inverted, 0.02f), EXPLOSIONS_AT_ONCE);
         	} else if (EXPLODE_STYLE == 2)
         	{
-        		Resources res = context.getResources();
-        		BitmapDrawable[] explodableBmps = new BitmapDrawable[11];
-        		explodableBmps[0] = new BitmapDrawable(res, BitmapFactory.decodeResource(res, R.drawable.boom1));
-        		explodableBmps[1] = new BitmapDrawable(res, BitmapFactory.decodeResource(res, R.drawable.boom2));
-        		explodableBmps[2] = new BitmapDrawable(res, BitmapFactory.decodeResource(res, R.drawable.boom3));
-        		explodableBmps[3] = new BitmapDrawable(res, BitmapFactory.decodeResource(res, R.drawable.boom4));
-        		explodableBmps[4] = new BitmapDrawable(res, BitmapFactory.decodeResource(res, R.drawable.boom5));
-        		explodableBmps[5] = new BitmapDrawable(res, BitmapFactory.decodeResource(res, R.drawable.boom6));
-        		explodableBmps[6] = new BitmapDrawable(res, BitmapFactory.decodeResource(res, R.drawable.boom7));
-        		explodableBmps[7] = new BitmapDrawable(res, BitmapFactory.decodeResource(res, R.drawable.boom8));
-        		explodableBmps[8] = new BitmapDrawable(res, BitmapFactory.decodeResource(res, R.drawable.boom9));
-        		explodableBmps[9] = new BitmapDrawable(res, BitmapFactory.decodeResource(res, R.drawable.boom10));
-        		explodableBmps[10] = new BitmapDrawable(res, BitmapFactory.decodeResource(res, R.drawable.boom11));
-        		exploder2 = new Exploder2(explodableBmps);
+        		//one image with all the frames, decoded once the game starts
+        		explosionAtlas = new BitmapAtlas(context.getResources(), R.drawable.boom_atlas, 11, Exploder2.getMaxFrameSize());
+        		explosions = explosionsInverted = ExploderPool.shared(new Exploder2(explosionAtlas));
         	}  else if (EXPLODE_STYLE == 3)
         	{
         		Resources res = context.getResources();
-        		BitmapDrawable explodableBmp = new BitmapDrawable(res, BitmapFactory.decodeResource(res, R.drawable.boom));
-        		exploder3 = new Exploder3(explodableBmp);
+        		Bitmap boom = BitmapAssetCache.getInstance().acquire(res, R.drawable.boom);
+        		explosionBitmaps.add(boom);
+        		BitmapDrawable explodableBmp = new BitmapDrawable(res, boom);
+        		explosions = explosionsInverted = ExploderPool.shared(new Exploder3(explodableBmp));
+        	} else if (EXPLODE_STYLE == 4)
+        	{
+        		explosions = new ParticleExploderPool(acquireExplodable(R.drawable.explodable, 0.03f),
+        				ParticleExploder.DEFAULT_PARTICLE_COUNT, EXPLOSIONS_AT_ONCE);
+        		explosionsInverted = new ParticleExploderPool(acquireExplodable(R.drawable.explodable_inverted, 0.02f),
+        				ParticleExploder.DEFAULT_PARTICLE_COUNT, EXPLOSIONS_AT_ONCE);
+        	}
+        }
+        
+        /**
+         * Take an explodable picture from the BitmapAssetCache, scaled to a part of the canvas width
+         */
+        private Bitmap acquireExplodable(int id, float widthFraction)
+        {
+        	Resources res = getResources();
+        	BitmapFactory.Options size = BitmapDecoder.decodeSize(res, id);
+        	int width = Math.round(widthFraction * mCanvasWidth);
+        	int height = Math.round((float) width * size.outHeight/ size.outWidth);
+        	Bitmap explodableBmp = BitmapAssetCache.getInstance().acquire(res, id, width, height);
+        	explosionBitmaps.add(explodableBmp);
+        	return explodableBmp;
+        }
+        
+        /**
+         * Give the explosion images back to the BitmapAssetCache
+         */
+        private void releaseExplosionBitmaps()
+        {
+        	BitmapAssetCache assets = BitmapAssetCache.getInstance();
+        	for (int i = 0; i < explosionBitmaps.size(); i++)
+        	{
+        		assets.release(explosionBitmaps.get(i));
+        	}
+        	explosionBitmaps.clear();
+        	if (explosionAtlas != null)
+        	{
+        		explosionAtlas.release();
+        		explosionAtlas = null;
         	}
         }
 
     	/**
-         * Run the game
+         * Run the game: one update and at most one drawing per display refresh, until setRunning(false)
          */
         @Override
         public void run() {
-
-        	//whether or not physics has been updated on this iteration
-        	boolean physicsUpdated;
-        	//count for how many iterations the physics has not been updated
-        	int noUpdateCount = 0;
+        	Looper.prepare();
+        	mLooper = Looper.myLooper();
+        	frameScheduler = new FrameScheduler(this);
+        	mFrameHandler = new Handler(mLooper);
+        	frameScheduler.start();
+        	if (mRun)
+        	{
+        		Looper.loop();
+        	}
+        	frameScheduler.stop();
         	
-            while (mRun) {
-                Canvas c = null;
-                try {
-                    c = mSurfaceHolder.lockCanvas(null);
-                    synchronized (mSurfaceHolder) {
-                    	physicsUpdated = false;
-                        if (mMode == STATE_RUNNING)
-                        {
-                        	physicsUpdated = updatePhysics();
-                        }
-                        
-                    	if (physicsUpdated)
-                    	{
-                    		noUpdateCount = 0;
-                    	} else
-                    	{
-                    		noUpdateCount++;
-                    	} 
-
-                        if (!physicsUpdated && noUpdateCount > 5)
-                        {
-                        	//if view has been drawn at least 5 times (because sometimes frames overlap),
-                        	//and the physics was NOT updated in the last cycle, don't redraw it
-                        } else
-                        {
-                        	doDraw(c);
-                        }
-                    }
-                } finally {
-                    // do this in a finally so that if an exception is thrown
-                    // during the above, we don't leave the Surface in an
-                    // inconsistent state
-                    if (c != null) {
-                        mSurfaceHolder.unlockCanvasAndPost(c);
-                    }
-                }
+        	if (pencilSprites != null)
+        	{
+        		pencilSprites.release();
+        	}
+        	//the next surface takes them again, without decoding if it has the same size
+        	if (pencilDrawable != null)
+        	{
+        		BitmapAssetCache.getInstance().release(pencilDrawable.getBitmap());
+        		pencilDrawable = null;
+        	}
+        	releaseExplosionBitmaps();
+            
+            if (sessionRecorder != null)
+            {
+            	sessionRecorder.close();
+            	if (sessionRecorder.getError() != null)
+            	{
+            		Log.w("pencil", "session recording failed", sessionRecorder.getError());
+            	}
             }
         }
 
+        /**
+         * Update and draw one frame
+         *
+         * @param long frameTime Vsync time of the frame in milliseconds
+         */
+        public void onFrame(long frameTime) {
+        	if (!mRun)
+        	{
+        		Looper.myLooper().quit();
+        		return;
+        	}
+        	mFrameTime = frameTime;
+        	frameMetrics.beginFrame(frameScheduler.getFrameTimeNanos());
+
+        	//take over a new surface size before touching the physics or the canvas
+        	long size = pendingSurfaceSize;
+        	if (size != surfaceSize)
+        	{
+        		surfaceSize = size;
+        		applySurfaceSize((int) (size >>> 32), (int) size);
+        	}
+
+        	//whether or not physics has been updated on this frame
+        	boolean physicsUpdated = false;
+        	if (mMode == STATE_RUNNING)
+        	{
+        		long physicsStart = System.nanoTime();
+        		physicsUpdated = updatePhysics(frameTime);
+        		frameMetrics.physics.record(System.nanoTime() - physicsStart);
+        	}
+
+        	if (physicsUpdated)
+        	{
+        		noUpdateCount = 0;
+        	} else
+        	{
+        		noUpdateCount++;
+        	}
+
+        	if (!physicsUpdated && noUpdateCount > 5 && !isAnimating())
+        	{
+        		//if view has been drawn at least 5 times (because sometimes frames overlap),
+        		//and the physics was NOT updated in the last cycle, don't lock the canvas to redraw it
+        		
+        		//if the pencil cannot move until the next input, stop the frame callbacks as well until the session
+        		//wakes the thread up
+        		if (mMode == STATE_RUNNING && session.park())
+        		{
+        			frameScheduler.stop();
+        			frameMetrics.stopped();
+        		}
+        		return;
+        	}
+
+        	//state of the pencil published by the last update
+        	PencilSnapshot pencil = session.getSnapshot();
+        	
+        	//only repaint the area drawn on by this frame or the previous one
+        	updateHudText();
+        	addDrawnAreas(pencil);
+
+        	long drawStart = System.nanoTime();
+        	Canvas c = null;
+        	try {
+        		c = dirtyRegion.lockCanvas(mSurfaceHolder);
+        		doDraw(c, pencil);
+        	} finally {
+        		// do this in a finally so that if an exception is thrown
+        		// during the above, we don't leave the Surface in an
+        		// inconsistent state
+        		if (c != null) {
+        			mSurfaceHolder.unlockCanvasAndPost(c);
+        			dirtyRegion.commit();
+        			frameMetrics.draw.record(System.nanoTime() - drawStart);
+        			frameMetrics.framePosted();
+        		}
+        	}
+        }
+
+        /**
+         * Restart the frame callbacks if the thread is idle. May be called from any thread.
+         */
+        public void wakeUp() {
+        	Handler handler = mFrameHandler;
+        	if (handler != null)
+        	{
+        		handler.post(mWakeUp);
+        	}
+        }
+        
+        /**
+         * Whether an explosion is still to be drawn
+         */
+        private boolean isAnimating() {
+        	return mMode == STATE_RUNNING && (explosionConfigRhs.doExplosion || explosionConfigLhs.doExplosion);
+        }
+
         /**
          * Used to signal the thread whether it should be running or not.
          *
@@ -322,13 +510,18 @@ class PencilView extends SurfaceView implements SurfaceHolder.Callback {
          */
         public void setRunning(boolean b) {
             mRun = b;
+            Looper looper = mLooper;
+            if (!b && looper != null)
+            {
+            	looper.quit();
+            }
         }
 
         public void showTapToStartMessage()
         {
         	 Message msg = mHandler.obtainMessage();
              Bundle b = new Bundle();
-             b.putBoolean("inverted", isInverted);
+             b.putBoolean("inverted", session.isInverted());
              b.putString("text", "tap to restart timer");
              b.putInt("viz", View.VISIBLE);
              msg.setData(b);
@@ -339,7 +532,7 @@ class PencilView extends SurfaceView implements SurfaceHolder.Callback {
         {
         	Message msg = mHandler.obtainMessage();
             Bundle b = new Bundle();
-            b.putBoolean("inverted", isInverted);
+            b.putBoolean("inverted", session.isInverted());
             b.putString("text", "");
             b.putInt("viz", View.GONE);
             msg.setData(b);
@@ -354,9 +547,7 @@ class PencilView extends SurfaceView implements SurfaceHolder.Callback {
          * @param mode one of the STATE_* constants
          */
         public void setGameState(int mode) {
-            synchronized (mSurfaceHolder) {
-                setGameState(mode, null);
-            }
+            setGameState(mode, null);
         }
     
         /**
@@ -367,41 +558,43 @@ class PencilView extends SurfaceView implements SurfaceHolder.Callback {
          * @param message string to add to screen or null
          */
         public void setGameState(int mode, CharSequence message) {
-
-            synchronized (mSurfaceHolder) {
-                mMode = mode;
-            }
+            mMode = mode;
+            wakeUp();
         }
 
-        /* Callback invoked when the surface dimensions change. */
+        /* Callback invoked when the surface dimensions change. Taken over by the thread before its next frame. */
         public void setSurfaceSize(int width, int height) {
-            // synchronized to make sure these all change atomically
-            synchronized (mSurfaceHolder) {
-                mCanvasWidth = width;
-                mCanvasHeight = height;
-                
-                initializePencilBitmap(getContext());
-                
-                initializeExplosionBitmap(getContext());
-                
-                //initialize drawing dimension parameters
-                pencilDisplayLength = 0.7f * mCanvasHeight;
-
-                float drawableWidth = pencilDrawable.getIntrinsicWidth();
-                float drawableHeight = pencilDrawable.getIntrinsicHeight();
-                pencilDisplayWidth = (drawableWidth/ drawableHeight) * pencilDisplayLength + 1.0f;
-
-                //create display helper
-                displayHelper = new PencilDisplayHelper(mCanvasWidth, mCanvasHeight, pencilDisplayWidth, pencilDisplayLength);
-                
-                maxTiltAngle = displayHelper.calculateMaxTiltAngle();
-                
-                //bounds of pencil in standard orientation
+        	pendingSurfaceSize = ((long) width << 32) | (height & 0xffffffffL);
+        	wakeUp();
+        }
+
+        /* Set up the bitmaps and the pencil dimensions for a new surface size, on the thread. */
+        private void applySurfaceSize(int width, int height) {
+            mCanvasWidth = width;
+            mCanvasHeight = height;
+            dirtyRegion.setSize(width, height);
+            
+            initializeExplosionBitmap(getContext());
+            
+            //initialize drawing dimension parameters
+            pencilDisplayLength = 0.7f * mCanvasHeight;
+
+            //only the aspect ratio of the image is needed here, the bitmap is decoded at the display size below
+            BitmapFactory.Options pencilSize = BitmapDecoder.decodeSize(getContext().getResources(), R.drawable.pencil);
+            float drawableWidth = pencilSize.outWidth;
+            float drawableHeight = pencilSize.outHeight;
+            pencilDisplayWidth = (drawableWidth/ drawableHeight) * pencilDisplayLength + 1.0f;
+
+            //create display helper, and set the walls
+            session.setScreen(mCanvasWidth, mCanvasHeight, pencilDisplayWidth, pencilDisplayLength);
+            displayHelper = session.getDisplayHelper();
+            
+            //bounds of pencil in standard orientation
 	        	xLeftStandard = (int) (mCanvasWidth/2.0 - pencilDisplayWidth/2.0);
 	        	yTopStandard = (int) (mCanvasHeight - pencilDisplayLength);
 	        	xRightStandard = (int) (xLeftStandard + pencilDisplayWidth);
 	        	yBottomStandard = (int) mCanvasHeight;
-                
+            
 	        	//bounds of pencil in inverted orientation
         		xLeftInverted = (int) (mCanvasWidth/2.0 - pencilDisplayWidth/2.0);
         		yTopInverted = 0;
@@ -416,16 +609,25 @@ class PencilView extends SurfaceView implements SurfaceHolder.Callback {
         		pivotXInverted = mCanvasWidth/2.0f;
         		pivotYInverted = 0f;
         		
+        		initializePencilBitmap(getContext(), xRightStandard - xLeftStandard, yBottomStandard - yTopStandard);
+        		
+        		//render the pencil again at the new size
+        		if (pencilSprites != null)
+        		{
+        			pencilSprites.release();
+        		}
+        		pencilSprites = new PencilSpriteCache(pencilDrawable, xRightStandard - xLeftStandard, yBottomStandard - yTopStandard,
+        			session.getMaxTiltAngle());
+        		
         		fallAnimator = new FallAnimator(xLeftStandard, yTopStandard, xRightStandard, yBottomStandard,
         			xLeftInverted, yTopInverted, xRightInverted, yBottomInverted,
-        			pivotXStandard, pivotYStandard, pivotXInverted, pivotYInverted, pencilDrawable);
-            }
+        			pivotXStandard, pivotYStandard, pivotXInverted, pivotYInverted, pencilSprites);
         }
 
         /**
          * Draw the scene
          */
-        private void doDraw(Canvas canvas) {
+        private void doDraw(Canvas canvas, PencilSnapshot pencil) {
 
         	//Log.d("pencil", "called doDraw with isInverted="+isInverted);
         	if (canvas == null)
@@ -436,17 +638,17 @@ class PencilView extends SurfaceView implements SurfaceHolder.Callback {
         	
         	drawBackground(canvas);
         
-        	if (fallConfig.doAnimation && (mMode == STATE_RUNNING))
+        	if (pencil.falling && (mMode == STATE_RUNNING))
         	{
         		//Log.d("pencil", "doDraw: fallConfig.doAnimation is true so going to draw falling pencil");
-        		drawFallAnimation(canvas);
+        		drawFallAnimation(canvas, pencil);
         	} else
         	{
         		//Log.d("pencil", "doDraw: fallConfig.doAnimation is NOT true so NOT going to draw falling pencil");
-        		drawPencil(canvas);
+        		drawPencil(canvas, pencil);
         	}
             
-            updateBalanceTimerDisplay(canvas);
+            updateBalanceTimerDisplay(canvas, pencil);
         }
         
         /**
@@ -462,90 +664,71 @@ class PencilView extends SurfaceView implements SurfaceHolder.Callback {
         /**
          * Draw the pencil
          */
-        private void drawPencil(Canvas canvas)
+        private void drawPencil(Canvas canvas, PencilSnapshot pencil)
         {
         	//Log.d("pencil", "drawing normal pencil with isInverted="+isInverted);
         	
-        	canvas.save();
-
-        	if (isInverted)
+        	double renderTiltAngle = pencil.tiltAngle;
+        	if (pencil.inverted)
         	{
         		//Log.d("pencil", "drawPencil: draw with with tiltAngle="+tiltAngle+", pivotX="+pivotXInverted+", pivotY="+pivotYInverted);
-        		canvas.rotate((float) tiltAngle * 180.0f/((float) Math.PI), pivotXInverted, pivotYInverted);
-	        	
-        		pencilDrawable.setBounds(xLeftInverted, yTopInverted, xRightInverted, yBottomInverted);
+        		pencilSprites.draw(canvas, renderTiltAngle, pivotXInverted, pivotYInverted, xLeftInverted, yTopInverted);
         	} else
         	{
         		//Log.d("pencil", "drawPencil: draw with with tiltAngle="+tiltAngle+", pivotX="+pivotXStandard+", pivotY="+pivotYStandard);
-	        	canvas.rotate((float) tiltAngle * 180.0f/((float) Math.PI), pivotXStandard, pivotYStandard);
-	        	
-	        	pencilDrawable.setBounds(xLeftStandard, yTopStandard, xRightStandard, yBottomStandard);
+        		pencilSprites.draw(canvas, renderTiltAngle, pivotXStandard, pivotYStandard, xLeftStandard, yTopStandard);
         	}
-
-        	pencilDrawable.draw(canvas);
-	
-        	canvas.restore();
         	
         	//explosion on right-hand wall
         	if (explosionConfigRhs.doExplosion)
             {
-            	drawExplosion(canvas, explosionConfigRhs);
+            	drawExplosion(canvas, explosionConfigRhs, pencil);
             }
         	//explosion on left-hand wall
         	if (explosionConfigLhs.doExplosion)
             {
-            	drawExplosion(canvas, explosionConfigLhs);
+            	drawExplosion(canvas, explosionConfigLhs, pencil);
             }
         }
         
         /**
          * Draw the pencil falling animation
          */
-        private void drawFallAnimation(Canvas canvas)
+        private void drawFallAnimation(Canvas canvas, PencilSnapshot pencil)
         {
-        	long now = System.currentTimeMillis();
-        	long progress = now - fallConfig.startTime;
+        	long progress = mFrameTime - pencil.fallStartTime;
         	float interpolation = (float) progress/(float) fallConfig.duration;
         	if (interpolation > 1.0f)
         	{
+        		//the session ends the animation at its next update
         		interpolation = 1.0f;
-        		//end animation
-        		fallConfig.doAnimation = false;
-        		if (balanceTimer.state == BalanceTimer.BALANCE_TIMER_STATE_PAUSED)
-        		{
-        			//renew the "tap to restart" message so it's the right way up
-        			showTapToStartMessage();
-        		}
         	}
         	//Log.d("pencil", "drawing fall animation with interpolation="+interpolation);
         	fallAnimator.draw(canvas, interpolation);
         }
         
-        private void updateBalanceTimerDisplay(Canvas canvas)
+        private void updateBalanceTimerDisplay(Canvas canvas, PencilSnapshot pencil)
         {
         	//Log.d("pencil", "called updateBalanceTimerDisplay with isInverted="+isInverted+", fallConfig.doAnimation="+fallConfig.doAnimation+", balanceStartTime="+balanceStartTime);
-        	if (isInverted && !fallConfig.doAnimation)
+        	boolean isInverted = pencil.inverted && !pencil.falling;
+        	if (isInverted)
         	{
 	        	canvas.save();
 	        	canvas.rotate(-180, mCanvasWidth/2.0f, mCanvasHeight/2.0f);
         	}
         	
-        	long now = System.currentTimeMillis();
+        	timerText.draw(canvas, 0.5f * mCanvasWidth, 0.18f * mCanvasHeight);
         	
-        	String time;
-        	if (balanceTimer.state == BalanceTimer.BALANCE_TIMER_STATE_RUNNING)
-        	{
-        		time = PencilDisplayHelper.formatInterval(now - balanceTimer.balanceStartTime);
-        	} else
-        	{
-        		time = balanceTimer.balanceLastScore;
-        	}
-        	canvas.drawText(time, 0.5f * mCanvasWidth, 0.18f * mCanvasHeight, paintTimer);
-        	
-            //show frames per second
-            canvas.drawText("FPS: "+framesPerSecond, mCanvasWidth, 0.98f * mCanvasHeight, paintText);
+            //show frame timing, or frames per second
+            if (SHOW_FRAME_METRICS)
+            {
+            	metricsOverlay.draw(canvas, mCanvasWidth, 0.98f * mCanvasHeight);
+            } else
+            {
+            	fpsText.draw(canvas, mCanvasWidth, 0.98f * mCanvasHeight);
+            }
         	
-        	if (isInverted && !fallConfig.doAnimation)
+        	if (isInverted)
         	{
         		canvas.restore();
         	}
@@ -554,43 +737,97 @@ class PencilView extends SurfaceView implements SurfaceHolder.Callback {
         /**
          * Draw the explosion when the pencil hits the side
          */
-        private void drawExplosion(Canvas canvas, ExplosionConfig config)
+        private void drawExplosion(Canvas canvas, ExplosionConfig config, PencilSnapshot pencil)
+        {
+        	long duration = getExplosionDuration(config);
+        	config.exploder.draw(canvas, config, duration);
+
+        	if (duration > config.explosionDuration)
+        	{
+        		config.doExplosion = false;
+        		config.exploder.recycle();
+        		config.exploder = null;
+        		//draw a few frames more, to clear the last one of the explosion
+        		noUpdateCount = 0;
+        	}
+        }
+        
+        /**
+         * Time since the explosion started, frozen while the game is paused
+         */
+        private long getExplosionDuration(ExplosionConfig config)
         {
-        	long now = System.currentTimeMillis();
-        	long duration;
         	if (mMode == STATE_PAUSED)
         	{
         		//if paused, freeze at the last explosion time
-        		duration = (balanceTimer.balanceStopTime + BalanceTimer.BALANCE_PAUSE_GAME_DELAY_PERIOD) - config.explosionStartTime;
+        		return (balanceTimer.balanceStopTime + BalanceTimer.BALANCE_PAUSE_GAME_DELAY_PERIOD) - config.explosionStartTime;
+        	}
+        	return mFrameTime - config.explosionStartTime;
+        }
+        
+        /**
+         * Set the text of the balance timer and of the frame rate for this frame
+         */
+        private void updateHudText()
+        {
+        	if (balanceTimer.state == BalanceTimer.BALANCE_TIMER_STATE_RUNNING)
+        	{
+        		timerText.setInterval(mFrameTime - balanceTimer.balanceStartTime);
         	} else
         	{
-        		duration = now - config.explosionStartTime;
+        		timerText.set(balanceTimer.balanceLastScore);
         	}
-        	if (EXPLODE_STYLE == 1)
+        	if (SHOW_FRAME_METRICS)
         	{
-        		float interpolation = duration/100f;
-        		if (isInverted)
-        		{
-        			exploder1Inverted.draw(canvas, config.explosionXPosition, config.explosionYPosition, interpolation * config.explosionScale);
-        		} else
-        		{
-        			exploder1.draw(canvas, config.explosionXPosition, config.explosionYPosition, interpolation * config.explosionScale);
-        		}
-        	} else if (EXPLODE_STYLE == 2)
+        		metricsOverlay.update(frameScheduler.getFrameTimeNanos());
+        	} else
+        	{
+        		fpsText.set("FPS: ", framesPerSecond);
+        	}
+        }
+        
+        /**
+         * Collect the areas doDraw will draw on: the pencil, the explosions and the text. The fall animation moves
+         * the pencil across the whole screen, so while it runs the whole screen is repainted.
+         */
+        private void addDrawnAreas(PencilSnapshot pencil)
+        {
+        	dirtyRegion.begin();
+        	if (displayHelper == null || (pencil.falling && (mMode == STATE_RUNNING)))
         	{
-        		int iteration = Math.round(duration/10f);
-        		exploder2.draw(canvas, config.explosionXPosition, config.explosionYPosition, iteration, config.explosionScale);
-        	} else if (EXPLODE_STYLE == 3)
+        		dirtyRegion.addAll();
+        		return;
+        	}
+        	
+        	dirtyRegion.addPencil(displayHelper, pencilSprites.quantize(pencil.tiltAngle), pencil.inverted);
+        	if (explosionConfigRhs.doExplosion)
         	{
-        		float interpolation = duration/100f;
-        		exploder3.draw(canvas, config.explosionXPosition, config.explosionYPosition, interpolation, config.explosionScale);
+        		addExplosionArea(explosionConfigRhs, pencil);
         	}
-
-        	if (duration > config.explosionDuration)
+        	if (explosionConfigLhs.doExplosion)
         	{
-        		config.doExplosion = false;
+        		addExplosionArea(explosionConfigLhs, pencil);
+        	}
+        	
+        	boolean isInverted = pencil.inverted && !pencil.falling;
+        	dirtyRegion.addText(timerText, 0.5f * mCanvasWidth, 0.18f * mCanvasHeight, isInverted);
+        	if (SHOW_FRAME_METRICS)
+        	{
+        		metricsOverlay.addTo(dirtyRegion, mCanvasWidth, 0.98f * mCanvasHeight, isInverted);
+        	} else
+        	{
+        		dirtyRegion.addText(fpsText, mCanvasWidth, 0.98f * mCanvasHeight, isInverted);
         	}
         }
+        
+        /**
+         * Add the area drawExplosion will draw on
+         */
+        private void addExplosionArea(ExplosionConfig config, PencilSnapshot pencil)
+        {
+        	config.exploder.getBounds(config, getExplosionDuration(config), explosionBounds);
+        	dirtyRegion.add(explosionBounds);
+        }
 
         /**
          * Calculate the angular displacement and speed of the pencil
@@ -598,130 +835,46 @@ class PencilView extends SurfaceView implements SurfaceHolder.Callback {
          * @return boolean True if the physical parameters of the system were updated and the view needs to be
          *  re-drawn, otherwise false
          */
-        private boolean updatePhysics() {
-        	//initialize mLastTime
-        	if (mLastTime == 0)
+        private boolean updatePhysics(long now) {
+        	int update = session.update(now);
+        	
+        	//restart the balance timer when the user lifted the finger
+        	if (session.getTouchReleaseTime() >= 0)
+        	{
+        		balanceTimer.start(session.getTouchReleaseTime());
+        	}
+        	
+        	if (update == PencilSession.UPDATE_WAITING)
         	{
-        		mLastTime = System.currentTimeMillis() + 100;
         		return true;
         	}
 
-        	long now = System.currentTimeMillis();
-
-        	// Do nothing if mLastTime is in the future.
-            // This allows the game-start to delay the start of the physics
-            // by 100ms or whatever.
-            if (mLastTime >= now) return true;
-
-        	boolean balanceTimerShouldBeActive = true;
-
-        	if (fallConfig.doAnimation)
-        	{
-        		balanceTimerShouldBeActive = false;
-        	}
-        	else
-        	{
-	            //check if user is currently touching the pencil
-	        	boolean previousUnderTouchControl = underTouchControl; //previous status of underTouchControl
-	            underTouchControl = false;
-	            if (mTouchX > -1)
-	            {
-	            	underTouchControl = displayHelper.isTouchInAreaOfPencil(mTouchX, mTouchY, tiltAngle, isInverted);
-	            	//if this is the first time the user has touched the pencil, calculate the angular offset
-	            	//so that the user gets a smooth experience when they move the pencil manually
-	            	if (underTouchControl && !previousUnderTouchControl)
-	            	{
-	            		//angular offset between the position the user is touching the pencil and the pencil center
-	            		touchControlOffset = displayHelper.calculateTiltAngleFromTouchPosition(mTouchX, mTouchY, 0.0, isInverted) - tiltAngle;
-	            		//set the balanceStartTime to -1 to show that we are no longer timing how long the pencil is in balance
-	            		//Log.d("pencil", "user has touched pencil");
-	            	}
-
-	            	balanceTimerShouldBeActive = !underTouchControl;
-	            }
-	        	
-	        	//if pencil is at rest such that it's impossible to move it, don't do anything else
-	            if (!underTouchControl)
-	            {
-		        	if (displayHelper.isAtRest(tiltAngle, maxTiltAngle, angularVelocity, theta))
-		        	{
-		        		//Log.d("pencil", "pencil is at rest");
-		        		mLastTime = now;
-		        		tiltAngle = (tiltAngle > 0) ? maxTiltAngle : -maxTiltAngle;
-		        		angularVelocity = 0.0;
-		        		//balance timer should not be running at this point, but if it is, stop it
-		        		if(balanceTimer.state == BalanceTimer.BALANCE_TIMER_STATE_RUNNING)
-		        		{
-		        			balanceTimer.stop(false, now);
-		        		}
-		        		return false;
-		        	}
-	            }
-
-            	double elapsed = (now - mLastTime) / 1000.0;
-
-	            //do calculations
-	            if (underTouchControl)
-	            {
-	            	//if user is touching pencil, calculate the motion directly from the touch position
-	            	double oldTiltAngle = tiltAngle;
-	            	tiltAngle = displayHelper.calculateTiltAngleFromTouchPosition(mTouchX, mTouchY, touchControlOffset, isInverted);
-	            	angularVelocity	= (tiltAngle - oldTiltAngle)/elapsed;
-	            } else
-	            {
-	            	//calculate pencil's motion under acceleration as measured from the sensors
-		            double[] motionArray = motionSimulator.calc(tiltAngle, angularVelocity, PencilView.gravityFactor*g, theta, elapsed);
-		            tiltAngle = motionArray[0];
-		            angularVelocity = motionArray[1];
-	            }
-	            
-	            //if the pencil has reached the maximum tilt angle, don't let it go any further
-	            if (Math.abs(tiltAngle) > maxTiltAngle)
-	            {
-	            	//make sure the pencil is shown as lying on the side
-	            	tiltAngle = (tiltAngle > 0) ? maxTiltAngle : - maxTiltAngle;
-	            	
-	            	if (!underTouchControl && (Math.abs(angularVelocity) < 0.01))
-	            	{
-	            		//stop pencil if it's moving too slowly
-	            		angularVelocity = 0.0;
-	            	}
-	
-	            	if ((tiltAngle > 0 && angularVelocity > 0) || (tiltAngle < 0 && angularVelocity < 0))
-	            	{
-	            		//if pencil hits the wall at above a certain speed, generate an explosion
-	            		if (Math.abs(angularVelocity) > 0.3f)
-	            		{
-		            		if (tiltAngle > 0 && !explosionConfigRhs.doExplosion)
-		            		{
-		            			//initialize explosion on right-hand wall
-		            			initializeExplosion(explosionConfigRhs);
-		            		} else if (tiltAngle < 0 && !explosionConfigLhs.doExplosion)
-		            		{
-		            			//initialize explosion on left-hand wall
-		            			initializeExplosion(explosionConfigLhs);
-		            		}
-	            		}
-	            		
-	            		if (!underTouchControl)
-	            		{
-		            		//make pencil bounce off side
-		            		angularVelocity = -0.5 * angularVelocity;
-	            		}
-	            	}
-	            }
-	            
-	            //if pencil is *visibly* in contact with the wall, stop the timer
-	            //(use slightly more generous critieria than for motion equations to prevent rapid stop/ starting of the timer)
-	            if (Math.abs(tiltAngle) >= 0.995*maxTiltAngle)
-	            {
-	            	//reset the timer that records how long since the pencil hit the wall
-	            	//Log.d("pencil", "going to stop timer &  pause game");
-	            	balanceTimer.stop(true, now);
-	            	balanceTimerShouldBeActive = false;
-	            }
+        	//the game has started: decode the explosion images now rather than at the first wall hit, which
+        	//would not be drawn while they are decoding
+        	if (explosionAtlas != null)
+        	{
+        		explosionAtlas.load();
+        	}
+
+        	if (update == PencilSession.UPDATE_AT_REST)
+        	{
+        		//balance timer should not be running at this point, but if it is, stop it
+        		if(balanceTimer.state == BalanceTimer.BALANCE_TIMER_STATE_RUNNING)
+        		{
+        			balanceTimer.stop(false, now);
+        		}
+        		return false;
+        	}
+
+            //if pencil is *visibly* in contact with the wall, stop the timer
+            if (session.isTouchingWall())
+            {
+            	//reset the timer that records how long since the pencil hit the wall
+            	balanceTimer.stop(true, now);
             }
-            
+
+        	boolean balanceTimerShouldBeActive = session.isBalancing();
+
             //update balance timer
         	if (balanceTimer.state == BalanceTimer.BALANCE_TIMER_STATE_PAUSED)
         	{
@@ -740,55 +893,67 @@ class PencilView extends SurfaceView implements SurfaceHolder.Callback {
             }
             
             //calculate frames per second for display
-            framesPerSecond = (int) (1000L/(now - mLastTime));
+            framesPerSecond = (int) (1000L/session.getFrameInterval());
 
-            mLastTime = now;
             return true;
         }
 
+        /**
+         * The pencil hit a wall: generate an explosion
+         */
+        public void onWallHit(int direction, double hitVelocity)
+        {
+        	explodeOnWallHit(direction, hitVelocity);
+        }
+
+        /**
+         * If pencil hits the wall at above a certain speed, generate an explosion
+         * 
+         * @param int direction 1 = right-hand wall, -1 = left-hand wall
+         * @param double hitVelocity Angular velocity with which the pencil hits the wall
+         */
+        private void explodeOnWallHit(int direction, double hitVelocity)
+        {
+        	if (Math.abs(hitVelocity) > PencilSession.EXPLOSION_MIN_VELOCITY)
+        	{
+        		if (direction > 0 && !explosionConfigRhs.doExplosion)
+        		{
+        			//initialize explosion on right-hand wall
+        			initializeExplosion(explosionConfigRhs, hitVelocity);
+        		} else if (direction < 0 && !explosionConfigLhs.doExplosion)
+        		{
+        			//initialize explosion on left-hand wall
+        			initializeExplosion(explosionConfigLhs, hitVelocity);
+        		}
+        	}
+        }
+
         /**
          * Initialize the explosion when the pencil hits the side
+         * 
+         * @param ExplosionConfig config The explosion config
+         * @param double hitVelocity Angular velocity with which the pencil hits the wall
          */
-        private void initializeExplosion(ExplosionConfig config)
+        private void initializeExplosion(ExplosionConfig config, double hitVelocity)
         {
         	config.doExplosion = true;
 
-        	config.explosionStartTime = System.currentTimeMillis();
+        	config.explosionStartTime = mFrameTime;
 
         	//config.explosionXPosition = ((direction > 0) ? ((int) ( 0.5 * mCanvasWidth + 0.5 * pencilDisplayWidth)) : ((int) (0.5 * mCanvasWidth -  0.5 * pencilDisplayWidth)));
         	//config.explosionYPosition = (int) (mCanvasHeight - 0.98f * pencilDisplayLength);
         	
-        	int[] position = displayHelper.getExplosionPosition(config, angularVelocity, maxTiltAngle, isInverted);
+        	boolean isInverted = session.isInverted();
+        	int[] position = displayHelper.getExplosionPosition(config.direction, hitVelocity, session.getMaxTiltAngle(), isInverted);
         	
         	config.explosionXPosition = position[0];
         	config.explosionYPosition = position[1];
         	
-        	if (EXPLODE_STYLE == 1)
-        	{
-        		config.explosionScale = exploder1.getExplosionScale(angularVelocity);
-        		config.explosionDuration = exploder1.getExplosionDuration(angularVelocity);
-        		float breakpointX, breakpointY;
-        		if (isInverted)
-            	{
-        			breakpointX = ((config.direction < 0) ? 0.9f : 0.1f);
-        			breakpointY = 0.4f;
-        			exploder1Inverted.prepare(breakpointX, breakpointY);
-            	} else
-            	{
-        			breakpointX = ((config.direction > 0) ? 0.9f : 0.1f);
-        			breakpointY = 0.6f;
-        			exploder1.prepare(breakpointX, breakpointY);
-            	}
-        		//exploder1.prepare(0.5f, 0.6f);
-        	} else if (EXPLODE_STYLE == 2)
-        	{
-        		config.explosionScale = exploder2.getExplosionScale(angularVelocity);
-        		config.explosionDuration = exploder2.getExplosionDuration(angularVelocity);
-        	} else if (EXPLODE_STYLE == 3)
-        	{
-        		config.explosionScale = exploder3.getExplosionScale(angularVelocity);
-        		config.explosionDuration = exploder3.getExplosionDuration(angularVelocity);
-        	}
+        	//a fresh exploder for this explosion, the one for the other wall may still be exploding
+        	config.exploder = (isInverted ? explosionsInverted : explosions).obtain();
+        	config.explosionScale = config.exploder.getExplosionScale(hitVelocity);
+        	config.explosionDuration = config.exploder.getExplosionDuration(hitVelocity);
+        	config.exploder.prepare(config, isInverted);
         }
 
         /**
@@ -796,53 +961,36 @@ class PencilView extends SurfaceView implements SurfaceHolder.Callback {
          * 
          * @param double g Magnitude of gravitational acceleration
          * @param double theta Angle of direction of gravitational force to the negative y axis
+         * @param long timestamp Time of the sensor reading in nanoseconds, as SensorEvent.timestamp
          */
-        public void setAccelerationData(double g, double theta)
+        public void setAccelerationData(double g, double theta, long timestamp)
         {
-        	//magnitude of acceleration
-        	this.g = g;
-        	if (Math.abs(theta) > Math.PI/2)
-        	{
-        		//check if the previous force was coming from below: if so, make the pencil fall to the top of the screen
-        		if (!fallConfig.doAnimation)
-        		{
-        			if (!isInverted)
-        			{
-        				triggerFallingPencilAnimation();
-        			}
-        			//pencil is standing on the top of the screen, drawing is flipped upside down
-            		isInverted = true;
-        		}		
-        		//the "effective" theta, with which we do the drawing is always between -PI/2 and +PI/2 (we just flip the drawing upside down)
-        		this.theta = ((theta > Math.PI/2) ? (theta - Math.PI) : (theta + Math.PI)) ;
-        	} else
-        	{
-        		//check if the previous force was coming from above: if so make the pencil fall to the bottom of the screen
-        		if (!fallConfig.doAnimation)
-        		{
-        			if (isInverted)
-        			{
-        				triggerFallingPencilAnimation();
-        			}
-        			//pencil is standing on the bottom of the screen, drawing is the normal way up
-            		isInverted = false;
-        		}     		
-        		//the "effective" theta, with which we do the drawing is always between -PI/2 and +PI/2 (we just flip the drawing upside down)
-        		this.theta = theta;
-        	}
+        	frameMetrics.onSensorEvent(timestamp);
+        	session.setAccelerationData(g, theta);
         }
         
         /**
          * If phone has just been flipped upside down, trigger the falling pencil animation
          */
-        private void triggerFallingPencilAnimation()
+        public void onFallStarted(boolean wasInverted, double fromTiltAngle, double toTiltAngle)
         {
         	//Log.d("pencil", "pencil falling animation triggered");
     		fallConfig.doAnimation = true;
-    		fallConfig.startTime = System.currentTimeMillis();
-    		fallAnimator.init(isInverted, tiltAngle, -tiltAngle);
-    		tiltAngle = -tiltAngle; //for end of animation
-    		angularVelocity = -angularVelocity; //for end of animation
+    		fallConfig.startTime = session.getFallStartTime();
+    		fallAnimator.init(wasInverted, fromTiltAngle, toTiltAngle);
+        }
+        
+        /**
+         * End the falling pencil animation
+         */
+        public void onFallEnded()
+        {
+        	fallConfig.doAnimation = false;
+        	if (balanceTimer.state == BalanceTimer.BALANCE_TIMER_STATE_PAUSED)
+        	{
+        		//renew the "tap to restart" message so it's the right way up
+        		showTapToStartMessage();
+        	}
         }
     }
     
@@ -899,7 +1047,7 @@ class PencilView extends SurfaceView implements SurfaceHolder.Callback {
     	
     	if (thread != null)
     	{
-    		thread.interrupt();
+    		thread.setRunning(false);
     		thread = null;
     	}
     	
@@ -939,12 +1087,23 @@ class PencilView extends SurfaceView implements SurfaceHolder.Callback {
     	//Log.d("pencil", "called surfaceDestroyed");
     	if (thread != null)
     	{
-
-        	thread.balanceTimer.stop(false, System.currentTimeMillis());
+    		//let the thread finish its frame, so the balance timer is only used by one thread at a time
+    		thread.setRunning(false);
+    		boolean retry = true;
+    		while (retry)
+    		{
+    			try
+    			{
+    				thread.join();
+    				retry = false;
+    			} catch (InterruptedException e)
+    			{
+    			}
+    		}
+
+        	thread.balanceTimer.stop(false, FrameScheduler.now());
         	thread.balanceTimer.updateHighScoreSharedPreferences();
 
-    		thread.setRunning(false);
-    		thread.interrupt();
     		thread = null;
     	}
     }
@@ -956,19 +1115,13 @@ class PencilView extends SurfaceView implements SurfaceHolder.Callback {
     public boolean onTouchEvent(MotionEvent event) {
     	
     	if (event.getAction() == MotionEvent.ACTION_MOVE) {
-            thread.mTouchX = event.getX();
-            thread.mTouchY = event.getY();
+            thread.session.setTouch(event.getX(), event.getY());
         } else if (event.getAction() == MotionEvent.ACTION_UP)
         {
-        	thread.mTouchX = -1;
-        	thread.mTouchY = -1;
-        	long now = System.currentTimeMillis();
-        	thread.mLastTime = now;
-    		thread.balanceTimer.start(now);
+        	thread.session.releaseTouch(event.getEventTime());
         } else
         {
-        	thread.mTouchX = -1;
-        	thread.mTouchY = -1;
+        	thread.session.setTouch(-1, -1);
         }
 
     	return true;
@@ -0,0 +1,18 @@
+package com.pencildisplay;
+
+/** Screen and pencil dimensions of a typical 1080x1920 phone, set up the same way as PencilView does. */
+
+public class BenchmarkScreen {
+
+	final public static float CANVAS_WIDTH = 1080f;
+	final public static float CANVAS_HEIGHT = 1920f;
+
+	//pencil.png is 52x720
+	final public static float PENCIL_DISPLAY_LENGTH = 0.7f * CANVAS_HEIGHT;
+	final public static float PENCIL_DISPLAY_WIDTH = (52f/ 720f) * PENCIL_DISPLAY_LENGTH + 1.0f;
+
+	public static PencilDisplayHelper displayHelper()
+	{
+		return new PencilDisplayHelper(CANVAS_WIDTH, CANVAS_HEIGHT, PENCIL_DISPLAY_WIDTH, PENCIL_DISPLAY_LENGTH);
+	}
+}
@@ -0,0 +1,119 @@
+package com.pencildisplay;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Throughput of the geometry and formatting helpers that run on every touch event or frame. Each group of
+ * benchmarks has its own state, so only the parameters that matter to it are swept.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PencilDisplayHelperBenchmark {
+
+	/** A touch halfway along the pencil, for tilt angles from upright to resting against the wall. */
+	@State(Scope.Thread)
+	public static class TouchState {
+
+		//tilt angle as a fraction of maxTiltAngle
+		@Param({"0.0", "0.25", "0.5", "0.75", "1.0"})
+		public double tiltFraction;
+
+		@Param({"false", "true"})
+		public boolean isInverted;
+
+		PencilDisplayHelper displayHelper;
+		double tiltAngle;
+		float mTouchX, mTouchY;
+
+		@Setup
+		public void setUp()
+		{
+			displayHelper = BenchmarkScreen.displayHelper();
+			tiltAngle = tiltFraction * displayHelper.calculateMaxTiltAngle();
+
+			float distance = 0.5f * BenchmarkScreen.PENCIL_DISPLAY_LENGTH;
+			mTouchX = 0.5f * BenchmarkScreen.CANVAS_WIDTH + distance * (float) Math.sin(tiltAngle);
+			mTouchY = BenchmarkScreen.CANVAS_HEIGHT - distance * (float) Math.cos(tiltAngle);
+			if (isInverted)
+			{
+				mTouchX = BenchmarkScreen.CANVAS_WIDTH - mTouchX;
+				mTouchY = BenchmarkScreen.CANVAS_HEIGHT - mTouchY;
+			}
+		}
+	}
+
+	/** A wall hit below, between and above the velocity limits used to place the explosion. */
+	@State(Scope.Thread)
+	public static class ExplosionState {
+
+		@Param({"0.1", "0.6", "4.5"})
+		public double hitVelocity;
+
+		@Param({"-1", "1"})
+		public int direction;
+
+		@Param({"false", "true"})
+		public boolean isInverted;
+
+		PencilDisplayHelper displayHelper;
+		double maxTiltAngle;
+
+		@Setup
+		public void setUp()
+		{
+			displayHelper = BenchmarkScreen.displayHelper();
+			maxTiltAngle = displayHelper.calculateMaxTiltAngle();
+		}
+	}
+
+	/** Balance times that take the seconds, minutes and hours branches of formatInterval. */
+	@State(Scope.Thread)
+	public static class IntervalState {
+
+		@Param({"4200", "754300", "5025600"})
+		public long interval;
+
+		//reused by formatIntervalInto, as the HUD reuses its text
+		public char[] buffer = new char[PencilDisplayHelper.MAX_INTERVAL_LENGTH];
+	}
+
+	@Benchmark
+	public boolean isTouchInAreaOfPencil(TouchState state)
+	{
+		return state.displayHelper.isTouchInAreaOfPencil(state.mTouchX, state.mTouchY, state.tiltAngle, state.isInverted);
+	}
+
+	@Benchmark
+	public double calculateTiltAngleFromTouchPosition(TouchState state)
+	{
+		return state.displayHelper.calculateTiltAngleFromTouchPosition(state.mTouchX, state.mTouchY, 0.0, state.isInverted);
+	}
+
+	@Benchmark
+	public int[] getExplosionPosition(ExplosionState state)
+	{
+		return state.displayHelper.getExplosionPosition(state.direction, state.hitVelocity, state.maxTiltAngle,
+				state.isInverted);
+	}
+
+	@Benchmark
+	public String formatInterval(IntervalState state)
+	{
+		return PencilDisplayHelper.formatInterval(state.interval);
+	}
+
+	@Benchmark
+	public int formatIntervalInto(IntervalState state)
+	{
+		return PencilDisplayHelper.formatInterval(state.interval, state.buffer);
+	}
+}
@@ -0,0 +1,77 @@
+package com.pencildisplay;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * What the sprite cache adds to drawing one frame of the pencil, on top of the rotated draw or the bitmap copy: the
+ * sprite lookup and telling the slots the angle drawn. "moving" swings the pencil from wall to wall, several sprite
+ * steps a frame, so that it is drawn rotated as without the cache; "resting" draws the same angle from its sprite.
+ * Run with the gc profiler to see that neither allocates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SpriteSlotsBenchmark {
+
+	@Param({"moving", "resting"})
+	public String motion;
+
+	//0.25 degrees, as the sprite cache uses
+	final private static double ANGLE_STEP = Math.PI/720.0;
+
+	//one swing from wall to wall and back in two seconds at 60 fps
+	final private static int FRAMES = 120;
+
+	private SpriteSlots<Object> slots;
+	private double[] tiltAngles;
+	private int frame = 0;
+
+	@Setup
+	public void setUp()
+	{
+		double maxTiltAngle = BenchmarkScreen.displayHelper().calculateMaxTiltAngle();
+		slots = new SpriteSlots<Object>(maxTiltAngle, ANGLE_STEP, new SpriteBudget(Long.MAX_VALUE));
+		tiltAngles = new double[FRAMES];
+		for (int i = 0; i < FRAMES; i++)
+		{
+			tiltAngles[i] = motion.equals("moving") ? maxTiltAngle * Math.sin(2 * Math.PI * i/FRAMES) : 0.3;
+		}
+
+		//render what the background thread would have rendered
+		final Object sprite = new Object();
+		slots.drawn(slots.index(0.3));
+		slots.drawn(slots.index(0.3));
+		slots.render(new SpriteSlots.Renderer<Object>() {
+			public long sizeOf(double angle)
+			{
+				return 1;
+			}
+
+			public Object render(double angle)
+			{
+				return sprite;
+			}
+		}, 4);
+	}
+
+	@Benchmark
+	public void frame(Blackhole blackhole)
+	{
+		double tiltAngle = tiltAngles[frame];
+		frame = (frame + 1) % FRAMES;
+
+		int index = slots.index(tiltAngle);
+		blackhole.consume(slots.get(index));
+		blackhole.consume(slots.drawn(index));
+	}
+}
@@ -0,0 +1,59 @@
+package com.pencilmotionsimulator;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.pencildisplay.BenchmarkScreen;
+
+/**
+ * Time for a Monte Carlo balance time estimate of a thousand runs, with one to eight threads. On a machine with
+ * enough cores the time should fall in proportion to the number of threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BalanceTimeEstimatorBenchmark {
+
+	@Param({"1", "2", "4", "8"})
+	public int threads;
+
+	@Param({"0.015", "1.0"})
+	public double gravityFactor;
+
+	final private static int RUNS = 1000;
+	final private static long SEED = 1;
+	final private static double PENCIL_PHYSICAL_LENGTH = 0.05;
+
+	private BalanceTimeEstimator estimator;
+	private ExecutorService executor;
+
+	@Setup
+	public void setUp()
+	{
+		estimator = new BalanceTimeEstimator(PENCIL_PHYSICAL_LENGTH, BenchmarkScreen.displayHelper().calculateMaxTiltAngle());
+		executor = Executors.newFixedThreadPool(threads);
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		executor.shutdown();
+	}
+
+	@Benchmark
+	public BalanceTimeEstimate estimate() throws InterruptedException
+	{
+		return estimator.estimate(gravityFactor, RUNS, SEED, executor);
+	}
+}
@@ -0,0 +1,90 @@
+package com.pencilmotionsimulator;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.pencildisplay.BenchmarkScreen;
+
+/**
+ * Time for one 500 Hz physics step of a forest of pencils, batched and one pencil at a time. The time per step should
+ * grow linearly with the number of pencils. Gravity swings from side to side between steps, like a phone being
+ * tilted, so the pencils keep moving and hitting the walls for the whole measurement instead of coming to rest.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BatchMotionSimulatorBenchmark {
+
+	@Param({"10", "100", "1000", "10000"})
+	public int pencils;
+
+	final private static double DT = 0.002;
+	final private static double G = 9.81;
+	final private static double WALL_RESTITUTION = 0.5;
+
+	//gravity direction swings by this much either side, beyond the walls, once every few hundred steps
+	final private static double THETA_AMPLITUDE = 0.6;
+	final private static double THETA_PHASE_STEP = 0.01;
+
+	private BatchMotionSimulator batchSimulator;
+	private MotionSimulator[] simulators;
+	private MotionState[] states;
+	private double phase;
+
+	@Setup
+	public void setUp()
+	{
+		double maxTiltAngle = BenchmarkScreen.displayHelper().calculateMaxTiltAngle();
+		Random random = new Random(42);
+
+		batchSimulator = new BatchMotionSimulator(pencils);
+		simulators = new MotionSimulator[pencils];
+		states = new MotionState[pencils];
+		for (int i = 0; i < pencils; i++)
+		{
+			double l = 0.03 + 0.05 * random.nextDouble();
+			double x = (2.0 * random.nextDouble() - 1.0) * maxTiltAngle;
+			double v = random.nextGaussian();
+
+			batchSimulator.add(l, x, v, maxTiltAngle, WALL_RESTITUTION);
+
+			simulators[i] = new MotionSimulator(l, new VerletIntegrator());
+			simulators[i].setWalls(maxTiltAngle, WALL_RESTITUTION);
+			states[i] = new MotionState(x, v);
+		}
+		phase = 0.0;
+	}
+
+	private double nextTheta()
+	{
+		phase += THETA_PHASE_STEP;
+		return THETA_AMPLITUDE * Math.sin(phase);
+	}
+
+	@Benchmark
+	public BatchMotionSimulator batchStep()
+	{
+		batchSimulator.step(G, nextTheta(), DT);
+		return batchSimulator;
+	}
+
+	@Benchmark
+	public MotionState[] singleSteps()
+	{
+		double theta = nextTheta();
+		for (int i = 0; i < pencils; i++)
+		{
+			simulators[i].step(states[i], G, theta, DT);
+		}
+		return states;
+	}
+}
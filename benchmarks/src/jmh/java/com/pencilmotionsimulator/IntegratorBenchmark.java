@@ -0,0 +1,58 @@
+package com.pencilmotionsimulator;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of one 60 fps frame of a swinging pencil for each integrator: RK4 with one step per frame as the game uses it,
+ * RK4 with the same 2 ms sub-steps as Verlet, and Verlet as the wallpaper uses it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class IntegratorBenchmark {
+
+	@Param({"rk4", "rk4-2ms", "verlet"})
+	public String integrator;
+
+	final private static double PENCIL_PHYSICAL_LENGTH = 0.05;
+	final private static double G = 9.81;
+	final private static double DT = 0.0167;
+
+	private MotionSimulator motionSimulator;
+	private MotionState motionState;
+
+	@Setup
+	public void setUp()
+	{
+		Integrator scheme;
+		if (integrator.equals("verlet"))
+		{
+			scheme = new VerletIntegrator();
+		} else if (integrator.equals("rk4-2ms"))
+		{
+			scheme = new RK4Integrator(VerletIntegrator.DEFAULT_MAX_STEP_SIZE, VerletIntegrator.DEFAULT_MAX_STEPS);
+		} else
+		{
+			scheme = new RK4Integrator();
+		}
+		motionSimulator = new MotionSimulator(PENCIL_PHYSICAL_LENGTH, scheme);
+		motionState = new MotionState(0.3, 0.0);
+	}
+
+	@Benchmark
+	public MotionState frame()
+	{
+		//gravity up the screen: the pencil swings without touching a wall
+		motionSimulator.step(motionState, G, Math.PI, DT);
+		return motionState;
+	}
+}
@@ -0,0 +1,72 @@
+package com.pencilmotionsimulator;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.pencildisplay.BenchmarkScreen;
+
+/**
+ * Throughput of a single physics step, swept over the gravity settings offered in the settings screen and over
+ * tilt angles from upright to resting against the wall.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MotionSimulatorBenchmark {
+
+	//gravity factor as chosen with the slider in the settings screen, 0.005 to 1.0
+	@Param({"0.005", "0.05", "0.25", "0.5", "1.0"})
+	public double gravityFactor;
+
+	//tilt angle as a fraction of maxTiltAngle
+	@Param({"0.0", "0.25", "0.5", "0.75", "1.0"})
+	public double tiltFraction;
+
+	//one fixed physics step, and one 60 fps frame
+	@Param({"0.002", "0.0167"})
+	public double dt;
+
+	final private static double PENCIL_PHYSICAL_LENGTH = 0.05;
+	final private static double WALL_RESTITUTION = 0.5;
+
+	private MotionSimulator motionSimulator;
+	private MotionState motionState;
+	private double x, v, g, theta;
+
+	@Setup
+	public void setUp()
+	{
+		double maxTiltAngle = BenchmarkScreen.displayHelper().calculateMaxTiltAngle();
+
+		motionSimulator = new MotionSimulator(PENCIL_PHYSICAL_LENGTH);
+		motionSimulator.setWalls(maxTiltAngle, WALL_RESTITUTION);
+		motionState = new MotionState();
+
+		x = tiltFraction * maxTiltAngle;
+		v = 0.0;
+		g = gravityFactor * 9.81;
+		theta = 0.0;
+	}
+
+	@Benchmark
+	public double[] calc()
+	{
+		return motionSimulator.calc(x, v, g, theta, dt);
+	}
+
+	@Benchmark
+	public MotionState step()
+	{
+		motionState.set(x, v);
+		motionSimulator.step(motionState, g, theta, dt);
+		return motionState;
+	}
+}
@@ -0,0 +1,84 @@
+package com.pencilmotionsimulator;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.pencildisplay.BenchmarkScreen;
+
+/**
+ * Throughput of the sine kernels on their own, over the full angle range and over the range a pencil between the
+ * walls actually sees, and of a whole physics step using each kernel.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SineKernelBenchmark {
+
+	@Param({"math", "polynomial"})
+	public String kernel;
+
+	//largest angle x - theta passed to the kernel: PI, or the wall angle of a phone held upright
+	@Param({"full", "pencil"})
+	public String range;
+
+	final private static int ANGLES = 1024;
+	final private static double PENCIL_PHYSICAL_LENGTH = 0.05;
+	final private static double G = 9.81;
+	final private static double DT = 0.0167;
+
+	private SineKernel sineKernel;
+	private double[] angles;
+	private MotionSimulator motionSimulator;
+	private MotionState motionState;
+	private int next;
+
+	@Setup
+	public void setUp()
+	{
+		sineKernel = kernel.equals("polynomial") ? new PolynomialSineKernel() : new MathSineKernel();
+
+		double maxTiltAngle = BenchmarkScreen.displayHelper().calculateMaxTiltAngle();
+		double maxAngle = range.equals("full") ? Math.PI : maxTiltAngle;
+		Random random = new Random(42);
+		angles = new double[ANGLES];
+		for (int i = 0; i < ANGLES; i++)
+		{
+			angles[i] = (2.0 * random.nextDouble() - 1.0) * maxAngle;
+		}
+
+		motionSimulator = new MotionSimulator(PENCIL_PHYSICAL_LENGTH);
+		motionSimulator.setSineKernel(sineKernel);
+		motionState = new MotionState();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ANGLES)
+	public double sin()
+	{
+		double sum = 0.0;
+		for (int i = 0; i < ANGLES; i++)
+		{
+			sum += sineKernel.sin(angles[i]);
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public MotionState step()
+	{
+		next = (next + 1) & (ANGLES - 1);
+		motionState.set(angles[next], 0.0);
+		motionSimulator.step(motionState, G, 0.0, DT);
+		return motionState;
+	}
+}
@@ -0,0 +1,103 @@
+package com.pencilsession;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.pencildisplay.BenchmarkScreen;
+
+/**
+ * Time to replay a whole recorded session through the game physics. Pass a log recorded on a phone with
+ *     java -jar benchmarks/build/libs/benchmarks-jmh.jar SessionReplay -p sessionLog=session.pencillog
+ * to measure a physics change against a real player trace. Without a log, a minute of synthetic play at 60 frames
+ * per second is recorded first: a drifting sensor, a grab of the pencil every ten seconds and a flip of the phone
+ * every twenty.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SessionReplayBenchmark {
+
+	@Param({""})
+	public String sessionLog;
+
+	final private static int SYNTHETIC_FRAMES = 3600;
+	final private static long FRAME_INTERVAL = 16;
+
+	private byte[] log;
+
+	@Setup
+	public void setUp() throws IOException
+	{
+		if (sessionLog.length() > 0)
+		{
+			RandomAccessFile file = new RandomAccessFile(new File(sessionLog), "r");
+			try
+			{
+				log = new byte[(int) file.length()];
+				file.readFully(log);
+			} finally
+			{
+				file.close();
+			}
+		} else
+		{
+			log = syntheticLog();
+		}
+	}
+
+	private static byte[] syntheticLog()
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		SessionRecorder recorder = new SessionRecorder(out);
+		PencilSession session = new PencilSession();
+		session.setRecorder(recorder);
+		session.setGravityFactor(0.05f);
+		session.setScreen(BenchmarkScreen.CANVAS_WIDTH, BenchmarkScreen.CANVAS_HEIGHT, BenchmarkScreen.PENCIL_DISPLAY_WIDTH,
+				BenchmarkScreen.PENCIL_DISPLAY_LENGTH);
+
+		Random random = new Random(42);
+		long now = System.currentTimeMillis();
+		double theta = 0.0;
+		for (int frame = 0; frame < SYNTHETIC_FRAMES; frame++)
+		{
+			now += FRAME_INTERVAL;
+			theta = 0.999 * theta + 0.01 * random.nextGaussian();
+			boolean flipped = (frame / 1200) % 2 == 1;
+			session.setAccelerationData(9.81, flipped ? ((theta > 0) ? theta - Math.PI : theta + Math.PI) : theta);
+
+			int grab = frame % 600;
+			if (grab >= 540 && grab < 580)
+			{
+				session.setTouch(BenchmarkScreen.CANVAS_WIDTH/2.0f + (grab - 560) * 4.0f, BenchmarkScreen.CANVAS_HEIGHT/2.0f);
+			} else if (grab == 580)
+			{
+				session.releaseTouch(now - FRAME_INTERVAL/2);
+			}
+			session.update(now);
+		}
+		recorder.close();
+		return out.toByteArray();
+	}
+
+	@Benchmark
+	public PencilSession replay() throws IOException
+	{
+		SessionReplayer replayer = new SessionReplayer(new ByteArrayInputStream(log));
+		replayer.replay();
+		return replayer.getSession();
+	}
+}
@@ -1,15 +1,12 @@
 package com.pencildisplay;
 
-import java.util.concurrent.TimeUnit;
-
-import android.util.Log;
-
-import com.pencilanimations.ExplosionConfig;
-
 /** Contains methods to help with the display of the pencil simulator. */
 
 public class PencilDisplayHelper {
 
+	//longest text formatInterval writes: the hours of the longest interval, then ":mm:ss.t"
+	final public static int MAX_INTERVAL_LENGTH = 24;
+
 	//height and width of the canvas
 	private float mCanvasWidth, mCanvasHeight;
 	
@@ -164,63 +161,118 @@ public class PencilDisplayHelper {
     	return false;
     }
     
+    /**
+     * Calculate the screen area covered by the pencil when drawn at a tilt angle: the bounding box of the pencil
+     * rectangle rotated about its tip, rounded outwards to whole pixels and limited to the canvas.
+     * 
+     * @param double tiltAngle The pencil tilt angle to the horizontal
+     * @param boolean isInverted Whether or not screen is inverted
+     * @param int[] bounds Receives left, top, right and bottom of the area
+     */
+    public void calculatePencilBounds(double tiltAngle, boolean isInverted, int[] bounds)
+    {
+    	//pencil rectangle relative to the pivot at the tip, before rotation
+    	double left = -0.5 * pencilDisplayWidth;
+    	double right = 0.5 * pencilDisplayWidth;
+    	double top = isInverted ? 0.0 : -pencilDisplayLength;
+    	double bottom = isInverted ? pencilDisplayLength : 0.0;
+    	
+    	//the canvas rotates clockwise for positive angles, with y pointing down
+    	double cos = Math.cos(tiltAngle);
+    	double sin = Math.sin(tiltAngle);
+    	double x1 = left * cos - top * sin, x2 = right * cos - top * sin;
+    	double x3 = left * cos - bottom * sin, x4 = right * cos - bottom * sin;
+    	double y1 = left * sin + top * cos, y2 = right * sin + top * cos;
+    	double y3 = left * sin + bottom * cos, y4 = right * sin + bottom * cos;
+    	
+    	double pivotX = 0.5 * mCanvasWidth;
+    	double pivotY = isInverted ? 0.0 : mCanvasHeight;
+    	
+    	bounds[0] = Math.max(0, (int) Math.floor(pivotX + Math.min(Math.min(x1, x2), Math.min(x3, x4))));
+    	bounds[1] = Math.max(0, (int) Math.floor(pivotY + Math.min(Math.min(y1, y2), Math.min(y3, y4))));
+    	bounds[2] = Math.min((int) Math.ceil(mCanvasWidth), (int) Math.ceil(pivotX + Math.max(Math.max(x1, x2), Math.max(x3, x4))));
+    	bounds[3] = Math.min((int) Math.ceil(mCanvasHeight), (int) Math.ceil(pivotY + Math.max(Math.max(y1, y2), Math.max(y3, y4))));
+    }
+    
+    /**
+     * Format a time interval for display: "s.t" under a minute, "mm:ss.t" under an hour, "hh:mm:ss.t" from then on.
+     * 
+     * @param long l Time interval in milliseconds
+     * 
+     * @return String text The formatted interval
+     */
     public static String formatInterval(final long l)
     {
-        final long hr = TimeUnit.MILLISECONDS.toHours(l);
-        final long min = TimeUnit.MILLISECONDS.toMinutes(l - TimeUnit.HOURS.toMillis(hr));
-        final long sec = TimeUnit.MILLISECONDS.toSeconds(l - TimeUnit.HOURS.toMillis(hr) - TimeUnit.MINUTES.toMillis(min));
-        final long ms = TimeUnit.MILLISECONDS.toMillis(l - TimeUnit.HOURS.toMillis(hr) - TimeUnit.MINUTES.toMillis(min) - TimeUnit.SECONDS.toMillis(sec));
-        final long tenths = (long) (ms/100);
-        StringBuilder strBuilder = new StringBuilder();
-        if (hr > 0)
-        {
-        	//return String.format("%02d:%02d:%02d.%1d", hr, min, sec, tenths);
-        	if (hr < 10) {
-        		strBuilder.append("0");
-        	}
-        	strBuilder.append(hr);
-        	strBuilder.append(":");
-        	if (min < 10) {
-        		strBuilder.append("0");
-        	}
-        	strBuilder.append(min);
-        	strBuilder.append(":");
-        	if (sec < 10) {
-        		strBuilder.append("0");
-        	}
-        	strBuilder.append(sec);
-        	strBuilder.append(".");
-        	strBuilder.append(tenths);
-        	return strBuilder.toString();
-        } else if (min > 0)
-        {
-        	//return String.format("%02d:%02d.%1d", min, sec, tenths);
-        	if (min < 10) {
-        		strBuilder.append("0");
-        	}
-        	strBuilder.append(min);
-        	strBuilder.append(":");
-        	if (sec < 10) {
-        		strBuilder.append("0");
-        	}
-        	strBuilder.append(sec);
-        	strBuilder.append(".");
-        	strBuilder.append(tenths);
-        	return strBuilder.toString();
-        } else
-        {
-        	//return String.format("%d.%1d", sec, tenths);
-        	strBuilder.append(sec);
-        	strBuilder.append(".");
-        	strBuilder.append(tenths);
-        	return strBuilder.toString();
-        }
+    	char[] buffer = new char[MAX_INTERVAL_LENGTH];
+    	return new String(buffer, 0, formatInterval(l, buffer));
+    }
+    
+    /**
+     * Format a time interval for display into a buffer, without allocating, so it can be done on every frame.
+     * 
+     * @param long l Time interval in milliseconds, negative intervals are formatted as 0
+     * @param char[] buffer Receives the text, at least MAX_INTERVAL_LENGTH long
+     * 
+     * @return int length Number of characters written
+     */
+    public static int formatInterval(final long l, char[] buffer)
+    {
+    	final long tenths = Math.max(0, l)/100;
+    	final long hr = tenths/36000;
+    	final long min = tenths/600 % 60;
+    	final long sec = tenths/10 % 60;
+    	int length;
+    	if (hr > 0)
+    	{
+    		length = formatNumber(hr, 2, buffer, 0);
+    		buffer[length++] = ':';
+    		length = formatNumber(min, 2, buffer, length);
+    		buffer[length++] = ':';
+    		length = formatNumber(sec, 2, buffer, length);
+    	} else if (min > 0)
+    	{
+    		length = formatNumber(min, 2, buffer, 0);
+    		buffer[length++] = ':';
+    		length = formatNumber(sec, 2, buffer, length);
+    	} else
+    	{
+    		length = formatNumber(sec, 1, buffer, 0);
+    	}
+    	buffer[length++] = '.';
+    	buffer[length++] = (char) ('0' + tenths % 10);
+    	return length;
+    }
+    
+    /**
+     * Write a number in decimal into a buffer, without allocating.
+     * 
+     * @param long number The number, not negative
+     * @param int minDigits Number of digits to pad the number to with leading zeros
+     * @param char[] buffer Receives the digits
+     * @param int offset Position of the first digit in the buffer
+     * 
+     * @return int offset Position after the last digit
+     */
+    public static int formatNumber(long number, int minDigits, char[] buffer, int offset)
+    {
+    	int digits = 1;
+    	for (long rest = number/10; rest > 0; rest /= 10)
+    	{
+    		digits++;
+    	}
+    	int end = offset + Math.max(digits, minDigits);
+    	for (int i = end - 1; i >= offset; i--)
+    	{
+    		buffer[i] = (char) ('0' + number % 10);
+    		number /= 10;
+    	}
+    	return end;
     }
     
     /**
      * Calculate position of explosion relative to pencil.
      * 
-     * @param ExplosionConfig config The explosion config
+     * @param int direction Explosion direction: 1 = right-hand wall, -1 = left-hand wall
      * @param double angularVelocity The pencil's angular velocity
      * @param double maxTiltAngle The maximum allowed tilt angle before the pencil hits the wall
      * @param boolean isInverted Whether or not screen is inverted
@@ -228,7 +280,7 @@ public class PencilDisplayHelper {
      * @return float X position of the explosion relative to the pencil
      * @return float Y position of the explosion relative to the pencil
      */
-    public int[] getExplosionPosition(ExplosionConfig config, double angularVelocity, double maxTiltAngle,
+    public int[] getExplosionPosition(int direction, double angularVelocity, double maxTiltAngle,
     		boolean isInverted)
     {
     	angularVelocity = Math.abs(angularVelocity);
@@ -237,7 +289,7 @@ public class PencilDisplayHelper {
     	
     	if (isInverted)
     	{
-    		position[0] = ((config.direction < 0) ? ((int) ( 0.985 * mCanvasWidth)) : ((int) (0.015 * mCanvasWidth)));
+    		position[0] = ((direction < 0) ? ((int) ( 0.985 * mCanvasWidth)) : ((int) (0.015 * mCanvasWidth)));
     		position[1] = (int) (1.0 * pencilDisplayLength * (float) Math.cos(maxTiltAngle));
     	} else
     	{   	
@@ -258,7 +310,7 @@ public class PencilDisplayHelper {
 	    		paddingX = progress * 0.01f * mCanvasWidth;
 	    		paddingY = (0.97f + progress * 0.05f) * pencilDisplayLength * (float) Math.cos(maxTiltAngle);
 	    	}
-	    	position[0] = ((config.direction > 0) ? ((int) (mCanvasWidth - paddingX)) : ((int) (paddingX)));
+	    	position[0] = ((direction > 0) ? ((int) (mCanvasWidth - paddingX)) : ((int) (paddingX)));
 	    	position[1] = (int) (mCanvasHeight - paddingY);
     	}
     	
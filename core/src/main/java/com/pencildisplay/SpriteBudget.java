@@ -0,0 +1,94 @@
+package com.pencildisplay;
+
+import java.util.ArrayList;
+
+/**
+ * Memory budget for pre-rendered pencil images, shared by all SpriteSlots of the process: the game view, and all
+ * wallpaper engines at the same time (e.g. the preview and the wallpaper on the home screen). A new sprite only gets
+ * memory by dropping sprites of its own slots that are farther from the angle drawn, so a surface that is not drawn
+ * keeps what it has until trim() drops it.
+ */
+public class SpriteBudget {
+
+	//part of the memory available to the app that the sprites may take
+	final public static int DEFAULT_MEMORY_FRACTION = 8;
+
+	private static SpriteBudget instance = null;
+
+	final private long maxBytes;
+	private long usedBytes = 0;
+
+	//slots holding memory of the budget
+	final private ArrayList<SpriteSlots<?>> slots = new ArrayList<SpriteSlots<?>>();
+
+    /**
+     * Constructor
+     *
+     * @param long maxBytes Memory budget for all sprites, in bytes
+     */
+	public SpriteBudget(long maxBytes)
+	{
+		this.maxBytes = maxBytes;
+	}
+
+    /**
+     * The budget shared by the whole process.
+     */
+	public static synchronized SpriteBudget getInstance()
+	{
+		if (instance == null)
+		{
+			instance = new SpriteBudget(Runtime.getRuntime().maxMemory()/DEFAULT_MEMORY_FRACTION);
+		}
+		return instance;
+	}
+
+	public long getMaxBytes()
+	{
+		return maxBytes;
+	}
+
+	public synchronized long getUsedBytes()
+	{
+		return usedBytes;
+	}
+
+    /**
+     * Drop sprites until all of them take at most maxBytes, the ones farthest from the angle drawn first, taking
+     * turns between the slots. The slots render them again when they are drawn next.
+     *
+     * @param long maxBytes Memory the sprites may keep, in bytes
+     */
+	public synchronized void trim(long maxBytes)
+	{
+		boolean dropped = true;
+		while (usedBytes > maxBytes && dropped)
+		{
+			dropped = false;
+			for (int i = 0; i < slots.size() && usedBytes > maxBytes; i++)
+			{
+				dropped |= slots.get(i).dropFarthest(-1);
+			}
+		}
+	}
+
+	//called by the slots, with the lock of the budget held
+	void add(SpriteSlots<?> owner, long bytes)
+	{
+		usedBytes += bytes;
+		if (!slots.contains(owner))
+		{
+			slots.add(owner);
+		}
+	}
+
+	void remove(long bytes)
+	{
+		usedBytes -= bytes;
+	}
+
+	void unregister(SpriteSlots<?> owner)
+	{
+		slots.remove(owner);
+	}
+}
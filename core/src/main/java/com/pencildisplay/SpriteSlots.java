@@ -0,0 +1,294 @@
+package com.pencildisplay;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Images of the pencil pre-rendered at tilt angles rounded to a fixed step, between -maxTiltAngle and +maxTiltAngle.
+ * The thread that draws only looks up the sprite for the angle it draws and tells the slots with drawn(): it never
+ * renders or waits for a render, and draws the pencil some other way while the sprite is missing. Once the pencil
+ * stays at an angle, resting or balancing, a background thread calls render(), which renders the missing sprites
+ * around it, nearest first, and makes room for them within the SpriteBudget by dropping the sprites farthest from it.
+ * A moving pencil is at a new angle every frame, which would not get drawn from a sprite more than once, so nothing is
+ * rendered for it.
+ *
+ * Dropped sprites are not recycled, since a frame still being drawn may use them.
+ */
+public class SpriteSlots<T> {
+
+	/** Renders the sprites, on the background thread. */
+	public interface Renderer<T> {
+
+	    /**
+	     * Memory a sprite takes, before it is rendered.
+	     *
+	     * @param double angle The tilt angle of the sprite
+	     *
+	     * @return long bytes Size of the sprite in bytes, more than 0
+	     */
+		long sizeOf(double angle);
+
+	    /**
+	     * Render a sprite.
+	     *
+	     * @param double angle The tilt angle of the sprite
+	     *
+	     * @return T sprite The sprite
+	     */
+		T render(double angle);
+	}
+
+	//index of an angle beyond the largest tilt angle, which has no sprite
+	final public static int NO_SLOT = Integer.MIN_VALUE;
+
+	//angle between two sprites, and the largest sprite index either way
+	final private double angleStep;
+	final private int maxIndex;
+
+	final private SpriteBudget budget;
+
+	//sprites by index + maxIndex, read without a lock by the thread that draws
+	final private AtomicReferenceArray<T> sprites;
+
+	//memory taken or reserved for each sprite, under the lock of the budget
+	final private long[] bytes;
+	private boolean released = false;
+
+	//sprite index drawn last, and whether the background thread has been asked to render around it
+	private volatile int drawnIndex = NO_SLOT;
+	final private AtomicBoolean rendering = new AtomicBoolean(false);
+
+	//index the pencil stayed at when drawn() last asked to render, for the thread that draws only
+	private int requestedIndex = NO_SLOT;
+
+    /**
+     * Constructor
+     *
+     * @param double maxTiltAngle Largest tilt angle either way to keep sprites for
+     * @param double angleStep Angle between two sprites, in radians
+     * @param SpriteBudget budget Memory budget shared with the other slots of the process
+     */
+	public SpriteSlots(double maxTiltAngle, double angleStep, SpriteBudget budget)
+	{
+		this.angleStep = angleStep;
+		this.budget = budget;
+		maxIndex = (int) Math.ceil(maxTiltAngle/angleStep);
+		sprites = new AtomicReferenceArray<T>(2 * maxIndex + 1);
+		bytes = new long[2 * maxIndex + 1];
+	}
+
+    /**
+     * The sprite index of a tilt angle.
+     *
+     * @param double tiltAngle The pencil tilt angle to the horizontal
+     *
+     * @return int index The tilt angle divided by the angle step and rounded, NO_SLOT beyond the largest tilt angle
+     */
+	public int index(double tiltAngle)
+	{
+		long index = Math.round(tiltAngle/angleStep);
+		if (Math.abs(index) > maxIndex)
+		{
+			return NO_SLOT;
+		}
+		return (int) index;
+	}
+
+	public double angle(int index)
+	{
+		return index * angleStep;
+	}
+
+    /**
+     * The angle the pencil is actually drawn at for a tilt angle.
+     *
+     * @param double tiltAngle The pencil tilt angle to the horizontal
+     *
+     * @return double tiltAngle The tilt angle rounded to the angle step, if it has a sprite index
+     */
+	public double quantize(double tiltAngle)
+	{
+		int index = index(tiltAngle);
+		return (index == NO_SLOT) ? tiltAngle : angle(index);
+	}
+
+    /**
+     * The sprite at an index, if it is rendered.
+     *
+     * @param int index The sprite index, not NO_SLOT
+     *
+     * @return T sprite The sprite, or null
+     */
+	public T get(int index)
+	{
+		return sprites.get(index + maxIndex);
+	}
+
+    /**
+     * For the thread that draws: the pencil was drawn at a sprite index. Cheap enough to call every frame.
+     *
+     * @param int index The sprite index, not NO_SLOT
+     *
+     * @return boolean True if the background thread needs to be started to call render()
+     */
+	public boolean drawn(int index)
+	{
+		//only the thread that draws writes it
+		int previous = drawnIndex;
+		drawnIndex = index;
+		if (index != previous)
+		{
+			requestedIndex = NO_SLOT;
+			return false;
+		}
+		//asked once while the pencil stays, and again while its sprite is missing, e.g. while a render was running
+		if (index == requestedIndex && sprites.get(index + maxIndex) != null)
+		{
+			return false;
+		}
+		requestedIndex = index;
+		return rendering.compareAndSet(false, true);
+	}
+
+    /**
+     * For the background thread, once drawn() asked for it: render the missing sprites up to a number of steps
+     * either way from the index drawn last, nearest first, as far as the budget allows. Stops early when the pencil
+     * moves on.
+     *
+     * @param Renderer<T> renderer Renders the sprites
+     * @param int range Number of sprites either way of the one drawn to render ahead
+     */
+	public void render(Renderer<T> renderer, int range)
+	{
+		renderAround(renderer, drawnIndex, range);
+		rendering.set(false);
+	}
+
+	//render nearest first, until done, out of budget, or the index drawn changes
+	private void renderAround(Renderer<T> renderer, int center, int range)
+	{
+		for (int distance = 0; distance <= range; distance++)
+		{
+			for (int side = 1; side >= -1; side -= 2)
+			{
+				int index = center + side * distance;
+				if ((distance == 0 && side < 0) || Math.abs(index) > maxIndex || get(index) != null)
+				{
+					continue;
+				}
+				if (center != drawnIndex)
+				{
+					return;
+				}
+
+				double angle = angle(index);
+				long size = renderer.sizeOf(angle);
+				if (!reserve(index, size, distance))
+				{
+					return;
+				}
+				T sprite = renderer.render(angle);
+				if (!put(index, sprite, size))
+				{
+					return;
+				}
+			}
+		}
+	}
+
+	//make room for a sprite by dropping sprites farther from the index drawn
+	private boolean reserve(int index, long size, int distance)
+	{
+		synchronized (budget)
+		{
+			if (released || size > budget.getMaxBytes())
+			{
+				return false;
+			}
+			while (budget.getUsedBytes() + size > budget.getMaxBytes())
+			{
+				if (!dropFarthest(distance))
+				{
+					return false;
+				}
+			}
+			bytes[index + maxIndex] = size;
+			budget.add(this, size);
+			return true;
+		}
+	}
+
+	//publish a rendered sprite, unless it was dropped while rendering
+	private boolean put(int index, T sprite, long size)
+	{
+		synchronized (budget)
+		{
+			if (released || bytes[index + maxIndex] != size)
+			{
+				return false;
+			}
+			sprites.set(index + maxIndex, sprite);
+			return true;
+		}
+	}
+
+	//drop the sprite farthest from the index drawn, if it is farther than minDistance. With the lock of the budget
+	boolean dropFarthest(int minDistance)
+	{
+		int center = drawnIndex;
+		int farthest = -1;
+		int farthestDistance = minDistance;
+		for (int i = 0; i < bytes.length; i++)
+		{
+			int distance = Math.abs(i - maxIndex - center);
+			if (bytes[i] > 0 && distance > farthestDistance)
+			{
+				farthest = i;
+				farthestDistance = distance;
+			}
+		}
+		if (farthest < 0)
+		{
+			return false;
+		}
+		drop(farthest);
+		return true;
+	}
+
+	private void drop(int slot)
+	{
+		sprites.set(slot, null);
+		budget.remove(bytes[slot]);
+		bytes[slot] = 0;
+	}
+
+    /**
+     * Drop all sprites and give their memory back to the budget. They are rendered again when drawn next.
+     */
+	public void clear()
+	{
+		synchronized (budget)
+		{
+			for (int i = 0; i < bytes.length; i++)
+			{
+				if (bytes[i] > 0)
+				{
+					drop(i);
+				}
+			}
+		}
+	}
+
+    /**
+     * Drop all sprites for good, once the slots are not drawn any more. A render in progress is thrown away.
+     */
+	public void release()
+	{
+		synchronized (budget)
+		{
+			released = true;
+			clear();
+			budget.unregister(this);
+		}
+	}
+}
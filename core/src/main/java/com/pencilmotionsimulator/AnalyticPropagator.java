@@ -0,0 +1,458 @@
+package com.pencilmotionsimulator;
+
+/**
+ * Exact solution of the pencil motion x'' = (g/l) sin(x - theta) while g and theta stay constant, in terms of Jacobi
+ * elliptic functions. Jumps the pencil forward by any time in constant time, and finds the exact time at which the
+ * pencil reaches a given angle, e.g. a wall.
+ *
+ * With psi = x - theta, w = sqrt(g/l) t and m1 = sin(psi/2)^2 - v^2 l/(4g), the energy invariant splits the motion
+ * into three cases:
+ *  - m1 > 0: the pencil does not get over the top. With w measured from the moment it is closest to the top,
+ *    sin(psi/2) = +-sqrt(m1) nd(w|1 - m1).
+ *  - m1 < 0: the pencil goes over the top. With q = -m1 and w measured from the moment it passes the top,
+ *    sin(psi/2) = +-sqrt(q/(1 + q)) sd(sqrt(1 + q) w|1/(1 + q)).
+ *  - m1 = 0: the pencil creeps towards (or away from) the top forever, sin(psi/2) = +-sech(w).
+ * The elliptic functions are evaluated with the complementary parameter 1 - m passed in directly, so a pencil
+ * balanced close to the top, where m is within rounding of 1, loses no accuracy. The Jacobi functions come from the
+ * arithmetic-geometric mean, their inverse from Carlson's symmetric integral RF.
+ *
+ * Ignores the sine kernel of the simulator. Not thread safe, since it keeps scratch space for the evaluation.
+ *
+ * Neither PencilSession nor the wallpaper selects it: they step the default RK4 integrator every frame, and do not
+ * skip frames or sleep until the next wall contact.
+ */
+
+public class AnalyticPropagator implements Integrator, ContactSolver {
+
+	//AGM iterations needed for a parameter within 1e-300 of 1 are well below this
+	final private static int MAX_AGM_ITERATIONS = 16;
+	final private static double AGM_TOLERANCE = 1e-16;
+
+	//gives RF to within rounding
+	final private static double CARLSON_TOLERANCE = 0.0025;
+	final private static int MAX_CARLSON_ITERATIONS = 40;
+
+	final private static double TWO_PI = 2.0 * Math.PI;
+
+	//motion cases, as set by prepare()
+	final private static int STATIONARY = 0;
+	final private static int FREE = 1;
+	final private static int LIBRATION = 2;
+	final private static int ROTATION = 3;
+	final private static int SEPARATRIX = 4;
+
+	//scratch space of the AGM
+	final private double[] agmA = new double[MAX_AGM_ITERATIONS + 1];
+	final private double[] agmC = new double[MAX_AGM_ITERATIONS + 1];
+
+	//result of the last evaluation of the Jacobi functions
+	private double sn, cn, dn;
+
+	//solution set up by prepare(): case, sqrt(g/l), parameter and complementary parameter, quarter period,
+	//elliptic argument now, time scale of the argument, side of the top, and multiple of 2 PI taken off psi
+	private int motion;
+	private double omega, m, m1, quarterPeriod, argument, argumentRate, sign, offset;
+
+	//for a pencil going over the top: sqrt(1 - m)
+	private double beta;
+
+	//angle and velocity of the last state prepared, for free motion
+	private double x0, v0;
+
+	public void integrate(MotionSimulator simulator, MotionState state, double g, double theta, double dt)
+	{
+		propagate(simulator, state, g, theta, dt);
+	}
+
+	/**
+     * Advance angular displacement and velocity in place by the exact solution, for any length of time.
+     *
+     * @param MotionSimulator simulator The simulator providing the pencil length
+     * @param MotionState state Current angular displacement and velocity, overwritten with the new values
+     * @param double g Magnitude of gravitational acceleration
+     * @param double theta Angle of direction of gravitational force to the negative y axis
+     * @param double dt Time in seconds to advance by
+     */
+	public void propagate(MotionSimulator simulator, MotionState state, double g, double theta, double dt)
+	{
+		prepare(simulator, state, g, theta);
+		switch (motion)
+		{
+			case STATIONARY:
+				return;
+			case FREE:
+				state.x = x0 + v0 * dt;
+				return;
+			case LIBRATION:
+			{
+				jacobi(argument + argumentRate * dt);
+				double s = sign * Math.sqrt(m1);
+				state.x = theta + offset + 2.0 * Math.atan2(s, Math.sqrt(m) * cn);
+				state.v = 2.0 * omega * s * Math.sqrt(m) * sn/dn;
+				return;
+			}
+			case ROTATION:
+			{
+				double u = argument + argumentRate * dt;
+				double turns = Math.floor((u + quarterPeriod)/(2.0 * quarterPeriod));
+				jacobi(u - 2.0 * quarterPeriod * turns);
+				state.x = theta + offset + sign * (2.0 * Math.atan2(beta * sn, cn) + TWO_PI * turns);
+				state.v = sign * argumentRate * 2.0 * beta/dn;
+				return;
+			}
+			case SEPARATRIX:
+			{
+				double w = argument + omega * dt;
+				state.x = theta + offset + 2.0 * Math.atan2(sign, argumentRate * Math.sinh(w));
+				state.v = -2.0 * sign * argumentRate * omega/Math.cosh(w);
+				return;
+			}
+		}
+	}
+
+	/**
+     * Time until the pencil hits a wall of the simulator, i.e. reaches the wall moving towards it.
+     *
+     * @param MotionSimulator simulator The simulator providing the pencil length and walls
+     * @param MotionState state Current angular displacement and velocity
+     * @param double g Magnitude of gravitational acceleration
+     * @param double theta Angle of direction of gravitational force to the negative y axis
+     *
+     * @return double time Time in seconds until the next wall hit, infinite if the pencil never hits a wall
+     */
+	public double timeToWall(MotionSimulator simulator, MotionState state, double g, double theta)
+	{
+		double maxTiltAngle = simulator.getMaxTiltAngle();
+		return Math.min(timeToAngle(simulator, state, g, theta, maxTiltAngle, 1),
+				timeToAngle(simulator, state, g, theta, -maxTiltAngle, -1));
+	}
+
+	/**
+     * Time until the pencil next reaches a given angle.
+     *
+     * @param MotionSimulator simulator The simulator providing the pencil length
+     * @param MotionState state Current angular displacement and velocity
+     * @param double g Magnitude of gravitational acceleration
+     * @param double theta Angle of direction of gravitational force to the negative y axis
+     * @param double targetX Angular displacement to reach
+     * @param int direction 1 or -1 to only count the pencil passing the angle in that direction, 0 for either
+     *
+     * @return double time Time in seconds, more than 0, until the pencil reaches the angle, infinite if it never does
+     */
+	public double timeToAngle(MotionSimulator simulator, MotionState state, double g, double theta, double targetX,
+			int direction)
+	{
+		prepare(simulator, state, g, theta);
+		double psi = targetX - theta - offset;
+		switch (motion)
+		{
+			case FREE:
+			{
+				double t = (targetX - x0)/v0;
+				return (t > 0 && direction * v0 >= 0) ? t : Double.POSITIVE_INFINITY;
+			}
+			case LIBRATION:
+			{
+				//the pencil stays on one side of the top, never closer to it than its turning point
+				double s = Math.sin(0.5 * psi);
+				if (sign * s <= 0 || s * s < m1 || Math.abs(psi) >= TWO_PI)
+				{
+					return Double.POSITIVE_INFINITY;
+				}
+				double dnT = Math.sqrt(m1)/Math.abs(s);
+				double snT = Math.sqrt(Math.max(0.0, (1.0 - dnT) * (1.0 + dnT)/m));
+				double cnT = Math.cos(0.5 * psi) * dnT/Math.sqrt(m);
+				double a = incompleteIntegral(snT, Math.abs(cnT), dnT * dnT);
+				if (cnT < 0)
+				{
+					a = 2.0 * quarterPeriod - a;
+				}
+
+				//the angle is passed moving away from the top at +a, moving towards it at -a, every full period
+				double period = 4.0 * quarterPeriod;
+				double best = Double.POSITIVE_INFINITY;
+				for (int away = -1; away <= 1; away += 2)
+				{
+					if (direction != 0 && direction != (int) sign * away)
+					{
+						continue;
+					}
+					double target = away * a;
+					double next = target + period * Math.ceil((argument - target)/period);
+					if (next <= argument)
+					{
+						next += period;
+					}
+					best = Math.min(best, next);
+				}
+				return (best - argument)/argumentRate;
+			}
+			case ROTATION:
+			{
+				//the angle only ever grows in the direction of motion
+				if (direction != 0 && direction != (int) sign)
+				{
+					return Double.POSITIVE_INFINITY;
+				}
+				double half = 0.5 * sign * psi;
+				double turns = Math.rint(half/Math.PI);
+				double reduced = half - Math.PI * turns;
+				rotationArgument(Math.sin(reduced), Math.cos(reduced));
+				double u = argumentFromScratch() + 2.0 * quarterPeriod * turns;
+				return (u > argument) ? (u - argument)/argumentRate : Double.POSITIVE_INFINITY;
+			}
+			case SEPARATRIX:
+			{
+				double s = Math.sin(0.5 * psi);
+				if (sign * s <= 0 || Math.abs(psi) >= TWO_PI)
+				{
+					return Double.POSITIVE_INFINITY;
+				}
+				//velocity keeps its sign
+				if (direction != 0 && direction != (int) (-sign * argumentRate))
+				{
+					return Double.POSITIVE_INFINITY;
+				}
+				double w = asinh(argumentRate * sign * Math.cos(0.5 * psi)/s);
+				return (w > argument) ? (w - argument)/omega : Double.POSITIVE_INFINITY;
+			}
+			default:
+				return Double.POSITIVE_INFINITY;
+		}
+	}
+
+	/**
+     * Work out which case of the motion the state is in, and where on its trajectory it is.
+     */
+	private void prepare(MotionSimulator simulator, MotionState state, double g, double theta)
+	{
+		x0 = state.x;
+		v0 = state.v;
+		double k = g/simulator.l;
+		if (k == 0)
+		{
+			motion = (v0 == 0) ? STATIONARY : FREE;
+			offset = 0.0;
+			return;
+		}
+		omega = Math.sqrt(k);
+
+		//angle from the top, reduced to [-PI, PI) so that cos(psi/2) >= 0
+		double psi = x0 - theta;
+		offset = TWO_PI * Math.floor((psi + Math.PI)/TWO_PI);
+		psi -= offset;
+		double s = Math.sin(0.5 * psi);
+		double c = Math.cos(0.5 * psi);
+		double kinetic = v0 * v0/(4.0 * k);
+		m1 = s * s - kinetic;
+
+		if (m1 > 0)
+		{
+			m = kinetic + c * c;
+			if (m == 0)
+			{
+				//hanging straight down at rest
+				motion = STATIONARY;
+				return;
+			}
+			motion = LIBRATION;
+			sign = (s > 0) ? 1.0 : -1.0;
+			quarterPeriod = carlsonRF(0.0, m1, 1.0);
+			argumentRate = omega;
+
+			//w is 0 at the turning point closest to the top, and grows while the pencil moves away from the top
+			double dnW = Math.sqrt(m1)/Math.abs(s);
+			double snW = Math.abs(v0)/(2.0 * omega * Math.abs(s) * Math.sqrt(m));
+			double cnW = c * dnW/Math.sqrt(m);
+			argument = incompleteIntegral(Math.min(1.0, snW), cnW, dnW * dnW);
+			if (s * v0 < 0)
+			{
+				argument = -argument;
+			}
+		} else if (m1 < 0)
+		{
+			motion = ROTATION;
+			double q = -m1;
+			m = 1.0/(1.0 + q);
+			m1 = q/(1.0 + q);
+			beta = Math.sqrt(m1);
+			sign = (v0 > 0) ? 1.0 : -1.0;
+			quarterPeriod = carlsonRF(0.0, m1, 1.0);
+			argumentRate = omega * Math.sqrt(1.0 + q);
+
+			//u is 0 when the pencil passes the top
+			rotationArgument(sign * s, c);
+			argument = argumentFromScratch();
+		} else
+		{
+			if (s == 0)
+			{
+				//balanced exactly on the top
+				motion = STATIONARY;
+				return;
+			}
+			motion = SEPARATRIX;
+			sign = (s > 0) ? 1.0 : -1.0;
+			//w grows towards the top when argumentRate is 1, away from it when -1
+			argumentRate = (s * v0 < 0) ? 1.0 : -1.0;
+			argument = argumentRate * Math.log((1.0 + c)/Math.abs(s));
+		}
+	}
+
+	/**
+     * Jacobi functions for a pencil going over the top, from the sine and cosine of half the angle past the top.
+     * Leaves them in sn, cn and dn.
+     */
+	private void rotationArgument(double sinHalf, double cosHalf)
+	{
+		//sin(psi/2) = beta sn/dn, cos(psi/2) = cn/dn
+		dn = 1.0/Math.sqrt(cosHalf * cosHalf + sinHalf * sinHalf/m1);
+		sn = sinHalf * dn/beta;
+		cn = cosHalf * dn;
+	}
+
+	/**
+     * Elliptic argument in [-K, K] of the Jacobi functions in sn, cn and dn.
+     */
+	private double argumentFromScratch()
+	{
+		double a = incompleteIntegral(Math.min(1.0, Math.abs(sn)), Math.abs(cn), dn * dn);
+		return (sn < 0) ? -a : a;
+	}
+
+	/**
+     * Incomplete elliptic integral of the first kind, F(phi|m) = sin(phi) RF(cos(phi)^2, 1 - m sin(phi)^2, 1).
+     *
+     * @param double sinPhi Sine of the amplitude, from 0 to 1
+     * @param double cosPhi Cosine of the amplitude, from 0 to 1
+     * @param double dn2 1 - m sin(phi)^2, passed in so that the caller can work it out without cancellation
+     *
+     * @return double F Elliptic argument with the given amplitude, from 0 to K
+     */
+	private static double incompleteIntegral(double sinPhi, double cosPhi, double dn2)
+	{
+		return sinPhi * carlsonRF(cosPhi * cosPhi, dn2, 1.0);
+	}
+
+	/**
+     * Jacobi elliptic functions sn, cn and dn with parameter m, left in the fields of the same name. The argument is
+     * first reduced to [0, K/2] with the period and reflection formulas, then evaluated by the AGM (Abramowitz and
+     * Stegun 16.4), so that cn and dn stay accurate close to the quarter period, where both are small.
+     *
+     * @param double u Elliptic argument
+     */
+	private void jacobi(double u)
+	{
+		double k = quarterPeriod;
+
+		//period 4K for sn and cn
+		u -= 4.0 * k * Math.floor((u + 2.0 * k)/(4.0 * k));
+		double snSign = (u < 0) ? -1.0 : 1.0;
+		double a = Math.abs(u);
+
+		//sn(2K - a) = sn(a), cn(2K - a) = -cn(a), dn(2K - a) = dn(a)
+		double cnSign = 1.0;
+		if (a > k)
+		{
+			a = 2.0 * k - a;
+			cnSign = -1.0;
+		}
+
+		if (a > 0.5 * k)
+		{
+			//sn(K - b) = cd(b), cn(K - b) = sqrt(m1) sd(b), dn(K - b) = sqrt(m1) nd(b)
+			agm(k - a);
+			double rootM1 = Math.sqrt(m1);
+			double s = cn/dn;
+			double c = rootM1 * sn/dn;
+			double d = rootM1/dn;
+			sn = s;
+			cn = c;
+			dn = d;
+		} else
+		{
+			agm(a);
+		}
+		sn *= snSign;
+		cn *= cnSign;
+	}
+
+	/**
+     * Jacobi elliptic functions for an argument in [0, K] by the descending AGM, left in sn, cn and dn.
+     */
+	private void agm(double u)
+	{
+		if (m1 == 0)
+		{
+			sn = Math.tanh(u);
+			cn = 1.0/Math.cosh(u);
+			dn = cn;
+			return;
+		}
+
+		double a = 1.0;
+		double b = Math.sqrt(m1);
+		double c = Math.sqrt(m);
+		int n = 0;
+		agmA[0] = a;
+		agmC[0] = c;
+		while (Math.abs(c) > AGM_TOLERANCE * a && n < MAX_AGM_ITERATIONS)
+		{
+			double aNext = 0.5 * (a + b);
+			b = Math.sqrt(a * b);
+			//(a - b)/2 without the cancellation
+			c = c * c/(4.0 * aNext);
+			a = aNext;
+			n++;
+			agmA[n] = a;
+			agmC[n] = c;
+		}
+
+		double phi = Math.scalb(a * u, n);
+		double previous = phi;
+		for (int i = n; i > 0; i--)
+		{
+			previous = phi;
+			phi = 0.5 * (phi + Math.asin(agmC[i]/agmA[i] * Math.sin(phi)));
+		}
+		sn = Math.sin(phi);
+		cn = Math.cos(phi);
+		dn = (n > 0) ? cn/Math.cos(previous - phi) : Math.sqrt(1.0 - m * sn * sn);
+	}
+
+	/**
+     * Carlson's symmetric elliptic integral of the first kind RF(x, y, z), by the duplication theorem.
+     */
+	static double carlsonRF(double x, double y, double z)
+	{
+		double mean = 0, dx = 0, dy = 0, dz = 0;
+		for (int i = 0; i < MAX_CARLSON_ITERATIONS; i++)
+		{
+			mean = (x + y + z)/3.0;
+			dx = 1.0 - x/mean;
+			dy = 1.0 - y/mean;
+			dz = 1.0 - z/mean;
+			if (Math.max(Math.abs(dx), Math.max(Math.abs(dy), Math.abs(dz))) < CARLSON_TOLERANCE)
+			{
+				break;
+			}
+			double rootX = Math.sqrt(x);
+			double rootY = Math.sqrt(y);
+			double rootZ = Math.sqrt(z);
+			double lambda = rootX * (rootY + rootZ) + rootY * rootZ;
+			x = 0.25 * (x + lambda);
+			y = 0.25 * (y + lambda);
+			z = 0.25 * (z + lambda);
+		}
+		double e2 = dx * dy - dz * dz;
+		double e3 = dx * dy * dz;
+		return (1.0 + (e2/24.0 - 0.1 - 3.0 * e3/44.0) * e2 + e3/14.0)/Math.sqrt(mean);
+	}
+
+	private static double asinh(double x)
+	{
+		double a = Math.abs(x);
+		double r = Math.log(a + Math.sqrt(a * a + 1.0));
+		return (x < 0) ? -r : r;
+	}
+}
@@ -0,0 +1,128 @@
+package com.pencilmotionsimulator;
+
+import java.util.Arrays;
+
+/**
+ * Distribution of balance times from a set of simulated runs. Runs still balanced at the end of the simulated time
+ * are counted with the simulated time as their balance time, so the mean is a lower bound when there are such runs.
+ */
+
+public class BalanceTimeEstimate {
+
+	//gravity factor the runs were simulated at
+	final public double gravityFactor;
+
+	//balance time of each run in seconds, sorted in ascending order
+	final private double[] sortedTimes;
+
+	//longest time simulated per run
+	final public double maxBalanceTime;
+
+	//number of runs still balanced at maxBalanceTime
+	final public int censoredRuns;
+
+	//mean balance time in seconds
+	final public double mean;
+
+	public BalanceTimeEstimate(double gravityFactor, double[] times, double maxBalanceTime)
+	{
+		this.gravityFactor = gravityFactor;
+		this.maxBalanceTime = maxBalanceTime;
+		sortedTimes = times.clone();
+		Arrays.sort(sortedTimes);
+
+		double sum = 0.0;
+		int censored = 0;
+		for (int i = 0; i < sortedTimes.length; i++)
+		{
+			sum += sortedTimes[i];
+			if (sortedTimes[i] >= maxBalanceTime)
+			{
+				censored++;
+			}
+		}
+		mean = (sortedTimes.length > 0) ? sum/sortedTimes.length : Double.NaN;
+		censoredRuns = censored;
+	}
+
+	public int getRuns()
+	{
+		return sortedTimes.length;
+	}
+
+    /**
+     * Balance time below which a given share of the runs fell, interpolated linearly between runs.
+     *
+     * @param double percent Share of the runs, from 0 to 100
+     *
+     * @return double time Balance time in seconds
+     */
+	public double percentile(double percent)
+	{
+		int n = sortedTimes.length;
+		if (n == 0)
+		{
+			return Double.NaN;
+		}
+		double rank = Math.max(0.0, Math.min(1.0, percent/100.0)) * (n - 1);
+		int below = (int) Math.floor(rank);
+		int above = Math.min(n - 1, below + 1);
+		double fraction = rank - below;
+		return sortedTimes[below] + fraction * (sortedTimes[above] - sortedTimes[below]);
+	}
+
+    /**
+     * Share of the runs still balanced after a given time.
+     *
+     * @param double time Time in seconds
+     *
+     * @return double survival Share of the runs, from 0 to 1, with a balance time longer than the given time
+     */
+	public double survival(double time)
+	{
+		int n = sortedTimes.length;
+		if (n == 0)
+		{
+			return Double.NaN;
+		}
+		//first run with a balance time above the given time
+		int lo = 0, hi = n;
+		while (lo < hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			if (sortedTimes[mid] <= time)
+			{
+				lo = mid + 1;
+			} else
+			{
+				hi = mid;
+			}
+		}
+		return (double) (n - lo)/n;
+	}
+
+    /**
+     * Survival curve at evenly spaced times.
+     *
+     * @param double interval Time in seconds between points on the curve
+     * @param int points Number of points on the curve
+     *
+     * @return double[] survival Share of the runs still balanced at time i * interval
+     */
+	public double[] survivalCurve(double interval, int points)
+	{
+		double[] curve = new double[points];
+		for (int i = 0; i < points; i++)
+		{
+			curve[i] = survival(i * interval);
+		}
+		return curve;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "gravityFactor=" + gravityFactor + ", runs=" + sortedTimes.length + ", censored=" + censoredRuns
+				+ ", mean=" + mean + ", p50=" + percentile(50) + ", p90=" + percentile(90) + ", p99=" + percentile(99);
+	}
+}
@@ -0,0 +1,245 @@
+package com.pencilmotionsimulator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.pencilsession.PencilSession;
+
+/**
+ * Estimates how long a pencil stays balanced at a given gravity factor, by simulating many runs from randomized
+ * starts under sensor noise, without any display. A run starts with the pencil just released near upright and ends
+ * when it visibly touches a wall, the same criterion the balance timer uses (PencilSession.WALL_CONTACT_FRACTION).
+ *
+ * The sensor reading of the gravity direction is modelled as a slow drift of the hand holding the phone (a mean
+ * reverting random walk) plus white noise, sampled at the sensor rate and held between samples.
+ *
+ * Every run draws its random numbers from its own generator, seeded from the estimator seed and the run index, so
+ * the result only depends on the seed and not on how the runs are spread over threads.
+ */
+
+public class BalanceTimeEstimator {
+
+	final public static double DEFAULT_STEP_SIZE = FixedTimestep.DEFAULT_STEP_SIZE;
+	final public static double DEFAULT_MAX_BALANCE_TIME = 300.0;
+	final public static double DEFAULT_START_TILT = 0.05;
+	final public static double DEFAULT_START_VELOCITY = 0.1;
+	final public static double DEFAULT_SENSOR_INTERVAL = 0.02;
+	final public static double DEFAULT_SENSOR_NOISE = 0.01;
+	final public static double DEFAULT_SENSOR_DRIFT = 0.02;
+	final public static double DEFAULT_SENSOR_DRIFT_TIME = 2.0;
+
+	//runs handed to a thread at a time
+	final static int RUNS_PER_TASK = 64;
+
+	final private static double G = 9.81;
+
+	//physical length of the pencil, and tilt angle at which it touches a wall
+	private double l;
+	private double maxTiltAngle;
+
+	//physics step, and longest time simulated per run
+	private double stepSize = DEFAULT_STEP_SIZE;
+	private double maxBalanceTime = DEFAULT_MAX_BALANCE_TIME;
+
+	//largest starting tilt (uniform) and standard deviation of the starting angular velocity (normal)
+	private double startTilt = DEFAULT_START_TILT;
+	private double startVelocity = DEFAULT_START_VELOCITY;
+
+	//time between sensor readings, standard deviation of the white noise on each reading
+	private double sensorInterval = DEFAULT_SENSOR_INTERVAL;
+	private double sensorNoise = DEFAULT_SENSOR_NOISE;
+
+	//standard deviation and correlation time of the slow drift of the gravity direction
+	private double sensorDrift = DEFAULT_SENSOR_DRIFT;
+	private double sensorDriftTime = DEFAULT_SENSOR_DRIFT_TIME;
+
+    /**
+     * Constructor
+     *
+     * @param double l Physical length of the pencil
+     * @param double maxTiltAngle Tilt angle at which the pencil touches a wall, as calculated by the display helper
+     */
+	public BalanceTimeEstimator(double l, double maxTiltAngle)
+	{
+		this.l = l;
+		this.maxTiltAngle = maxTiltAngle;
+	}
+
+    /**
+     * Set the physics step and the longest time simulated per run.
+     *
+     * @param double stepSize Physics step in seconds
+     * @param double maxBalanceTime Runs still balanced after this many seconds are stopped
+     */
+	public void setTiming(double stepSize, double maxBalanceTime)
+	{
+		this.stepSize = stepSize;
+		this.maxBalanceTime = maxBalanceTime;
+	}
+
+    /**
+     * Set the spread of the starting states.
+     *
+     * @param double startTilt Largest starting tilt angle, drawn uniformly from -startTilt to startTilt
+     * @param double startVelocity Standard deviation of the starting angular velocity
+     */
+	public void setStartSpread(double startTilt, double startVelocity)
+	{
+		this.startTilt = startTilt;
+		this.startVelocity = startVelocity;
+	}
+
+    /**
+     * Set the sensor noise model.
+     *
+     * @param double sensorInterval Time in seconds between sensor readings
+     * @param double sensorNoise Standard deviation of the white noise on each reading of the gravity direction
+     * @param double sensorDrift Standard deviation of the slow drift of the gravity direction
+     * @param double sensorDriftTime Correlation time in seconds of the drift
+     */
+	public void setSensorNoise(double sensorInterval, double sensorNoise, double sensorDrift, double sensorDriftTime)
+	{
+		this.sensorInterval = sensorInterval;
+		this.sensorNoise = sensorNoise;
+		this.sensorDrift = sensorDrift;
+		this.sensorDriftTime = sensorDriftTime;
+	}
+
+    /**
+     * Simulate runs spread over the threads of an executor, and collect their balance times.
+     *
+     * @param double gravityFactor Gravity factor as set in the settings screen
+     * @param int runs Number of runs
+     * @param long seed Seed the whole estimate is reproducible from
+     * @param ExecutorService executor Executor to run on, e.g. a fixed thread pool with one thread per core
+     *
+     * @return BalanceTimeEstimate The distribution of balance times
+     */
+	public BalanceTimeEstimate estimate(final double gravityFactor, int runs, final long seed, ExecutorService executor)
+			throws InterruptedException
+	{
+		final double[] times = new double[runs];
+
+		List<Future<?>> tasks = new ArrayList<Future<?>>();
+		for (int start = 0; start < runs; start += RUNS_PER_TASK)
+		{
+			final int from = start;
+			final int to = Math.min(runs, start + RUNS_PER_TASK);
+			tasks.add(executor.submit(new Callable<Void>() {
+				@Override
+				public Void call()
+				{
+					//one simulator per task, since the simulator keeps scratch state
+					MotionSimulator motionSimulator = new MotionSimulator(l);
+					MotionState motionState = new MotionState();
+					for (int i = from; i < to; i++)
+					{
+						times[i] = simulateRun(motionSimulator, motionState, gravityFactor, runSeed(seed, i));
+					}
+					return null;
+				}
+			}));
+		}
+
+		try
+		{
+			for (Future<?> task : tasks)
+			{
+				task.get();
+			}
+		} catch (ExecutionException e)
+		{
+			throw new RuntimeException(e.getCause());
+		} finally
+		{
+			for (Future<?> task : tasks)
+			{
+				task.cancel(true);
+			}
+		}
+
+		return new BalanceTimeEstimate(gravityFactor, times, maxBalanceTime);
+	}
+
+    /**
+     * Simulate runs on the calling thread only.
+     *
+     * @param double gravityFactor Gravity factor as set in the settings screen
+     * @param int runs Number of runs
+     * @param long seed Seed the whole estimate is reproducible from
+     *
+     * @return BalanceTimeEstimate The distribution of balance times, the same as estimate() gives for the same seed
+     */
+	public BalanceTimeEstimate estimate(double gravityFactor, int runs, long seed)
+	{
+		MotionSimulator motionSimulator = new MotionSimulator(l);
+		MotionState motionState = new MotionState();
+		double[] times = new double[runs];
+		for (int i = 0; i < runs; i++)
+		{
+			times[i] = simulateRun(motionSimulator, motionState, gravityFactor, runSeed(seed, i));
+		}
+		return new BalanceTimeEstimate(gravityFactor, times, maxBalanceTime);
+	}
+
+    /**
+     * Simulate one run.
+     *
+     * @param MotionSimulator motionSimulator Simulator to step the pencil with
+     * @param MotionState motionState Scratch state of the pencil
+     * @param double gravityFactor Gravity factor as set in the settings screen
+     * @param long seed Seed of this run
+     *
+     * @return double time Seconds until the pencil touched a wall, or maxBalanceTime if it did not
+     */
+	double simulateRun(MotionSimulator motionSimulator, MotionState motionState, double gravityFactor, long seed)
+	{
+		Random random = new Random(seed);
+		double g = gravityFactor * G;
+		double wallContact = PencilSession.WALL_CONTACT_FRACTION * maxTiltAngle;
+
+		motionState.set((2.0 * random.nextDouble() - 1.0) * startTilt, random.nextGaussian() * startVelocity);
+
+		//mean reverting random walk of the drift, advanced once per sensor reading
+		double driftDecay = Math.exp(-sensorInterval/sensorDriftTime);
+		double driftKick = sensorDrift * Math.sqrt(1.0 - driftDecay * driftDecay);
+		double drift = random.nextGaussian() * sensorDrift;
+		double theta = drift + random.nextGaussian() * sensorNoise;
+		double nextReading = sensorInterval;
+
+		double t = 0.0;
+		while (t < maxBalanceTime)
+		{
+			motionSimulator.step(motionState, g, theta, stepSize);
+			t += stepSize;
+			if (Math.abs(motionState.x) >= wallContact)
+			{
+				return t;
+			}
+			if (t >= nextReading)
+			{
+				drift = driftDecay * drift + driftKick * random.nextGaussian();
+				theta = drift + random.nextGaussian() * sensorNoise;
+				nextReading += sensorInterval;
+			}
+		}
+		return maxBalanceTime;
+	}
+
+    /**
+     * Seed of one run, mixed from the estimator seed and the run index (SplitMix64 finalizer), so neighbouring runs
+     * get unrelated random sequences.
+     */
+	static long runSeed(long seed, int index)
+	{
+		long z = seed + (index + 1) * 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+}
@@ -0,0 +1,242 @@
+package com.pencilmotionsimulator;
+
+/**
+ * Steps many pencils at once. The state is kept as a structure of arrays (one primitive array per quantity, indexed
+ * by pencil) and all pencils are advanced by velocity Verlet in one loop, so stepping a whole forest of pencils
+ * costs no allocation and no virtual calls.
+ *
+ * Each pencil has its own length, walls and restitution. A pencil that passes its wall during a sub-step is put back
+ * against the wall and bounces with the speed it had at the moment of contact, found from conservation of energy
+ * over that sub-step.
+ */
+
+public class BatchMotionSimulator {
+
+	final public static double DEFAULT_MAX_STEP_SIZE = 0.002;
+	final public static int DEFAULT_MAX_STEPS = 100;
+
+	//angular displacement and velocity of each pencil
+	final public double[] x;
+	final public double[] v;
+
+	//wall hit of each pencil during the last step: 1 = right-hand wall, -1 = left-hand wall, 0 = none
+	final public int[] wallHit;
+	//angular velocity at the moment of the hardest wall hit during the last step, before bouncing
+	final public double[] wallHitVelocity;
+
+	//physical length of each pencil
+	final private float[] length;
+
+	//tilt angle at which each pencil touches a wall, and fraction of the speed it keeps when bouncing
+	final private double[] maxTiltAngle;
+	final private float[] restitution;
+
+	//number of pencils in use
+	private int count;
+
+	//longest sub-step in seconds
+	private double maxStepSize;
+
+	//most sub-steps taken for one interval, however long the interval is
+	private int maxSteps;
+
+    /**
+     * Constructor with default step size and step budget
+     *
+     * @param int capacity Most pencils the simulator can hold
+     */
+	public BatchMotionSimulator(int capacity)
+	{
+		this(capacity, DEFAULT_MAX_STEP_SIZE, DEFAULT_MAX_STEPS);
+	}
+
+    /**
+     * Constructor
+     *
+     * @param int capacity Most pencils the simulator can hold
+     * @param double maxStepSize Longest sub-step in seconds
+     * @param int maxSteps Most sub-steps taken for one interval. If the interval needs more, the sub-steps get longer.
+     */
+	public BatchMotionSimulator(int capacity, double maxStepSize, int maxSteps)
+	{
+		x = new double[capacity];
+		v = new double[capacity];
+		wallHit = new int[capacity];
+		wallHitVelocity = new double[capacity];
+		length = new float[capacity];
+		maxTiltAngle = new double[capacity];
+		restitution = new float[capacity];
+		this.maxStepSize = maxStepSize;
+		this.maxSteps = Math.max(1, maxSteps);
+	}
+
+	public int getCount()
+	{
+		return count;
+	}
+
+	public int getCapacity()
+	{
+		return x.length;
+	}
+
+    /**
+     * Add a pencil without walls.
+     *
+     * @param double l Physical length of the pencil
+     * @param double x Angular displacement
+     * @param double v Angular velocity
+     *
+     * @return int index Index of the new pencil in the state arrays
+     */
+	public int add(double l, double x, double v)
+	{
+		return add(l, x, v, Double.POSITIVE_INFINITY, 0.0);
+	}
+
+    /**
+     * Add a pencil.
+     *
+     * @param double l Physical length of the pencil
+     * @param double x Angular displacement
+     * @param double v Angular velocity
+     * @param double maxTiltAngle Tilt angle at which the pencil touches a wall, on either side
+     * @param double restitution Fraction of the speed the pencil keeps when bouncing off a wall
+     *
+     * @return int index Index of the new pencil in the state arrays
+     */
+	public int add(double l, double x, double v, double maxTiltAngle, double restitution)
+	{
+		if (count == this.x.length)
+		{
+			throw new IllegalStateException("no room for more than " + count + " pencils");
+		}
+		int i = count++;
+		this.x[i] = x;
+		this.v[i] = v;
+		this.wallHit[i] = 0;
+		this.wallHitVelocity[i] = 0.0;
+		this.length[i] = (float) l;
+		this.maxTiltAngle[i] = maxTiltAngle;
+		this.restitution[i] = (float) restitution;
+		return i;
+	}
+
+    /**
+     * Remove all pencils.
+     */
+	public void clear()
+	{
+		count = 0;
+	}
+
+    /**
+     * Set the walls one pencil bounces off.
+     *
+     * @param int i Index of the pencil
+     * @param double maxTiltAngle Tilt angle at which the pencil touches a wall, on either side
+     * @param double restitution Fraction of the speed the pencil keeps when bouncing off a wall
+     */
+	public void setWalls(int i, double maxTiltAngle, double restitution)
+	{
+		this.maxTiltAngle[i] = maxTiltAngle;
+		this.restitution[i] = (float) restitution;
+	}
+
+    /**
+     * Set the walls all pencils bounce off.
+     *
+     * @param double maxTiltAngle Tilt angle at which the pencils touch a wall, on either side
+     * @param double restitution Fraction of the speed the pencils keep when bouncing off a wall
+     */
+	public void setWalls(double maxTiltAngle, double restitution)
+	{
+		for (int i = 0; i < count; i++)
+		{
+			setWalls(i, maxTiltAngle, restitution);
+		}
+	}
+
+	/**
+     * Advance all pencils in place. Wall hits are reported in wallHit and wallHitVelocity.
+     *
+     * @param double g Magnitude of gravitational acceleration
+     * @param double theta Angle of direction of gravitational force to the negative y axis
+     * @param double dt Time in seconds elapsed since the last calculation
+     */
+	public void step(double g, double theta, double dt)
+	{
+		if (dt <= 0)
+		{
+			return;
+		}
+
+		int steps = 1;
+		if (dt > maxStepSize)
+		{
+			steps = (int) Math.min(maxSteps, Math.ceil(dt/maxStepSize));
+		}
+		double h = dt/steps;
+
+		final double[] x = this.x;
+		final double[] v = this.v;
+		final int n = count;
+		for (int i = 0; i < n; i++)
+		{
+			double k = g/length[i];
+			double wall = maxTiltAngle[i];
+			double xi = x[i];
+			double vi = v[i];
+			int hit = 0;
+			double hitV = 0.0;
+
+			//a pencil already beyond the wall (e.g. after the walls moved) is put back against it
+			if (Math.abs(xi) > wall)
+			{
+				xi = (xi > 0) ? wall : -wall;
+			}
+
+			double a = k*Math.sin(xi - theta);
+			for (int s = 0; s < steps; s++)
+			{
+				double vHalf = vi + 0.5*h*a;
+				double xNext = xi + h*vHalf;
+				if (Math.abs(xNext) <= wall)
+				{
+					xi = xNext;
+					a = k*Math.sin(xi - theta);
+					vi = vHalf + 0.5*h*a;
+					continue;
+				}
+
+				//speed at the wall from energy conservation between the start of the sub-step and the contact
+				int side = (xNext > 0) ? 1 : -1;
+				double wallX = side * wall;
+				double vSquared = vi*vi + 2.0*k*(Math.cos(xi - theta) - Math.cos(wallX - theta));
+				double contactV = side * Math.sqrt(Math.max(0.0, vSquared));
+
+				xi = wallX;
+				a = k*Math.sin(xi - theta);
+				if (Math.abs(contactV) < MotionSimulator.WALL_STOP_VELOCITY)
+				{
+					//stop pencil if it's moving too slowly
+					vi = 0.0;
+				} else
+				{
+					if (Math.abs(contactV) > Math.abs(hitV))
+					{
+						hit = side;
+						hitV = contactV;
+					}
+					//make pencil bounce off side
+					vi = -restitution[i] * contactV;
+				}
+			}
+
+			x[i] = xi;
+			v[i] = vi;
+			wallHit[i] = hit;
+			wallHitVelocity[i] = hitV;
+		}
+	}
+}
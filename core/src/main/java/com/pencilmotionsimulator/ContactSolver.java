@@ -0,0 +1,24 @@
+package com.pencilmotionsimulator;
+
+/**
+ * An integrator that knows exactly when the pencil reaches a given angle. The motion simulator uses it to find the
+ * moment of a wall contact instead of searching for it on the integrated trajectory.
+ */
+
+public interface ContactSolver {
+
+	/**
+     * Time until the pencil next reaches a given angle, as the integrator moves it.
+     *
+     * @param MotionSimulator simulator The simulator providing the acceleration equation
+     * @param MotionState state Current angular displacement and velocity
+     * @param double g Magnitude of gravitational acceleration
+     * @param double theta Angle of direction of gravitational force to the negative y axis
+     * @param double targetX Angular displacement to reach
+     * @param int direction 1 or -1 to only count the pencil passing the angle in that direction, 0 for either
+     *
+     * @return double time Time in seconds, more than 0, until the pencil reaches the angle, infinite if it never does
+     */
+	double timeToAngle(MotionSimulator simulator, MotionState state, double g, double theta, double targetX,
+			int direction);
+}
@@ -0,0 +1,177 @@
+package com.pencilmotionsimulator;
+
+/**
+ * Adaptive Dormand-Prince 5(4) Runge-Kutta. The interval is covered by as many steps as are needed to keep the
+ * estimated local error below the tolerance, but never more than a fixed budget of steps, so that a long stalled
+ * frame cannot use up an unbounded amount of time. The last step in the budget is accepted whatever its error.
+ *
+ * An instance is stateful: the step size it settles on carries over to the next call, and the probe integrations of
+ * MotionSimulator.findWallContact() change it too. Give every simulator its own instance, and do not share one
+ * between simulators or threads.
+ */
+
+public class DormandPrinceIntegrator implements Integrator {
+
+	final public static double DEFAULT_TOLERANCE = 1e-6;
+	final public static int DEFAULT_MAX_STEPS = 20;
+
+	//Butcher tableau
+	final private static double A21 = 1.0/5.0;
+	final private static double A31 = 3.0/40.0, A32 = 9.0/40.0;
+	final private static double A41 = 44.0/45.0, A42 = -56.0/15.0, A43 = 32.0/9.0;
+	final private static double A51 = 19372.0/6561.0, A52 = -25360.0/2187.0, A53 = 64448.0/6561.0, A54 = -212.0/729.0;
+	final private static double A61 = 9017.0/3168.0, A62 = -355.0/33.0, A63 = 46732.0/5247.0, A64 = 49.0/176.0,
+		A65 = -5103.0/18656.0;
+	final private static double A71 = 35.0/384.0, A73 = 500.0/1113.0, A74 = 125.0/192.0, A75 = -2187.0/6784.0,
+		A76 = 11.0/84.0;
+
+	//difference between the fifth and fourth order weights, used for the error estimate
+	final private static double E1 = 71.0/57600.0, E3 = -71.0/16695.0, E4 = 71.0/1920.0, E5 = -17253.0/339200.0,
+		E6 = 22.0/525.0, E7 = -1.0/40.0;
+
+	//step size control
+	final private static double SAFETY = 0.9;
+	final private static double MIN_FACTOR = 0.2;
+	final private static double MAX_FACTOR = 5.0;
+
+	//allowed local error, relative to the size of the values
+	private double tolerance;
+
+	//most steps, accepted or rejected, taken for one interval
+	private int maxSteps;
+
+	//step size proposed for the next step, carried over between intervals
+	private double stepSize = 0.0;
+
+	//number of steps taken in the last interval
+	private int lastStepCount = 0;
+
+    /**
+     * Constructor with default tolerance and step budget
+     */
+	public DormandPrinceIntegrator()
+	{
+		this(DEFAULT_TOLERANCE, DEFAULT_MAX_STEPS);
+	}
+
+    /**
+     * Constructor
+     *
+     * @param double tolerance Allowed local error per step, relative to the size of the angle and velocity
+     * @param int maxSteps Most steps taken for one interval
+     */
+	public DormandPrinceIntegrator(double tolerance, int maxSteps)
+	{
+		this.tolerance = tolerance;
+		this.maxSteps = Math.max(1, maxSteps);
+	}
+
+	public void integrate(MotionSimulator simulator, MotionState state, double g, double theta, double dt)
+	{
+		lastStepCount = 0;
+		if (dt <= 0)
+		{
+			return;
+		}
+
+		double x = state.x;
+		double v = state.v;
+		double t = 0.0;
+
+		double h = (stepSize > 0) ? stepSize : dt;
+
+		//first stage is the same as the last stage of the previous accepted step
+		double a1 = simulator.acceleration(x, g, theta);
+
+		while (t < dt)
+		{
+			double remaining = dt - t;
+			//on the last step of the budget, finish the interval regardless of the error
+			boolean lastInBudget = (lastStepCount == maxSteps - 1);
+			//step size chosen by the error control, before fitting it into the interval
+			double proposed = h;
+			boolean finishesInterval = (lastInBudget || h >= remaining);
+			if (finishesInterval)
+			{
+				h = remaining;
+			}
+
+			double v1 = v;
+
+			double x2 = x + h*(A21*v1);
+			double v2 = v + h*(A21*a1);
+			double a2 = simulator.acceleration(x2, g, theta);
+
+			double x3 = x + h*(A31*v1 + A32*v2);
+			double v3 = v + h*(A31*a1 + A32*a2);
+			double a3 = simulator.acceleration(x3, g, theta);
+
+			double x4 = x + h*(A41*v1 + A42*v2 + A43*v3);
+			double v4 = v + h*(A41*a1 + A42*a2 + A43*a3);
+			double a4 = simulator.acceleration(x4, g, theta);
+
+			double x5 = x + h*(A51*v1 + A52*v2 + A53*v3 + A54*v4);
+			double v5 = v + h*(A51*a1 + A52*a2 + A53*a3 + A54*a4);
+			double a5 = simulator.acceleration(x5, g, theta);
+
+			double x6 = x + h*(A61*v1 + A62*v2 + A63*v3 + A64*v4 + A65*v5);
+			double v6 = v + h*(A61*a1 + A62*a2 + A63*a3 + A64*a4 + A65*a5);
+			double a6 = simulator.acceleration(x6, g, theta);
+
+			double xNew = x + h*(A71*v1 + A73*v3 + A74*v4 + A75*v5 + A76*v6);
+			double vNew = v + h*(A71*a1 + A73*a3 + A74*a4 + A75*a5 + A76*a6);
+			double a7 = simulator.acceleration(xNew, g, theta);
+
+			//error estimate from the embedded fourth order solution
+			double errX = h*(E1*v1 + E3*v3 + E4*v4 + E5*v5 + E6*v6 + E7*vNew);
+			double errV = h*(E1*a1 + E3*a3 + E4*a4 + E5*a5 + E6*a6 + E7*a7);
+			double scaleX = tolerance * (1.0 + Math.max(Math.abs(x), Math.abs(xNew)));
+			double scaleV = tolerance * (1.0 + Math.max(Math.abs(v), Math.abs(vNew)));
+			double err = Math.sqrt(0.5 * ((errX/scaleX)*(errX/scaleX) + (errV/scaleV)*(errV/scaleV)));
+
+			lastStepCount++;
+
+			double factor = (err == 0) ? MAX_FACTOR : SAFETY * Math.pow(err, -0.2);
+			factor = Math.min(MAX_FACTOR, Math.max(MIN_FACTOR, factor));
+
+			if (err <= 1.0 || lastInBudget)
+			{
+				//accept step
+				x = xNew;
+				v = vNew;
+				a1 = a7;
+				t = finishesInterval ? dt : t + h;
+				if (h > proposed)
+				{
+					//step was stretched to use up the budget: its error says nothing about the right step size
+					h = proposed;
+				} else if (h < proposed && factor >= 1.0)
+				{
+					//step was cut short to end the interval: keep the longer step for next time
+					h = proposed;
+				} else
+				{
+					h = h * factor;
+				}
+			} else
+			{
+				//reject step and retry with a smaller one
+				h = h * Math.min(1.0, factor);
+			}
+		}
+
+		stepSize = h;
+		state.x = x;
+		state.v = v;
+	}
+
+    /**
+     * Get the number of steps taken for the last interval, including rejected steps.
+     *
+     * @return int steps Number of steps
+     */
+	public int getLastStepCount()
+	{
+		return lastStepCount;
+	}
+}
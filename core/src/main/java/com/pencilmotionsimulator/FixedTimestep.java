@@ -0,0 +1,117 @@
+package com.pencilmotionsimulator;
+
+/**
+ * Accumulates the time between rendered frames and hands it out as physics steps of a fixed size, so that the
+ * simulation does not depend on the frame rate. What is left over, less than one step, is used to interpolate
+ * between the last two physics states for drawing.
+ */
+
+public class FixedTimestep {
+
+	//500 Hz
+	final public static double DEFAULT_STEP_SIZE = 0.002;
+
+	//time beyond this many steps in one frame is dropped rather than simulated
+	final public static int DEFAULT_MAX_STEPS_PER_FRAME = 125;
+
+	//length of one physics step in seconds
+	private double stepSize;
+
+	//most steps simulated for one frame
+	private int maxStepsPerFrame;
+
+	//time in seconds not yet simulated
+	private double accumulator = 0.0;
+
+    /**
+     * Constructor with default step size and step limit
+     */
+	public FixedTimestep()
+	{
+		this(DEFAULT_STEP_SIZE, DEFAULT_MAX_STEPS_PER_FRAME);
+	}
+
+    /**
+     * Constructor
+     *
+     * @param double stepSize Length of one physics step in seconds
+     * @param int maxStepsPerFrame Most steps simulated for one frame. Time beyond that, after a long stall, is dropped.
+     */
+	public FixedTimestep(double stepSize, int maxStepsPerFrame)
+	{
+		this.stepSize = stepSize;
+		this.maxStepsPerFrame = Math.max(1, maxStepsPerFrame);
+	}
+
+    /**
+     * Add the time elapsed since the last frame.
+     *
+     * @param double elapsed Time in seconds elapsed since the last frame
+     */
+	public void addFrameTime(double elapsed)
+	{
+		accumulator += elapsed;
+		double maxAccumulated = stepSize * maxStepsPerFrame;
+		if (accumulator > maxAccumulated)
+		{
+			accumulator = maxAccumulated;
+		}
+	}
+
+    /**
+     * Take one step from the accumulated time, if there is enough of it. Call in a loop, doing one physics step of
+     * getStepSize() each time this returns true.
+     *
+     * @return boolean True if a physics step is due, otherwise false
+     */
+	public boolean nextStep()
+	{
+		if (accumulator >= stepSize)
+		{
+			accumulator -= stepSize;
+			return true;
+		}
+		return false;
+	}
+
+    /**
+     * Get the length of one physics step.
+     *
+     * @return double stepSize Length of one physics step in seconds
+     */
+	public double getStepSize()
+	{
+		return stepSize;
+	}
+
+    /**
+     * Get how far the time is between the last two physics states.
+     *
+     * @return double alpha Between 0 (previous state) and 1 (current state)
+     */
+	public double getAlpha()
+	{
+		return accumulator/stepSize;
+	}
+
+    /**
+     * Interpolate a value between the last two physics states for drawing.
+     *
+     * @param double previous Value after the second-to-last physics step
+     * @param double current Value after the last physics step
+     *
+     * @return double value Value at the current time
+     */
+	public double interpolate(double previous, double current)
+	{
+		return previous + (current - previous) * getAlpha();
+	}
+
+    /**
+     * Drop any accumulated time, for example when the pencil is moved directly by touch.
+     */
+	public void reset()
+	{
+		accumulator = 0.0;
+	}
+}
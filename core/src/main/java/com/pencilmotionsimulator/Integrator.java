@@ -0,0 +1,17 @@
+package com.pencilmotionsimulator;
+
+/** Numerical scheme used by the motion simulator to advance the pencil over a time interval. */
+
+public interface Integrator {
+
+	/**
+     * Advance angular displacement and velocity in place.
+     *
+     * @param MotionSimulator simulator The simulator providing the acceleration equation
+     * @param MotionState state Current angular displacement and velocity, overwritten with the new values
+     * @param double g Magnitude of gravitational acceleration
+     * @param double theta Angle of direction of gravitational force to the negative y axis
+     * @param double dt Time in seconds elapsed since the last calculation
+     */
+	void integrate(MotionSimulator simulator, MotionState state, double g, double theta, double dt);
+}
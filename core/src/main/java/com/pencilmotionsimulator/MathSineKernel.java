@@ -0,0 +1,11 @@
+package com.pencilmotionsimulator;
+
+/** Sine from java.lang.Math, accurate to within 1 ulp. */
+
+public class MathSineKernel implements SineKernel {
+
+	public double sin(double x)
+	{
+		return Math.sin(x);
+	}
+}
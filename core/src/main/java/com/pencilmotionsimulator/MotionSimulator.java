@@ -0,0 +1,304 @@
+package com.pencilmotionsimulator;
+
+/** calculate current angular displacement and velocity of falling pencil */
+
+public class MotionSimulator {
+
+	double l=100.0; //length
+
+	//speed below which the pencil stops at the wall instead of bouncing
+	final public static double WALL_STOP_VELOCITY = 0.01;
+
+	//most wall hits resolved within one step; after that the pencil is left lying against the wall
+	final private static int MAX_WALL_HITS_PER_STEP = 10;
+
+	//root finding of the wall contact time
+	final private static int MAX_CONTACT_ITERATIONS = 50;
+	final private static double CONTACT_TIME_TOLERANCE = 1e-9;
+
+	//numerical scheme used to advance the pencil
+	private Integrator integrator;
+
+	//the integrator, if it knows exactly when the pencil reaches a wall
+	private ContactSolver contactSolver;
+
+	//sine used in the acceleration equation
+	private SineKernel sineKernel = new MathSineKernel();
+
+	//tilt angle at which the pencil touches a wall; no walls while this is infinite
+	private double maxTiltAngle = Double.POSITIVE_INFINITY;
+
+	//fraction of the speed the pencil keeps when bouncing off a wall
+	private double restitution = 0.5;
+
+	//scratch state used while searching for the wall contact time
+	private MotionState probe = new MotionState();
+
+	public MotionSimulator(double l)
+	{
+		this(l, new RK4Integrator());
+	}
+
+	public MotionSimulator(double l, Integrator integrator)
+	{
+		this.l = l;
+		setIntegrator(integrator);
+	}
+
+	public Integrator getIntegrator()
+	{
+		return integrator;
+	}
+
+	public void setIntegrator(Integrator integrator)
+	{
+		this.integrator = integrator;
+		contactSolver = (integrator instanceof ContactSolver) ? (ContactSolver) integrator : null;
+	}
+
+	public SineKernel getSineKernel()
+	{
+		return sineKernel;
+	}
+
+    /**
+     * Set the sine used in the acceleration equation, e.g. a PolynomialSineKernel to trade a bounded error for speed.
+     *
+     * @param SineKernel sineKernel The sine function
+     */
+	public void setSineKernel(SineKernel sineKernel)
+	{
+		this.sineKernel = sineKernel;
+	}
+
+	public double getMaxTiltAngle()
+	{
+		return maxTiltAngle;
+	}
+
+	/**
+     * Set the walls the pencil bounces off.
+     *
+     * @param double maxTiltAngle Tilt angle at which the pencil touches a wall, on either side
+     * @param double restitution Fraction of the speed the pencil keeps when bouncing off a wall
+     */
+	public void setWalls(double maxTiltAngle, double restitution)
+	{
+		this.maxTiltAngle = maxTiltAngle;
+		this.restitution = restitution;
+	}
+
+	/**
+     * Current new angular displacement and velocity from previous values.
+     *
+     * @param double x Current angular dislacement in m
+     * @param double v Current angular velocity in m
+     * @param double g Magnitude of gravitational acceleration
+     * @param double theta Angle of direction of gravitational force to the negative y axis
+     * @param double dt Time in seconds elapsed since the last calculation
+     * 
+     * @return double xf New angular displacement
+     * @return double vf New angular velocity
+     */
+    public double[] calc(double x, double v, double g, double theta, double dt)
+    {
+        MotionState state = new MotionState(x, v);
+        step(state, g, theta, dt);
+
+        double[] returnArray = {state.x, state.v};
+        return returnArray;
+    
+    }
+
+	/**
+     * Advance angular displacement and velocity in place. Does not allocate, so it can be called on every frame.
+     * 
+     * If the pencil reaches a wall during the step, the moment of contact is found within the step, the pencil
+     * bounces at that moment and moves on for the rest of the step. The hit is reported in state.wallHit and
+     * state.wallHitVelocity, so the result does not depend on how long the step is.
+     *
+     * @param MotionState state Current angular displacement and velocity, overwritten with the new values
+     * @param double g Magnitude of gravitational acceleration
+     * @param double theta Angle of direction of gravitational force to the negative y axis
+     * @param double dt Time in seconds elapsed since the last calculation
+     */
+    public void step(MotionState state, double g, double theta, double dt)
+    {
+        state.wallHit = 0;
+        state.wallHitVelocity = 0.0;
+
+        //a pencil already beyond the wall (e.g. after the walls moved) is put back against it
+        if (Math.abs(state.x) > maxTiltAngle)
+        {
+        	state.x = (state.x > 0) ? maxTiltAngle : -maxTiltAngle;
+        }
+
+        double remaining = dt;
+        int hits = 0;
+        while (remaining > 0)
+        {
+        	double startX = state.x;
+        	double startV = state.v;
+
+        	//a pencil lying against the wall, pushed into it, stays there: integrating past the wall would only lead
+        	//back to a contact at the start of the step, after many integrations to find it
+        	if (Math.abs(startX) == maxTiltAngle)
+        	{
+        		int side = (startX > 0) ? 1 : -1;
+        		if (side * startV >= 0 && Math.abs(startV) < WALL_STOP_VELOCITY && side * acceleration(startX, g, theta) >= 0)
+        		{
+        			state.v = 0.0;
+        			return;
+        		}
+        	}
+
+        	integrator.integrate(this, state, g, theta, remaining);
+        	if (Math.abs(state.x) <= maxTiltAngle)
+        	{
+        		return;
+        	}
+
+        	int side = (state.x > 0) ? 1 : -1;
+        	if (hits == MAX_WALL_HITS_PER_STEP)
+        	{
+        		state.x = side * maxTiltAngle;
+        		state.v = 0.0;
+        		return;
+        	}
+        	hits++;
+
+        	double contactTime = findWallContact(startX, startV, state.x, side, g, theta, remaining);
+        	double contactV = probe.v;
+        	state.x = side * maxTiltAngle;
+
+        	if (Math.abs(contactV) < WALL_STOP_VELOCITY)
+        	{
+        		//stop pencil if it's moving too slowly
+        		state.v = 0.0;
+        		if (side * acceleration(state.x, g, theta) >= 0)
+        		{
+        			//pencil is pushed against the wall: it stays there for the rest of the step
+        			return;
+        		}
+        	} else
+        	{
+        		if (side * contactV > 0 && Math.abs(contactV) > Math.abs(state.wallHitVelocity))
+        		{
+        			state.wallHit = side;
+        			state.wallHitVelocity = contactV;
+        		}
+        		//make pencil bounce off side
+        		state.v = -restitution * contactV;
+        	}
+
+        	remaining -= contactTime;
+        }
+    }
+
+	/**
+     * Find the time within a step at which the pencil reaches the wall, by Illinois regula falsi on the integrated
+     * trajectory, or exactly when the integrator is a ContactSolver. Leaves the state just before contact in probe.
+     *
+     * @param double startX Angular displacement at the start of the step, not beyond the wall
+     * @param double startV Angular velocity at the start of the step
+     * @param double endX Angular displacement at the end of the step, beyond the wall
+     * @param int side 1 = right-hand wall, -1 = left-hand wall
+     * @param double g Magnitude of gravitational acceleration
+     * @param double theta Angle of direction of gravitational force to the negative y axis
+     * @param double dt Length of the step, at the end of which the pencil is beyond the wall
+     * 
+     * @return double contactTime Time in seconds from the start of the step to the contact
+     */
+    private double findWallContact(double startX, double startV, double endX, int side, double g, double theta, double dt)
+    {
+        //an integrator that knows the contact time leaves probe exactly at the wall
+        if (contactSolver != null)
+        {
+        	probe.set(startX, startV);
+        	double contactTime = contactSolver.timeToAngle(this, probe, g, theta, side * maxTiltAngle, side);
+        	if (contactTime <= dt)
+        	{
+        		integrator.integrate(this, probe, g, theta, contactTime);
+        		return contactTime;
+        	}
+        }
+
+        //distance beyond the wall: not positive at a, positive at b
+        double a = 0.0;
+        double fa = side * startX - maxTiltAngle;
+        double b = dt;
+        double fb = side * endX - maxTiltAngle;
+        double aX = startX, aV = startV;
+
+        //which end moved last, to halve the other end's value when the same end moves twice
+        int lastMoved = 0;
+        for (int i = 0; i < MAX_CONTACT_ITERATIONS && (b - a) > CONTACT_TIME_TOLERANCE; i++)
+        {
+        	double c = b - fb * (b - a)/(fb - fa);
+        	if (!(c > a && c < b))
+        	{
+        		c = 0.5 * (a + b);
+        	}
+        	probe.set(startX, startV);
+        	integrator.integrate(this, probe, g, theta, c);
+        	double fc = side * probe.x - maxTiltAngle;
+        	if (fc > 0)
+        	{
+        		b = c;
+        		fb = fc;
+        		if (lastMoved == 1)
+        		{
+        			fa *= 0.5;
+        		}
+        		lastMoved = 1;
+        	} else
+        	{
+        		a = c;
+        		fa = fc;
+        		aX = probe.x;
+        		aV = probe.v;
+        		if (lastMoved == -1)
+        		{
+        			fb *= 0.5;
+        		}
+        		lastMoved = -1;
+        		if (fc == 0)
+        		{
+        			break;
+        		}
+        	}
+        }
+
+        probe.set(aX, aV);
+        return a;
+    }
+    
+	/**
+     * Angular velocity equation.
+     *
+     * @param double x Current angular dislacement in m
+     * @param double theta Angle of direction of gravitational force to the negative y axis
+     * @param double dt Time in seconds elapsed since the last calculation
+     * 
+     * @return double v Angular velocity in m
+     */
+    public double acceleration(double x, double g, double theta)
+    {
+    	return (g/l)*sineKernel.sin(x - theta);
+    }
+
+	/**
+     * Energy per unit moment of inertia, which stays constant while gravity does not change. Useful to check how well
+     * an integrator conserves energy.
+     *
+     * @param MotionState state Current angular displacement and velocity
+     * @param double g Magnitude of gravitational acceleration
+     * @param double theta Angle of direction of gravitational force to the negative y axis
+     * 
+     * @return double energy Kinetic plus potential energy
+     */
+    public double energy(MotionState state, double g, double theta)
+    {
+    	return 0.5*state.v*state.v + (g/l)*Math.cos(state.x - theta);
+    }
+}
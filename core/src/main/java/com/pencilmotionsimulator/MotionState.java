@@ -0,0 +1,50 @@
+package com.pencilmotionsimulator;
+
+/**
+ * Holds the angular displacement and velocity of the pencil. Owned by the caller and advanced in place
+ * by the motion simulator, so that stepping the physics does not allocate.
+ */
+
+public class MotionState {
+	//angular displacement
+	public double x;
+	//angular velocity
+	public double v;
+	//wall hit during the last step: 1 = right-hand wall, -1 = left-hand wall, 0 = none
+	public int wallHit;
+	//angular velocity at the moment of the hardest wall hit during the last step, before bouncing
+	public double wallHitVelocity;
+
+	public MotionState()
+	{
+	}
+
+	public MotionState(double x, double v)
+	{
+		this.x = x;
+		this.v = v;
+	}
+
+    /**
+     * Set angular displacement and velocity.
+     *
+     * @param double x Angular displacement
+     * @param double v Angular velocity
+     */
+	public void set(double x, double v)
+	{
+		this.x = x;
+		this.v = v;
+	}
+
+    /**
+     * Copy angular displacement and velocity from another state.
+     *
+     * @param MotionState other The state to copy from
+     */
+	public void set(MotionState other)
+	{
+		this.x = other.x;
+		this.v = other.v;
+	}
+}
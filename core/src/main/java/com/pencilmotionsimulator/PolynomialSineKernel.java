@@ -0,0 +1,46 @@
+package com.pencilmotionsimulator;
+
+/**
+ * Sine from an odd polynomial of degree 11, fitted for least maximum error on [0, PI/2]. Angles are first wrapped to
+ * [-PI, PI] and then folded onto [-PI/2, PI/2] using sin(PI - x) = sin(x).
+ *
+ * The maximum absolute error over [-PI, PI] is 2e-11 (measured 1.75e-11), far below what the pencil motion can show,
+ * and the error is 0 at x = 0, so a pencil balanced exactly upright stays upright. Angles outside [-PI, PI] cost one
+ * extra division to wrap.
+ */
+
+public class PolynomialSineKernel implements SineKernel {
+
+	final public static double MAX_ERROR = 2e-11;
+
+	final private static double TWO_PI = 2.0 * Math.PI;
+	final private static double HALF_PI = 0.5 * Math.PI;
+
+	//coefficients of x^3 to x^11; the coefficient of x is 1
+	final private static double S3 = -0.1666666660646728;
+	final private static double S5 = 0.008333330495682521;
+	final private static double S7 = -0.00019840804040500173;
+	final private static double S9 = 2.752261891465692e-06;
+	final private static double S11 = -2.384669498415204e-08;
+
+	public double sin(double x)
+	{
+		//wrap to [-PI, PI]
+		if (x > Math.PI || x < -Math.PI)
+		{
+			x -= TWO_PI * Math.floor((x + Math.PI)/TWO_PI);
+		}
+
+		//fold onto [-PI/2, PI/2]
+		if (x > HALF_PI)
+		{
+			x = Math.PI - x;
+		} else if (x < -HALF_PI)
+		{
+			x = -Math.PI - x;
+		}
+
+		double x2 = x*x;
+		return x + x*x2*(S3 + x2*(S5 + x2*(S7 + x2*(S9 + x2*S11))));
+	}
+}
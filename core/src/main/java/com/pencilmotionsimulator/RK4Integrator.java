@@ -0,0 +1,77 @@
+package com.pencilmotionsimulator;
+
+/**
+ * Classic fourth order Runge-Kutta. By default the whole interval is covered by one step; optionally the
+ * interval is split into sub-steps no longer than a maximum step size, up to a fixed number of steps.
+ */
+
+public class RK4Integrator implements Integrator {
+
+	//longest sub-step in seconds
+	private double maxStepSize;
+
+	//most sub-steps taken for one interval, however long the interval is
+	private int maxSteps;
+
+    /**
+     * Constructor for a single step across the whole interval
+     */
+	public RK4Integrator()
+	{
+		this(Double.POSITIVE_INFINITY, 1);
+	}
+
+    /**
+     * Constructor
+     *
+     * @param double maxStepSize Longest sub-step in seconds
+     * @param int maxSteps Most sub-steps taken for one interval. If the interval needs more, the sub-steps get longer.
+     */
+	public RK4Integrator(double maxStepSize, int maxSteps)
+	{
+		this.maxStepSize = maxStepSize;
+		this.maxSteps = Math.max(1, maxSteps);
+	}
+
+	public void integrate(MotionSimulator simulator, MotionState state, double g, double theta, double dt)
+	{
+		int steps = 1;
+		if (dt > maxStepSize)
+		{
+			steps = (int) Math.min(maxSteps, Math.ceil(dt/maxStepSize));
+		}
+		double h = dt/steps;
+		for (int i = 0; i < steps; i++)
+		{
+			step(simulator, state, g, theta, h);
+		}
+	}
+
+    /**
+     * One Runge-Kutta step.
+     */
+	private void step(MotionSimulator simulator, MotionState state, double g, double theta, double dt)
+	{
+		double x = state.x;
+		double v = state.v;
+
+		double x1 = x;
+		double v1 = v;
+		double a1 = simulator.acceleration(x1, g, theta);
+
+		double x2 = x + 0.5*v1*dt;
+		double v2 = v + 0.5*a1*dt;
+		double a2 = simulator.acceleration(x2, g, theta);
+
+		double x3 = x + 0.5*v2*dt;
+		double v3 = v + 0.5*a2*dt;
+		double a3 = simulator.acceleration(x3, g, theta);
+
+		double x4 = x + v3*dt;
+		double v4 = v + a3*dt;
+		double a4 = simulator.acceleration(x4, g, theta);
+
+		state.x = x + (dt/6.0)*(v1 + 2*v2 + 2*v3 + v4);
+		state.v = v + (dt/6.0)*(a1 + 2*a2 + 2*a3 + a4);
+	}
+}
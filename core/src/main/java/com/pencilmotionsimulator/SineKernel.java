@@ -0,0 +1,15 @@
+package com.pencilmotionsimulator;
+
+/** Sine function used by the motion simulator for the acceleration of the pencil. */
+
+public interface SineKernel {
+
+	/**
+     * Sine of an angle.
+     *
+     * @param double x Angle in radians
+     *
+     * @return double sin Sine of the angle
+     */
+	double sin(double x);
+}
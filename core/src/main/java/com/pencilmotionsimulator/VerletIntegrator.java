@@ -0,0 +1,92 @@
+package com.pencilmotionsimulator;
+
+/**
+ * Velocity Verlet (leapfrog). Symplectic, so the energy of the pencil does not drift over long runs, and it needs
+ * only one evaluation of the acceleration per step, because the acceleration at the end of one step is reused at
+ * the start of the next. The interval is split into sub-steps no longer than a maximum step size, up to a fixed
+ * number of steps.
+ */
+
+public class VerletIntegrator implements Integrator {
+
+	final public static double DEFAULT_MAX_STEP_SIZE = 0.002;
+	final public static int DEFAULT_MAX_STEPS = 100;
+
+	//longest sub-step in seconds
+	private double maxStepSize;
+
+	//most sub-steps taken for one interval, however long the interval is
+	private int maxSteps;
+
+	//acceleration at the end of the last step, and the values it was calculated for: the same angle and gravity give
+	//a different acceleration with another simulator (e.g. when the integrator is shared) or after its sine changed
+	private double cachedX = Double.NaN, cachedG, cachedTheta, cachedAcceleration;
+	private MotionSimulator cachedSimulator = null;
+	private SineKernel cachedSineKernel = null;
+
+    /**
+     * Constructor with default step size and step budget
+     */
+	public VerletIntegrator()
+	{
+		this(DEFAULT_MAX_STEP_SIZE, DEFAULT_MAX_STEPS);
+	}
+
+    /**
+     * Constructor
+     *
+     * @param double maxStepSize Longest sub-step in seconds
+     * @param int maxSteps Most sub-steps taken for one interval. If the interval needs more, the sub-steps get longer.
+     */
+	public VerletIntegrator(double maxStepSize, int maxSteps)
+	{
+		this.maxStepSize = maxStepSize;
+		this.maxSteps = Math.max(1, maxSteps);
+	}
+
+	public void integrate(MotionSimulator simulator, MotionState state, double g, double theta, double dt)
+	{
+		if (dt <= 0)
+		{
+			return;
+		}
+
+		int steps = 1;
+		if (dt > maxStepSize)
+		{
+			steps = (int) Math.min(maxSteps, Math.ceil(dt/maxStepSize));
+		}
+		double h = dt/steps;
+
+		double x = state.x;
+		double v = state.v;
+
+		double a;
+		if (x == cachedX && g == cachedG && theta == cachedTheta
+				&& simulator == cachedSimulator && simulator.getSineKernel() == cachedSineKernel)
+		{
+			a = cachedAcceleration;
+		} else
+		{
+			a = simulator.acceleration(x, g, theta);
+		}
+
+		for (int i = 0; i < steps; i++)
+		{
+			double vHalf = v + 0.5*h*a;
+			x = x + h*vHalf;
+			a = simulator.acceleration(x, g, theta);
+			v = vHalf + 0.5*h*a;
+		}
+
+		cachedX = x;
+		cachedG = g;
+		cachedTheta = theta;
+		cachedAcceleration = a;
+		cachedSimulator = simulator;
+		cachedSineKernel = simulator.getSineKernel();
+
+		state.x = x;
+		state.v = v;
+	}
+}
@@ -0,0 +1,736 @@
+package com.pencilsession;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.pencildisplay.PencilDisplayHelper;
+import com.pencilmotionsimulator.FixedTimestep;
+import com.pencilmotionsimulator.MotionSimulator;
+import com.pencilmotionsimulator.MotionState;
+
+/**
+ * Motion of the pencil during one game session, advanced once per frame from the sensor, touch and frame time
+ * inputs. Holds everything the game loop needs to move the pencil and nothing needed to draw it, so the same code
+ * runs on the device and in the headless SessionReplayer.
+ *
+ * Sensor and touch inputs arrive on other threads. They are handed over without locks, one triple buffer per
+ * writing thread, and only taken over at the start of the next update, so the pencil sees the same inputs at the same
+ * frames when a recorded session is replayed. The state to draw is published the same way after each update, for a
+ * render thread separate from the one doing the updates.
+ *
+ * Once the pencil is at rest against a wall, the game loop can park the session and stop updating it. The session
+ * then calls its wake-up call from the input thread as soon as a touch arrives, or an acceleration that would move
+ * the pencil off the wall.
+ */
+
+public class PencilSession {
+
+	/** Told about events the game reacts to, during update(). */
+	public interface Listener {
+
+	    /**
+	     * The pencil hit a wall, falling freely or pushed into it by touch.
+	     *
+	     * @param int direction 1 = right-hand wall, -1 = left-hand wall
+	     * @param double hitVelocity Angular velocity with which the pencil hit the wall
+	     */
+		void onWallHit(int direction, double hitVelocity);
+
+	    /**
+	     * The phone was turned over, and the pencil falls to the other end of the screen.
+	     *
+	     * @param boolean wasInverted Whether the pencil stood on the top of the screen before the fall
+	     * @param double fromTiltAngle Tilt angle before the fall
+	     * @param double toTiltAngle Tilt angle after the fall
+	     */
+		void onFallStarted(boolean wasInverted, double fromTiltAngle, double toTiltAngle);
+
+	    /**
+	     * The pencil has finished falling to the other end of the screen.
+	     */
+		void onFallEnded();
+	}
+
+	//results of update()
+	final public static int UPDATE_WAITING = 0;
+	final public static int UPDATE_AT_REST = 1;
+	final public static int UPDATE_RUNNING = 2;
+
+	//wall hits need to be faster than this to make an explosion
+	final public static float EXPLOSION_MIN_VELOCITY = 0.3f;
+
+	//the pencil is visibly touching the wall this close to it
+	//(slightly more generous than for the motion equations to prevent rapid stop/ starting of the timer)
+	final public static double WALL_CONTACT_FRACTION = 0.995;
+
+	final public static double DEFAULT_PENCIL_LENGTH = 0.05;
+	final public static double DEFAULT_WALL_RESTITUTION = 0.5;
+	final public static long DEFAULT_FALL_DURATION = 200;
+
+	//delay of the physics at the start of the session, in milliseconds
+	final private static long START_DELAY = 100;
+
+	final private static double INITIAL_TILT_ANGLE = 0.0;
+	final private static double INITIAL_ANGULAR_VELOCITY = 0.0;
+
+	//distance from pivot to center of mass of pencil as used in physical calculations
+	final private double pencilPhysicalLength;
+
+	//fraction of its speed the pencil keeps when bouncing off the side of the box
+	final private double wallRestitution;
+
+	//motion simulator used to animate pencil
+	final private MotionSimulator motionSimulator;
+
+	//angular displacement and velocity handed to the motion simulator, reused on every step
+	final private MotionState motionState = new MotionState();
+
+	//splits the time between frames into physics steps of fixed size
+	final private FixedTimestep physicsClock = new FixedTimestep();
+
+	//helper for doing calculations related to display
+	private PencilDisplayHelper displayHelper;
+
+	//maximum angle that the pencil is allowed to tilt before it hits the side of the box
+	private double maxTiltAngle;
+
+	//factor on gravity chosen in the settings
+	private float gravityFactor = 1.0f;
+
+	//gravitational parameter
+	private double g = 9.81;
+
+	//angle of gravitational force from negative y axis
+	private double theta = 0.0;
+
+	//true if pencil is balanced on the top of the screen, otherwise false
+	private boolean isInverted = false;
+
+	//falling pencil animation after the phone was flipped over, and how long it takes
+	private boolean falling = false;
+	private long fallStartTime;
+	private long fallDuration = DEFAULT_FALL_DURATION;
+
+	//angular displacement
+	private double tiltAngle = INITIAL_TILT_ANGLE;
+
+	//angular displacement after the previous physics step
+	private double previousTiltAngle = INITIAL_TILT_ANGLE;
+
+	//angular displacement shown on screen, interpolated between the last two physics steps
+	private double renderTiltAngle = INITIAL_TILT_ANGLE;
+
+	//angular velocity
+	private double angularVelocity = INITIAL_ANGULAR_VELOCITY;
+
+	//time of the last update, 0 before the first
+	private long lastTime = 0;
+
+	//time between the last two updates
+	private long frameInterval = 0;
+
+	//last user touch positions
+	private float touchX = -1, touchY = -1;
+
+	//whether or not the pencil is under touch control
+	private boolean underTouchControl = false;
+
+	//angular offset between the position the user is touching the pencil and the pencil center
+	private double touchControlOffset = 0.0;
+
+	//whether the balance timer should run after the last update, and whether the pencil visibly touches a wall
+	private boolean balancing = false;
+	private boolean touchingWall = false;
+
+	//whether the pencil could not move at the last update
+	private boolean atRest = false;
+
+	//set while the game loop waits for an input instead of updating, cleared by the thread that wakes it up
+	final private AtomicBoolean parked = new AtomicBoolean(false);
+
+	//position the pencil rests at while parked, for the input threads to check against
+	private PencilDisplayHelper parkedDisplayHelper;
+	private double parkedTiltAngle;
+	private double parkedMaxTiltAngle;
+	private boolean parkedInverted;
+
+	//called from the input thread to restart the game loop when an input arrives while parked
+	private Runnable wakeUpCall;
+
+	//acceleration from the sensor thread, taken over at the start of the next update
+	final private TripleBuffer<AccelerationInput> accelerationInput = new TripleBuffer<AccelerationInput>(
+			new AccelerationInput(), new AccelerationInput(), new AccelerationInput());
+
+	//touches from the UI thread, taken over at the start of the next update
+	final private TripleBuffer<TouchInput> touchInput = new TripleBuffer<TouchInput>(
+			new TouchInput(), new TouchInput(), new TouchInput());
+
+	//number of times the screen was released and the time of the last release, only written by the UI thread
+	private int touchReleases = 0;
+	private long touchReleaseTime = -1;
+
+	//number of releases taken over, and the time of the release taken over at the last update or -1
+	private int touchReleasesTakenOver = 0;
+	private long takenOverReleaseTime = -1;
+
+	//state to draw, published to the render thread after each update
+	final private TripleBuffer<PencilSnapshot> snapshots = new TripleBuffer<PencilSnapshot>(
+			new PencilSnapshot(), new PencilSnapshot(), new PencilSnapshot());
+
+	private Listener listener;
+
+	private SessionRecorder recorder;
+
+	public PencilSession()
+	{
+		this(DEFAULT_PENCIL_LENGTH, DEFAULT_WALL_RESTITUTION);
+	}
+
+    /**
+     * Constructor
+     *
+     * @param double pencilPhysicalLength Distance from pivot to center of mass of the pencil
+     * @param double wallRestitution Fraction of its speed the pencil keeps when bouncing off a wall
+     */
+	public PencilSession(double pencilPhysicalLength, double wallRestitution)
+	{
+		this.pencilPhysicalLength = pencilPhysicalLength;
+		this.wallRestitution = wallRestitution;
+		motionSimulator = new MotionSimulator(pencilPhysicalLength);
+	}
+
+	public void setListener(Listener listener)
+	{
+		this.listener = listener;
+	}
+
+    /**
+     * Record all inputs from now on. Writes the session settings straight away; the screen size follows with the next
+     * call to setScreen.
+     *
+     * @param SessionRecorder recorder The recorder to write to, or null to stop recording
+     */
+	public void setRecorder(SessionRecorder recorder)
+	{
+		this.recorder = recorder;
+		if (recorder != null)
+		{
+			recorder.begin(pencilPhysicalLength, wallRestitution, fallDuration, gravityFactor);
+		}
+	}
+
+    /**
+     * Set what to do when the session is parked and an input arrives that needs an update. The call is made from the
+     * thread handing over the input, so it should just get the game loop going again.
+     *
+     * @param Runnable wakeUpCall Called once per park() when the session needs updating again, or null
+     */
+	public void setWakeUpCall(Runnable wakeUpCall)
+	{
+		this.wakeUpCall = wakeUpCall;
+	}
+
+	public void setFallDuration(long fallDuration)
+	{
+		this.fallDuration = fallDuration;
+	}
+
+	public void setGravityFactor(float gravityFactor)
+	{
+		this.gravityFactor = gravityFactor;
+		if (recorder != null)
+		{
+			recorder.gravityFactor(gravityFactor);
+		}
+	}
+
+    /**
+     * Set the size of the screen and of the pencil on it, which also sets the walls.
+     *
+     * @param float canvasWidth Width of the canvas
+     * @param float canvasHeight Height of the canvas
+     * @param float pencilDisplayWidth Width of the pencil as drawn
+     * @param float pencilDisplayLength Length of the pencil as drawn
+     */
+	public void setScreen(float canvasWidth, float canvasHeight, float pencilDisplayWidth, float pencilDisplayLength)
+	{
+		displayHelper = new PencilDisplayHelper(canvasWidth, canvasHeight, pencilDisplayWidth, pencilDisplayLength);
+		maxTiltAngle = displayHelper.calculateMaxTiltAngle();
+		motionSimulator.setWalls(maxTiltAngle, wallRestitution);
+		if (recorder != null)
+		{
+			recorder.screen(canvasWidth, canvasHeight, pencilDisplayWidth, pencilDisplayLength);
+		}
+	}
+
+    /**
+     * Update the acceleration parameters, from the sensor thread only. Taken over at the next update.
+     *
+     * @param double g Magnitude of gravitational acceleration
+     * @param double theta Angle of direction of gravitational force to the negative y axis
+     */
+	public void setAccelerationData(double g, double theta)
+	{
+		AccelerationInput input = accelerationInput.getWriteBuffer();
+		input.g = g;
+		input.theta = theta;
+		accelerationInput.publish();
+
+		//the pencil only leaves the wall if the direction of gravity changed enough, or the phone was turned over
+		if (parked.get())
+		{
+			boolean inverted = isInverted(theta);
+			if (inverted != parkedInverted
+					|| !parkedDisplayHelper.isAtRest(parkedTiltAngle, parkedMaxTiltAngle, 0.0, effectiveTheta(theta)))
+			{
+				wakeUp();
+			}
+		}
+	}
+
+    /**
+     * Update the touch position, from the UI thread only. Taken over at the next update.
+     *
+     * @param float x The x-position of the touch on the screen, -1 if the screen is not touched
+     * @param float y The y-position of the touch on the screen, -1 if the screen is not touched
+     */
+	public void setTouch(float x, float y)
+	{
+		TouchInput input = touchInput.getWriteBuffer();
+		input.x = x;
+		input.y = y;
+		input.releases = touchReleases;
+		input.releaseTime = touchReleaseTime;
+		touchInput.publish();
+
+		if (parked.get())
+		{
+			wakeUp();
+		}
+	}
+
+    /**
+     * For the game loop, after an update: stop updating until an input arrives that can move the pencil. Only
+     * possible while the pencil is at rest against a wall and not touched. Until then, nothing changes on screen, so
+     * the loop can stop drawing too. The wake-up call tells it when to call update() again.
+     *
+     * @return boolean True if the session is parked and waits for the wake-up call, false if it needs updating
+     */
+	public boolean park()
+	{
+		if (!atRest || falling || touchX > -1 || wakeUpCall == null)
+		{
+			return false;
+		}
+		parkedDisplayHelper = displayHelper;
+		parkedTiltAngle = tiltAngle;
+		parkedMaxTiltAngle = maxTiltAngle;
+		parkedInverted = isInverted;
+		parked.set(true);
+
+		//an input published before the flag was set did not see it, and would not wake the loop up
+		if (accelerationInput.hasUpdate() || touchInput.hasUpdate())
+		{
+			parked.set(false);
+			return false;
+		}
+		return true;
+	}
+
+    /**
+     * Make the wake-up call, only once per park() even if inputs arrive on several threads.
+     */
+	private void wakeUp()
+	{
+		if (parked.compareAndSet(true, false))
+		{
+			wakeUpCall.run();
+		}
+	}
+
+    /**
+     * The user lifted the finger, from the UI thread only. The pencil moves on from this time on at the next update.
+     *
+     * @param long now The current time in milliseconds
+     */
+	public void releaseTouch(long now)
+	{
+		touchReleases++;
+		touchReleaseTime = now;
+		setTouch(-1, -1);
+	}
+
+    /**
+     * Take over the inputs that arrived since the last update, and record them.
+     *
+     * @param long now The current time in milliseconds
+     */
+	private void takeInputs(long now)
+	{
+		takenOverReleaseTime = -1;
+
+		if (accelerationInput.update())
+		{
+			AccelerationInput input = accelerationInput.getReadBuffer();
+			if (recorder != null)
+			{
+				recorder.acceleration(input.g, input.theta);
+			}
+			applyAccelerationData(input.g, input.theta, now);
+		}
+
+		if (touchInput.update())
+		{
+			TouchInput input = touchInput.getReadBuffer();
+			//the release is recorded before the touch, since a touch can follow a release before the next update
+			if (input.releases != touchReleasesTakenOver)
+			{
+				touchReleasesTakenOver = input.releases;
+				takenOverReleaseTime = input.releaseTime;
+				if (recorder != null)
+				{
+					recorder.release(takenOverReleaseTime);
+				}
+				lastTime = takenOverReleaseTime;
+			}
+			if (recorder != null)
+			{
+				recorder.touch(input.x, input.y);
+			}
+			touchX = input.x;
+			touchY = input.y;
+		}
+	}
+
+    /**
+     * Publish the state to draw to the render thread.
+     */
+	private void publishSnapshot(long now)
+	{
+		snapshots.getWriteBuffer().set(now, renderTiltAngle, isInverted, falling, fallStartTime);
+		snapshots.publish();
+	}
+
+    /**
+     * For the render thread only: the latest state published. It stays unchanged until the next call.
+     */
+	public PencilSnapshot getSnapshot()
+	{
+		snapshots.update();
+		return snapshots.getReadBuffer();
+	}
+
+    /**
+     * Calculate the angular displacement and speed of the pencil for a new frame.
+     *
+     * @param long now The current time in milliseconds
+     *
+     * @return int UPDATE_WAITING if the session has not started yet, UPDATE_AT_REST if the pencil cannot move and
+     *  does not need to be re-drawn, otherwise UPDATE_RUNNING
+     */
+	public int update(long now)
+	{
+		//an update without a wake-up call, e.g. for a new screen size, ends the park as well
+		parked.set(false);
+		takeInputs(now);
+		if (recorder != null)
+		{
+			recorder.frame(now);
+		}
+
+		//initialize lastTime
+		if (lastTime == 0)
+		{
+			lastTime = now + START_DELAY;
+			publishSnapshot(now);
+			return UPDATE_WAITING;
+		}
+
+		// Do nothing if lastTime is in the future.
+		// This allows the game-start to delay the start of the physics
+		// by 100ms or whatever.
+		if (lastTime >= now)
+		{
+			publishSnapshot(now);
+			return UPDATE_WAITING;
+		}
+
+		balancing = true;
+		touchingWall = false;
+		boolean wasAtRest = atRest;
+		atRest = false;
+
+		if (falling)
+		{
+			balancing = false;
+			if (now - fallStartTime > fallDuration)
+			{
+				falling = false;
+				if (listener != null)
+				{
+					listener.onFallEnded();
+				}
+			}
+		}
+		else
+		{
+			//check if user is currently touching the pencil
+			boolean previousUnderTouchControl = underTouchControl; //previous status of underTouchControl
+			underTouchControl = false;
+			if (touchX > -1)
+			{
+				underTouchControl = displayHelper.isTouchInAreaOfPencil(touchX, touchY, tiltAngle, isInverted);
+				//if this is the first time the user has touched the pencil, calculate the angular offset
+				//so that the user gets a smooth experience when they move the pencil manually
+				if (underTouchControl && !previousUnderTouchControl)
+				{
+					//angular offset between the position the user is touching the pencil and the pencil center
+					touchControlOffset = displayHelper.calculateTiltAngleFromTouchPosition(touchX, touchY, 0.0, isInverted) - tiltAngle;
+				}
+
+				balancing = !underTouchControl;
+			}
+
+			//if pencil is at rest such that it's impossible to move it, don't do anything else
+			if (!underTouchControl && displayHelper.isAtRest(tiltAngle, maxTiltAngle, angularVelocity, theta))
+			{
+				lastTime = now;
+				tiltAngle = (tiltAngle > 0) ? maxTiltAngle : -maxTiltAngle;
+				angularVelocity = 0.0;
+				previousTiltAngle = tiltAngle;
+				renderTiltAngle = tiltAngle;
+				physicsClock.reset();
+				balancing = false;
+				atRest = true;
+				publishSnapshot(now);
+				return UPDATE_AT_REST;
+			}
+
+			//the pencil starts moving again: nothing happened while it was at rest, but the game loop may have been
+			//parked for a long time, so don't count more than one frame of it
+			if (wasAtRest)
+			{
+				lastTime = Math.max(lastTime, now - frameInterval);
+			}
+
+			double elapsed = (now - lastTime) / 1000.0;
+
+			//do calculations
+			if (underTouchControl)
+			{
+				//if user is touching pencil, calculate the motion directly from the touch position
+				double oldTiltAngle = tiltAngle;
+				tiltAngle = displayHelper.calculateTiltAngleFromTouchPosition(touchX, touchY, touchControlOffset, isInverted);
+				angularVelocity = (tiltAngle - oldTiltAngle)/elapsed;
+				handleWallContact();
+				previousTiltAngle = tiltAngle;
+				renderTiltAngle = tiltAngle;
+				physicsClock.reset();
+			} else
+			{
+				//calculate pencil's motion under acceleration as measured from the sensors, in steps of fixed size
+				physicsClock.addFrameTime(elapsed);
+				while (physicsClock.nextStep())
+				{
+					previousTiltAngle = tiltAngle;
+					motionState.set(tiltAngle, angularVelocity);
+					motionSimulator.step(motionState, gravityFactor*g, theta, physicsClock.getStepSize());
+					tiltAngle = motionState.x;
+					angularVelocity = motionState.v;
+					if (motionState.wallHit != 0 && listener != null)
+					{
+						listener.onWallHit(motionState.wallHit, motionState.wallHitVelocity);
+					}
+				}
+				renderTiltAngle = physicsClock.interpolate(previousTiltAngle, tiltAngle);
+			}
+
+			//if pencil is *visibly* in contact with the wall, the balance timer stops
+			if (Math.abs(tiltAngle) >= WALL_CONTACT_FRACTION*maxTiltAngle)
+			{
+				touchingWall = true;
+				balancing = false;
+			}
+		}
+
+		frameInterval = now - lastTime;
+		lastTime = now;
+		publishSnapshot(now);
+		return UPDATE_RUNNING;
+	}
+
+    /**
+     * If the pencil has been pushed by touch beyond the maximum tilt angle, don't let it go any further. Report a
+     * wall hit if it was moving towards the wall. Without touch, the motion simulator takes care of the walls.
+     */
+	private void handleWallContact()
+	{
+		if (Math.abs(tiltAngle) <= maxTiltAngle)
+		{
+			return;
+		}
+
+		//make sure the pencil is shown as lying on the side
+		tiltAngle = (tiltAngle > 0) ? maxTiltAngle : - maxTiltAngle;
+
+		if (((tiltAngle > 0 && angularVelocity > 0) || (tiltAngle < 0 && angularVelocity < 0)) && listener != null)
+		{
+			listener.onWallHit((tiltAngle > 0) ? 1 : -1, angularVelocity);
+		}
+	}
+
+    /**
+     * Take over new acceleration parameters, and start the pencil falling if the phone has been flipped over.
+     *
+     * @param double g Magnitude of gravitational acceleration
+     * @param double theta Angle of direction of gravitational force to the negative y axis
+     * @param long now The current time in milliseconds
+     */
+	private void applyAccelerationData(double g, double theta, long now)
+	{
+		//magnitude of acceleration
+		this.g = g;
+		if (isInverted(theta))
+		{
+			//check if the previous force was coming from below: if so, make the pencil fall to the top of the screen
+			if (!falling)
+			{
+				if (!isInverted)
+				{
+					startFall(now);
+				}
+				//pencil is standing on the top of the screen, drawing is flipped upside down
+				isInverted = true;
+			}
+		} else
+		{
+			//check if the previous force was coming from above: if so make the pencil fall to the bottom of the screen
+			if (!falling)
+			{
+				if (isInverted)
+				{
+					startFall(now);
+				}
+				//pencil is standing on the bottom of the screen, drawing is the normal way up
+				isInverted = false;
+			}
+		}
+		this.theta = effectiveTheta(theta);
+	}
+
+    /**
+     * Whether gravity comes from the top of the screen, so that the pencil stands on the top.
+     *
+     * @param double theta Angle of direction of gravitational force to the negative y axis
+     */
+	private static boolean isInverted(double theta)
+	{
+		return Math.abs(theta) > Math.PI/2;
+	}
+
+    /**
+     * The "effective" theta, with which we do the drawing, is always between -PI/2 and +PI/2: when inverted, we just
+     * flip the drawing upside down.
+     *
+     * @param double theta Angle of direction of gravitational force to the negative y axis
+     */
+	private static double effectiveTheta(double theta)
+	{
+		if (isInverted(theta))
+		{
+			return (theta > Math.PI/2) ? (theta - Math.PI) : (theta + Math.PI);
+		}
+		return theta;
+	}
+
+    /**
+     * The phone has just been flipped over: the pencil falls to the other end of the screen
+     */
+	private void startFall(long now)
+	{
+		falling = true;
+		fallStartTime = now;
+		double fromTiltAngle = tiltAngle;
+		tiltAngle = -tiltAngle; //for end of animation
+		previousTiltAngle = tiltAngle;
+		renderTiltAngle = tiltAngle;
+		angularVelocity = -angularVelocity; //for end of animation
+		if (listener != null)
+		{
+			listener.onFallStarted(isInverted, fromTiltAngle, tiltAngle);
+		}
+	}
+
+	public PencilDisplayHelper getDisplayHelper()
+	{
+		return displayHelper;
+	}
+
+	public double getMaxTiltAngle()
+	{
+		return maxTiltAngle;
+	}
+
+	public double getTiltAngle()
+	{
+		return tiltAngle;
+	}
+
+	public double getRenderTiltAngle()
+	{
+		return renderTiltAngle;
+	}
+
+	public double getAngularVelocity()
+	{
+		return angularVelocity;
+	}
+
+	public boolean isInverted()
+	{
+		return isInverted;
+	}
+
+	public boolean isFalling()
+	{
+		return falling;
+	}
+
+	public long getFallStartTime()
+	{
+		return fallStartTime;
+	}
+
+	public long getFrameInterval()
+	{
+		return frameInterval;
+	}
+
+	/** @return long time Time the user lifted the finger, if taken over at the last update, otherwise -1 */
+	public long getTouchReleaseTime()
+	{
+		return takenOverReleaseTime;
+	}
+
+	/** @return boolean True if the balance timer should be running after the last update */
+	public boolean isBalancing()
+	{
+		return balancing;
+	}
+
+	/** @return boolean True if the pencil visibly touched a wall at the last update */
+	public boolean isTouchingWall()
+	{
+		return touchingWall;
+	}
+
+	private static class AccelerationInput {
+		double g, theta;
+	}
+
+	private static class TouchInput {
+		float x, y;
+		//releases of the screen so far, and the time of the last
+		int releases;
+		long releaseTime;
+	}
+}
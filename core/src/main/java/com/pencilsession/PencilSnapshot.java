@@ -0,0 +1,30 @@
+package com.pencilsession;
+
+/**
+ * State of the pencil published by PencilSession after each update, for drawing it on another thread.
+ */
+
+public class PencilSnapshot {
+
+	//time of the update in milliseconds
+	public long time;
+
+	//angular displacement to draw
+	public double tiltAngle;
+
+	//true if the pencil stands on the top of the screen
+	public boolean inverted;
+
+	//true while the pencil falls to the other end of the screen, and when it started to fall
+	public boolean falling;
+	public long fallStartTime;
+
+	void set(long time, double tiltAngle, boolean inverted, boolean falling, long fallStartTime)
+	{
+		this.time = time;
+		this.tiltAngle = tiltAngle;
+		this.inverted = inverted;
+		this.falling = falling;
+		this.fallStartTime = fallStartTime;
+	}
+}
@@ -0,0 +1,235 @@
+package com.pencilsession;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the inputs of a PencilSession to a compact binary log, in the order the session takes them over, so that
+ * SessionReplayer can run the session again without a screen.
+ *
+ * The log starts with a header (magic number, version, start time and session settings) followed by records of one
+ * tag byte and their data. The first time is written in full, later ones as the difference in milliseconds to the
+ * previously written time, so a frame costs five bytes. If writing fails, the recorder stops recording and keeps the
+ * error; the game goes on.
+ */
+
+public class SessionRecorder {
+
+	final public static int MAGIC = 0x50434C47; //"PCLG"
+	final public static int VERSION = 1;
+
+	//record tags
+	final public static byte RECORD_FRAME = 1;
+	final public static byte RECORD_ACCELERATION = 2;
+	final public static byte RECORD_TOUCH = 3;
+	final public static byte RECORD_RELEASE = 4;
+	final public static byte RECORD_SCREEN = 5;
+	final public static byte RECORD_GRAVITY_FACTOR = 6;
+
+	private DataOutputStream out;
+
+	//time written last, differences are taken to this
+	private long lastTime;
+	private boolean hasTime = false;
+
+	private boolean started = false;
+
+	private int frames = 0;
+
+	private IOException error = null;
+
+	public SessionRecorder(OutputStream out)
+	{
+		this.out = new DataOutputStream(new BufferedOutputStream(out));
+	}
+
+    /**
+     * Write the header. Called by PencilSession.setRecorder.
+     *
+     * @param double pencilPhysicalLength Distance from pivot to center of mass of the pencil
+     * @param double wallRestitution Fraction of its speed the pencil keeps when bouncing off a wall
+     * @param long fallDuration Duration of the fall after the phone was flipped over, in milliseconds
+     * @param float gravityFactor Factor on gravity chosen in the settings
+     */
+	synchronized void begin(double pencilPhysicalLength, double wallRestitution, long fallDuration, float gravityFactor)
+	{
+		if (out == null || started)
+		{
+			return;
+		}
+		started = true;
+		try
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(System.currentTimeMillis());
+			out.writeDouble(pencilPhysicalLength);
+			out.writeDouble(wallRestitution);
+			out.writeLong(fallDuration);
+			out.writeFloat(gravityFactor);
+		} catch (IOException e)
+		{
+			fail(e);
+		}
+	}
+
+	synchronized void frame(long now)
+	{
+		if (out == null)
+		{
+			return;
+		}
+		try
+		{
+			out.writeByte(RECORD_FRAME);
+			writeTime(now);
+			frames++;
+		} catch (IOException e)
+		{
+			fail(e);
+		}
+	}
+
+	synchronized void acceleration(double g, double theta)
+	{
+		if (out == null)
+		{
+			return;
+		}
+		try
+		{
+			out.writeByte(RECORD_ACCELERATION);
+			out.writeDouble(g);
+			out.writeDouble(theta);
+		} catch (IOException e)
+		{
+			fail(e);
+		}
+	}
+
+	synchronized void touch(float x, float y)
+	{
+		if (out == null)
+		{
+			return;
+		}
+		try
+		{
+			out.writeByte(RECORD_TOUCH);
+			out.writeFloat(x);
+			out.writeFloat(y);
+		} catch (IOException e)
+		{
+			fail(e);
+		}
+	}
+
+	synchronized void release(long time)
+	{
+		if (out == null)
+		{
+			return;
+		}
+		try
+		{
+			out.writeByte(RECORD_RELEASE);
+			writeTime(time);
+		} catch (IOException e)
+		{
+			fail(e);
+		}
+	}
+
+	synchronized void screen(float canvasWidth, float canvasHeight, float pencilDisplayWidth, float pencilDisplayLength)
+	{
+		if (out == null)
+		{
+			return;
+		}
+		try
+		{
+			out.writeByte(RECORD_SCREEN);
+			out.writeFloat(canvasWidth);
+			out.writeFloat(canvasHeight);
+			out.writeFloat(pencilDisplayWidth);
+			out.writeFloat(pencilDisplayLength);
+		} catch (IOException e)
+		{
+			fail(e);
+		}
+	}
+
+	synchronized void gravityFactor(float gravityFactor)
+	{
+		if (out == null)
+		{
+			return;
+		}
+		try
+		{
+			out.writeByte(RECORD_GRAVITY_FACTOR);
+			out.writeFloat(gravityFactor);
+		} catch (IOException e)
+		{
+			fail(e);
+		}
+	}
+
+	private void writeTime(long time) throws IOException
+	{
+		if (hasTime)
+		{
+			out.writeInt((int) (time - lastTime));
+		} else
+		{
+			out.writeLong(time);
+			hasTime = true;
+		}
+		lastTime = time;
+	}
+
+	private void fail(IOException e)
+	{
+		error = e;
+		try
+		{
+			out.close();
+		} catch (IOException ignored)
+		{
+		}
+		out = null;
+	}
+
+    /**
+     * Flush and close the log. Nothing is recorded afterwards.
+     */
+	public synchronized void close()
+	{
+		if (out == null)
+		{
+			return;
+		}
+		try
+		{
+			out.close();
+		} catch (IOException e)
+		{
+			error = e;
+		}
+		out = null;
+	}
+
+	/** @return int frames Number of frames recorded so far */
+	public synchronized int getFrames()
+	{
+		return frames;
+	}
+
+	/** @return IOException error The error that stopped the recording, or null */
+	public synchronized IOException getError()
+	{
+		return error;
+	}
+}
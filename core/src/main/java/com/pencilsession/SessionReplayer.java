@@ -0,0 +1,256 @@
+package com.pencilsession;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.pencildisplay.PencilDisplayHelper;
+
+/**
+ * Runs a session recorded by SessionRecorder again through a fresh PencilSession, as fast as possible and without a
+ * screen. The session gets the same inputs at the same frame times as on the device, so it moves the pencil the same
+ * way and reports the same wall hits and falls.
+ *
+ * The game records the last session to files/session.pencillog in its data directory, which can be copied off a
+ * debuggable build with
+ *     adb exec-out run-as com.pencilsimulator cat files/session.pencillog > session.pencillog
+ * and replayed with
+ *     ./gradlew :core:replaySession -Plog=session.pencillog
+ */
+
+public class SessionReplayer {
+
+	final private DataInputStream in;
+
+	final private PencilSession session;
+
+	//wall clock time the recording started
+	final private long startTime;
+
+	//time of the last frame, or the last release of the screen
+	private long time;
+	private boolean hasTime = false;
+
+	//time of the first frame
+	private long firstFrameTime;
+
+	private int frames = 0;
+
+	//result of the last update
+	private int lastUpdate = PencilSession.UPDATE_WAITING;
+
+	private boolean ended = false;
+
+    /**
+     * Constructor. Reads the header and sets up the session with the recorded settings.
+     *
+     * @param InputStream in The recorded log
+     */
+	public SessionReplayer(InputStream in) throws IOException
+	{
+		this.in = new DataInputStream(new BufferedInputStream(in));
+		if (this.in.readInt() != SessionRecorder.MAGIC)
+		{
+			throw new IOException("not a pencil session log");
+		}
+		int version = this.in.readInt();
+		if (version != SessionRecorder.VERSION)
+		{
+			throw new IOException("unsupported session log version " + version);
+		}
+		startTime = this.in.readLong();
+		double pencilPhysicalLength = this.in.readDouble();
+		double wallRestitution = this.in.readDouble();
+		long fallDuration = this.in.readLong();
+		float gravityFactor = this.in.readFloat();
+
+		session = new PencilSession(pencilPhysicalLength, wallRestitution);
+		session.setFallDuration(fallDuration);
+		session.setGravityFactor(gravityFactor);
+	}
+
+	public PencilSession getSession()
+	{
+		return session;
+	}
+
+	public long getStartTime()
+	{
+		return startTime;
+	}
+
+	/** @return long time Time of the last frame replayed */
+	public long getTime()
+	{
+		return time;
+	}
+
+	/** @return long time Time since the first frame, in milliseconds */
+	public long getSessionTime()
+	{
+		return (frames > 0) ? time - firstFrameTime : 0;
+	}
+
+	public int getFrames()
+	{
+		return frames;
+	}
+
+	/** @return int update Result of PencilSession.update for the last frame replayed */
+	public int getLastUpdate()
+	{
+		return lastUpdate;
+	}
+
+    /**
+     * Hand the inputs up to the next frame to the session and update it.
+     *
+     * @return boolean True if a frame was replayed, false at the end of the log
+     */
+	public boolean nextFrame() throws IOException
+	{
+		if (ended)
+		{
+			return false;
+		}
+		try
+		{
+			while (true)
+			{
+				int record = in.readByte();
+				switch (record)
+				{
+				case SessionRecorder.RECORD_FRAME:
+					readTime();
+					if (frames == 0)
+					{
+						firstFrameTime = time;
+					}
+					lastUpdate = session.update(time);
+					frames++;
+					return true;
+				case SessionRecorder.RECORD_ACCELERATION:
+					double g = in.readDouble();
+					double theta = in.readDouble();
+					session.setAccelerationData(g, theta);
+					break;
+				case SessionRecorder.RECORD_TOUCH:
+					float x = in.readFloat();
+					float y = in.readFloat();
+					session.setTouch(x, y);
+					break;
+				case SessionRecorder.RECORD_RELEASE:
+					readTime();
+					session.releaseTouch(time);
+					break;
+				case SessionRecorder.RECORD_SCREEN:
+					float canvasWidth = in.readFloat();
+					float canvasHeight = in.readFloat();
+					float pencilDisplayWidth = in.readFloat();
+					float pencilDisplayLength = in.readFloat();
+					session.setScreen(canvasWidth, canvasHeight, pencilDisplayWidth, pencilDisplayLength);
+					break;
+				case SessionRecorder.RECORD_GRAVITY_FACTOR:
+					session.setGravityFactor(in.readFloat());
+					break;
+				default:
+					throw new IOException("unknown record " + record + " after frame " + frames);
+				}
+			}
+		} catch (EOFException e)
+		{
+			//end of the log, or a record cut short when the game was killed while writing it
+			ended = true;
+			return false;
+		}
+	}
+
+    /**
+     * Read a time written by SessionRecorder: the first in full, later ones as differences.
+     */
+	private void readTime() throws IOException
+	{
+		if (hasTime)
+		{
+			time += in.readInt();
+		} else
+		{
+			time = in.readLong();
+			hasTime = true;
+		}
+	}
+
+    /**
+     * Replay all remaining frames.
+     *
+     * @return int frames Number of frames replayed in total
+     */
+	public int replay() throws IOException
+	{
+		while (nextFrame())
+		{
+		}
+		return frames;
+	}
+
+	public void close() throws IOException
+	{
+		in.close();
+	}
+
+    /**
+     * Replay a recorded log and print the wall hits and falls with the time they happened.
+     *
+     * @param String[] args Path of the log
+     */
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length != 1)
+		{
+			System.err.println("usage: SessionReplayer <session log>");
+			System.exit(2);
+		}
+
+		final SessionReplayer replayer = new SessionReplayer(new FileInputStream(args[0]));
+		final PencilSession session = replayer.getSession();
+		session.setListener(new PencilSession.Listener() {
+			public void onWallHit(int direction, double hitVelocity)
+			{
+				String line = "wall hit " + ((direction > 0) ? "right" : "left") + ", velocity " + hitVelocity;
+				PencilDisplayHelper displayHelper = session.getDisplayHelper();
+				if (Math.abs(hitVelocity) > PencilSession.EXPLOSION_MIN_VELOCITY)
+				{
+					int[] position = displayHelper.getExplosionPosition(direction, hitVelocity, session.getMaxTiltAngle(), session.isInverted());
+					line += ", explosion at " + position[0] + "," + position[1];
+				}
+				print(replayer, line);
+			}
+
+			public void onFallStarted(boolean wasInverted, double fromTiltAngle, double toTiltAngle)
+			{
+				print(replayer, "fall to the " + (wasInverted ? "bottom" : "top") + " of the screen");
+			}
+
+			public void onFallEnded()
+			{
+				print(replayer, "fall ended");
+			}
+		});
+
+		long start = System.nanoTime();
+		int frames = replayer.replay();
+		long replayTime = System.nanoTime() - start;
+		replayer.close();
+
+		System.out.println(frames + " frames, " + replayer.getSessionTime() + " ms recorded, replayed in " + replayTime/1000000.0 + " ms"
+				+ " (" + Math.round(frames/(replayTime/1e9)) + " frames/s)");
+	}
+
+	private static void print(SessionReplayer replayer, String line)
+	{
+		System.out.println(PencilDisplayHelper.formatInterval(replayer.getSessionTime()) + "  " + line);
+	}
+}
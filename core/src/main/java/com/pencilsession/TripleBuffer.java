@@ -0,0 +1,90 @@
+package com.pencilsession;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands values from one writer thread to one reader thread without locks. Of the three buffers, the writer fills one,
+ * the reader reads another, and the third holds the latest value published. Publishing and taking over swap a buffer
+ * with the third one, so neither side ever waits for the other or sees a buffer while it is being written.
+ *
+ * The reader always gets the latest value published; values published in between are skipped. A buffer handed back
+ * to the writer still holds an older value, so the writer has to fill in every field before publishing.
+ */
+
+public class TripleBuffer<T> {
+
+	//flag on the shared index: the shared buffer was published after the reader last took one over
+	final private static int FRESH = 4;
+
+	final private Object[] buffers;
+
+	//index of the shared buffer, with FRESH set if the reader has not seen it yet
+	final private AtomicInteger shared = new AtomicInteger(1);
+
+	//index of the buffer owned by the writer
+	private int writeIndex = 0;
+
+	//index of the buffer owned by the reader
+	private int readIndex = 2;
+
+    /**
+     * Constructor
+     *
+     * @param T first Buffer the writer fills first
+     * @param T second Buffer shared at the start
+     * @param T third Buffer the reader sees until the first value is published
+     */
+	public TripleBuffer(T first, T second, T third)
+	{
+		buffers = new Object[] { first, second, third };
+	}
+
+    /**
+     * For the writer: the buffer to fill before calling publish().
+     */
+	@SuppressWarnings("unchecked")
+	public T getWriteBuffer()
+	{
+		return (T) buffers[writeIndex];
+	}
+
+    /**
+     * For the writer: publish the write buffer and get another one to write to.
+     */
+	public void publish()
+	{
+		writeIndex = shared.getAndSet(writeIndex | FRESH) & ~FRESH;
+	}
+
+    /**
+     * For the reader: take over the latest value published, if there is a new one.
+     *
+     * @return boolean True if the read buffer now holds a value published since the last call
+     */
+	public boolean update()
+	{
+		if ((shared.get() & FRESH) == 0)
+		{
+			return false;
+		}
+		readIndex = shared.getAndSet(readIndex) & ~FRESH;
+		return true;
+	}
+
+    /**
+     * For the reader: whether a value was published since the last call to update(), without taking it over.
+     */
+	public boolean hasUpdate()
+	{
+		return (shared.get() & FRESH) != 0;
+	}
+
+    /**
+     * For the reader: the buffer taken over at the last call to update(). It stays unchanged until the next call.
+     */
+	@SuppressWarnings("unchecked")
+	public T getReadBuffer()
+	{
+		return (T) buffers[readIndex];
+	}
+}
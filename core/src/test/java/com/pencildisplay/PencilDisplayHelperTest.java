@@ -0,0 +1,82 @@
+package com.pencildisplay;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class PencilDisplayHelperTest {
+
+	@Test
+	public void formatsSecondsWithTenths()
+	{
+		assertInterval("0.0", 0);
+		assertInterval("0.0", 99);
+		assertInterval("0.9", 999);
+		assertInterval("5.3", 5300);
+		assertInterval("59.9", 59999);
+	}
+
+	@Test
+	public void formatsMinutes()
+	{
+		assertInterval("01:00.0", 60000);
+		assertInterval("12:34.5", (12 * 60 + 34) * 1000 + 567);
+		assertInterval("59:59.9", 3599999);
+	}
+
+	@Test
+	public void formatsHours()
+	{
+		assertInterval("01:00:00.0", 3600000);
+		assertInterval("12:34:56.7", ((12 * 60 + 34) * 60 + 56) * 1000L + 789);
+		assertInterval("100:00:00.0", 100 * 3600000L);
+		//the longest interval fits the buffer
+		assertInterval("2562047788015:12:55.8", Long.MAX_VALUE);
+		assertTrue(PencilDisplayHelper.formatInterval(Long.MAX_VALUE).length() <= PencilDisplayHelper.MAX_INTERVAL_LENGTH);
+	}
+
+	@Test
+	public void formatsNegativeIntervalsAsZero()
+	{
+		assertInterval("0.0", -1);
+		assertInterval("0.0", -123456);
+		assertInterval("0.0", Long.MIN_VALUE);
+	}
+
+	@Test
+	public void writesOnlyTheTextIntoBuffer()
+	{
+		char[] buffer = new char[PencilDisplayHelper.MAX_INTERVAL_LENGTH + 4];
+		Arrays.fill(buffer, 'x');
+		int length = PencilDisplayHelper.formatInterval(754300, buffer);
+		assertEquals("12:34.3", new String(buffer, 0, length));
+		for (int i = length; i < buffer.length; i++)
+		{
+			assertEquals('x', buffer[i]);
+		}
+	}
+
+	@Test
+	public void padsNumbersWithZeros()
+	{
+		char[] buffer = new char[8];
+		assertEquals(2, PencilDisplayHelper.formatNumber(7, 2, buffer, 0));
+		assertEquals("07", new String(buffer, 0, 2));
+		assertEquals(5, PencilDisplayHelper.formatNumber(123, 2, buffer, 2));
+		assertEquals("07123", new String(buffer, 0, 5));
+		assertEquals(1, PencilDisplayHelper.formatNumber(0, 1, buffer, 0));
+		assertEquals('0', buffer[0]);
+	}
+
+	//the buffer version and the String version give the same text
+	private static void assertInterval(String expected, long interval)
+	{
+		char[] buffer = new char[PencilDisplayHelper.MAX_INTERVAL_LENGTH];
+		int length = PencilDisplayHelper.formatInterval(interval, buffer);
+		assertEquals(expected, new String(buffer, 0, length));
+		assertEquals(expected, PencilDisplayHelper.formatInterval(interval));
+	}
+}
@@ -0,0 +1,235 @@
+package com.pencildisplay;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class SpriteSlotsTest {
+
+	final private static double STEP = 0.01;
+	final private static long SIZE = 10;
+
+	/** Renders the index of the angle, and remembers the order. */
+	private static class IndexRenderer implements SpriteSlots.Renderer<Integer> {
+
+		final ArrayList<Integer> rendered = new ArrayList<Integer>();
+
+		public long sizeOf(double angle)
+		{
+			return SIZE;
+		}
+
+		public Integer render(double angle)
+		{
+			Integer index = Integer.valueOf((int) Math.round(angle/STEP));
+			rendered.add(index);
+			return index;
+		}
+	}
+
+	//the pencil stays at an index for two frames, and the background thread renders around it
+	private static void stay(SpriteSlots<Integer> slots, int index)
+	{
+		slots.drawn(index);
+		slots.drawn(index);
+	}
+
+	@Test
+	public void quantizesWithinLargestTiltAngle()
+	{
+		SpriteSlots<Integer> slots = new SpriteSlots<Integer>(0.5, STEP, new SpriteBudget(1000));
+		assertEquals(12, slots.index(0.1234));
+		assertEquals(-50, slots.index(-0.5));
+		assertEquals(SpriteSlots.NO_SLOT, slots.index(0.51));
+		assertEquals(0.12, slots.quantize(0.1234), 1e-12);
+		assertEquals(0.7, slots.quantize(0.7), 0.0);
+	}
+
+	@Test
+	public void rendersNearestFirstOffTheDrawingThread()
+	{
+		SpriteSlots<Integer> slots = new SpriteSlots<Integer>(0.5, STEP, new SpriteBudget(1000));
+		IndexRenderer renderer = new IndexRenderer();
+
+		//nothing to render for a moving pencil
+		assertFalse(slots.drawn(3));
+		assertFalse(slots.drawn(4));
+		assertFalse(slots.drawn(5));
+		//it stays: nothing rendered until the background thread renders
+		assertTrue(slots.drawn(5));
+		assertNull(slots.get(5));
+		assertFalse(slots.drawn(5));
+		slots.render(renderer, 2);
+		assertEquals(Arrays.asList(5, 6, 4, 7, 3), renderer.rendered);
+		assertEquals(Integer.valueOf(5), slots.get(5));
+
+		//nothing to do while the same sprite is drawn
+		assertFalse(slots.drawn(5));
+		//the pencil moves on and stays again: only the new neighbours are rendered, none beyond the largest tilt angle
+		assertFalse(slots.drawn(49));
+		assertTrue(slots.drawn(49));
+		slots.render(renderer, 2);
+		assertEquals(Arrays.asList(5, 6, 4, 7, 3, 49, 50, 48, 47), renderer.rendered);
+	}
+
+	@Test
+	public void dropsSpritesFarthestFromAngleDrawn()
+	{
+		SpriteBudget budget = new SpriteBudget(3 * SIZE);
+		SpriteSlots<Integer> slots = new SpriteSlots<Integer>(0.5, STEP, budget);
+		IndexRenderer renderer = new IndexRenderer();
+
+		//only three fit: the ones farther out are not rendered at the cost of nearer ones
+		stay(slots, 0);
+		slots.render(renderer, 2);
+		assertEquals(Arrays.asList(0, 1, -1), renderer.rendered);
+		assertEquals(3 * SIZE, budget.getUsedBytes());
+
+		stay(slots, 3);
+		slots.render(renderer, 1);
+		assertNull(slots.get(-1));
+		assertNull(slots.get(0));
+		assertNull(slots.get(1));
+		assertEquals(Integer.valueOf(2), slots.get(2));
+		assertEquals(Integer.valueOf(3), slots.get(3));
+		assertEquals(Integer.valueOf(4), slots.get(4));
+		assertEquals(3 * SIZE, budget.getUsedBytes());
+	}
+
+	@Test
+	public void budgetIsSharedBetweenSlots()
+	{
+		SpriteBudget budget = new SpriteBudget(3 * SIZE);
+		SpriteSlots<Integer> game = new SpriteSlots<Integer>(0.5, STEP, budget);
+		SpriteSlots<Integer> wallpaper = new SpriteSlots<Integer>(0.5, STEP, budget);
+
+		stay(game, 0);
+		game.render(new IndexRenderer(), 2);
+		//slots only make room by dropping their own sprites
+		stay(wallpaper, 0);
+		wallpaper.render(new IndexRenderer(), 2);
+		assertNull(wallpaper.get(0));
+		assertEquals(3 * SIZE, budget.getUsedBytes());
+
+		game.release();
+		assertEquals(0, budget.getUsedBytes());
+		assertNull(game.get(0));
+		stay(wallpaper, 1);
+		wallpaper.render(new IndexRenderer(), 2);
+		assertEquals(Integer.valueOf(1), wallpaper.get(1));
+		assertEquals(3 * SIZE, budget.getUsedBytes());
+
+		//released slots do not render any more
+		stay(game, 0);
+		game.render(new IndexRenderer(), 2);
+		assertNull(game.get(0));
+	}
+
+	@Test
+	public void trimDropsFarthestFirst()
+	{
+		SpriteBudget budget = new SpriteBudget(100 * SIZE);
+		SpriteSlots<Integer> slots = new SpriteSlots<Integer>(0.5, STEP, budget);
+		stay(slots, 10);
+		slots.render(new IndexRenderer(), 3);
+		assertEquals(7 * SIZE, budget.getUsedBytes());
+
+		budget.trim(3 * SIZE);
+		assertEquals(3 * SIZE, budget.getUsedBytes());
+		assertEquals(Integer.valueOf(9), slots.get(9));
+		assertEquals(Integer.valueOf(10), slots.get(10));
+		assertEquals(Integer.valueOf(11), slots.get(11));
+
+		budget.trim(0);
+		assertEquals(0, budget.getUsedBytes());
+		assertNull(slots.get(10));
+
+		//rendered again when drawn next, as the pencil still stays there
+		assertTrue(slots.drawn(10));
+		slots.render(new IndexRenderer(), 0);
+		assertEquals(Integer.valueOf(10), slots.get(10));
+	}
+
+	@Test
+	public void spriteDroppedWhileRenderingIsThrownAway()
+	{
+		final SpriteBudget budget = new SpriteBudget(100 * SIZE);
+		SpriteSlots<Integer> slots = new SpriteSlots<Integer>(0.5, STEP, budget);
+		stay(slots, 0);
+		slots.render(new IndexRenderer() {
+			@Override
+			public Integer render(double angle)
+			{
+				//the system runs low on memory
+				budget.trim(0);
+				return super.render(angle);
+			}
+		}, 2);
+		assertNull(slots.get(0));
+		assertEquals(0, budget.getUsedBytes());
+	}
+
+	@Test(timeout = 60000)
+	public void lastAngleDrawnGetsRenderedWhileMoving() throws InterruptedException
+	{
+		final SpriteSlots<Integer> slots = new SpriteSlots<Integer>(0.5, STEP, new SpriteBudget(5 * SIZE));
+		final IndexRenderer renderer = new IndexRenderer();
+		ExecutorService background = Executors.newSingleThreadExecutor();
+		Runnable render = new Runnable() {
+			public void run()
+			{
+				slots.render(renderer, 2);
+			}
+		};
+
+		Random random = new Random(3);
+		int index = 0;
+		for (int frame = 0; frame < 100000; frame++)
+		{
+			//the pencil wobbles to and fro by a step or two, and often stays for a frame
+			index = Math.max(-50, Math.min(50, index + random.nextInt(5) - 2));
+			if (slots.drawn(index))
+			{
+				background.execute(render);
+			}
+			if (frame % 64 == 0)
+			{
+				Thread.yield();
+			}
+		}
+
+		//then comes to rest: however the requests raced the renders, its sprite gets rendered
+		for (int frame = 0; slots.get(index) == null; frame++)
+		{
+			assertTrue("not rendered after " + frame + " frames", frame < 1000);
+			if (slots.drawn(index))
+			{
+				background.execute(render);
+			}
+			Thread.sleep(1);
+		}
+		background.shutdown();
+		assertTrue(background.awaitTermination(10, TimeUnit.SECONDS));
+		assertTrue(renderer.rendered.size() > 5);
+	}
+
+	@Test
+	public void spriteLargerThanBudgetIsNotRendered()
+	{
+		SpriteSlots<Integer> slots = new SpriteSlots<Integer>(0.5, STEP, new SpriteBudget(SIZE - 1));
+		IndexRenderer renderer = new IndexRenderer();
+		stay(slots, 0);
+		slots.render(renderer, 2);
+		assertTrue(renderer.rendered.isEmpty());
+	}
+}
@@ -0,0 +1,133 @@
+package com.pencilmotionsimulator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class AnalyticPropagatorTest {
+
+	//a pencil of length 1 under full gravity, so sqrt(g/l) is about 3 per second
+	final private static double L = 1.0;
+	final private static double G = 9.81;
+
+	//the reference: RK4 at 0.1 ms steps
+	final private static double FINE_STEP = 1e-4;
+
+	final private static double TOLERANCE = 1e-7;
+
+	@Test
+	public void libration()
+	{
+		//released from rest halfway down: swings around the bottom without getting over the top
+		assertMatchesFineRK4(2.0, 0.0, G, 0.3, 10.0);
+		//from the bottom, almost high enough to get over the top
+		assertMatchesFineRK4(Math.PI + 0.3, 6.2, G, 0.3, 10.0);
+	}
+
+	@Test
+	public void rotation()
+	{
+		//fast enough to keep going over the top, either way round
+		assertMatchesFineRK4(0.5, 8.0, G, 0.0, 10.0);
+		assertMatchesFineRK4(-0.5, -8.0, G, 0.2, 10.0);
+	}
+
+	@Test
+	public void separatrix()
+	{
+		//from the bottom with exactly the energy to reach the top: with g/l = 4, sin(psi/2) = -1 and v^2 l/(4g) = 1
+		//without rounding, so m1 = 0. The pencil creeps towards the top, which amplifies any error, so compare over a
+		//few seconds only
+		assertMatchesFineRK4(Math.PI, 4.0, 4.0 * L, 0.0, 2.0);
+		assertMatchesFineRK4(Math.PI, -4.0, 4.0 * L, 0.0, 2.0);
+	}
+
+	@Test
+	public void timeToWall()
+	{
+		MotionSimulator simulator = new MotionSimulator(L, new RK4Integrator(FINE_STEP, Integer.MAX_VALUE));
+		simulator.setWalls(0.4, 0.5);
+		AnalyticPropagator propagator = new AnalyticPropagator();
+
+		//falling from upright to the right-hand wall, thrown against the left-hand one, and swinging from 0.3 around
+		//a bottom at -0.1 up against it
+		double[][] starts = {{0.01, 0.0, 0.0}, {0.1, -2.0, 0.0}, {0.3, 0.0, Math.PI - 0.1}};
+		int[] walls = {1, -1, -1};
+		for (int i = 0; i < starts.length; i++)
+		{
+			MotionState start = new MotionState(starts[i][0], starts[i][1]);
+			double theta = starts[i][2];
+			double t = propagator.timeToWall(simulator, start, G, theta);
+			assertTrue("time to wall " + t, t > 0 && t < 10.0);
+
+			//the fine RK4 trajectory reaches the wall at that time, and not before
+			MotionState state = new MotionState(start.x, start.v);
+			simulator.getIntegrator().integrate(simulator, state, G, theta, t);
+			assertEquals(walls[i] * 0.4, state.x, TOLERANCE);
+			state.set(start);
+			simulator.getIntegrator().integrate(simulator, state, G, theta, 0.999 * t);
+			assertTrue("before the wall " + state.x, Math.abs(state.x) < 0.4);
+		}
+	}
+
+	@Test
+	public void neverReachesWallWhileSwingingBetweenThem()
+	{
+		MotionSimulator simulator = new MotionSimulator(L);
+		simulator.setWalls(0.4, 0.5);
+		//hanging down, swinging less than the walls allow
+		MotionState state = new MotionState(0.2, 0.0);
+		assertEquals(Double.POSITIVE_INFINITY, new AnalyticPropagator().timeToWall(simulator, state, G, Math.PI), 0.0);
+	}
+
+	@Test
+	public void bouncesLikeFineRK4()
+	{
+		//the simulator takes the contact time from the propagator instead of searching for it
+		MotionSimulator analytic = new MotionSimulator(L, new AnalyticPropagator());
+		MotionSimulator fine = new MotionSimulator(L, new RK4Integrator(FINE_STEP, Integer.MAX_VALUE));
+		analytic.setWalls(0.4, 0.5);
+		fine.setWalls(0.4, 0.5);
+
+		MotionState a = new MotionState(0.05, 0.0);
+		MotionState b = new MotionState(0.05, 0.0);
+		int hits = 0;
+		//falls against the right-hand wall and bounces, then gravity tips it over against the left-hand one
+		for (int i = 0; i < 120; i++)
+		{
+			double theta = (i < 60) ? 0.0 : -0.8;
+			analytic.step(a, G, theta, 1.0/60);
+			fine.step(b, G, theta, 1.0/60);
+			assertEquals(b.wallHit, a.wallHit);
+			assertEquals(b.wallHitVelocity, a.wallHitVelocity, 1e-5);
+			assertEquals(b.x, a.x, 1e-6);
+			assertEquals(b.v, a.v, 1e-5);
+			hits += Math.abs(a.wallHit);
+		}
+		assertTrue("wall hits " + hits, hits >= 2);
+	}
+
+	//jump ahead with the exact solution and step with fine RK4, and compare along the way
+	private static void assertMatchesFineRK4(double x, double v, double g, double theta, double duration)
+	{
+		MotionSimulator simulator = new MotionSimulator(L);
+		AnalyticPropagator propagator = new AnalyticPropagator();
+		RK4Integrator rk4 = new RK4Integrator(FINE_STEP, Integer.MAX_VALUE);
+
+		MotionState reference = new MotionState(x, v);
+		double elapsed = 0.0;
+		for (int i = 1; i <= 20; i++)
+		{
+			double t = duration * i/20;
+			rk4.integrate(simulator, reference, g, theta, t - elapsed);
+			elapsed = t;
+
+			//from the start in one jump, however far ahead
+			MotionState jumped = new MotionState(x, v);
+			propagator.propagate(simulator, jumped, g, theta, t);
+			assertEquals("x at " + t, reference.x, jumped.x, TOLERANCE);
+			assertEquals("v at " + t, reference.v, jumped.v, TOLERANCE * 10);
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package com.pencilmotionsimulator;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class BalanceTimeEstimatorTest {
+
+	//a few tasks, the last one not full
+	final private static int RUNS = 2 * BalanceTimeEstimator.RUNS_PER_TASK + 5;
+
+	final private static double GRAVITY_FACTOR = 0.02;
+	final private static double MAX_BALANCE_TIME = 2.0;
+
+	private static BalanceTimeEstimator newEstimator()
+	{
+		BalanceTimeEstimator estimator = new BalanceTimeEstimator(0.05, 0.5);
+		estimator.setTiming(BalanceTimeEstimator.DEFAULT_STEP_SIZE, MAX_BALANCE_TIME);
+		return estimator;
+	}
+
+	@Test
+	public void threadsDoNotChangeTheEstimate() throws InterruptedException
+	{
+		BalanceTimeEstimator estimator = newEstimator();
+		BalanceTimeEstimate expected = estimator.estimate(GRAVITY_FACTOR, RUNS, 7);
+		//some runs touch a wall, some do not, so the comparison covers both
+		assertTrue(expected.censoredRuns > 0);
+		assertTrue(expected.censoredRuns < RUNS);
+
+		for (int threads = 1; threads <= 3; threads += 2)
+		{
+			ExecutorService executor = Executors.newFixedThreadPool(threads);
+			try
+			{
+				assertSameEstimate(expected, estimator.estimate(GRAVITY_FACTOR, RUNS, 7, executor));
+			} finally
+			{
+				executor.shutdown();
+				assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+			}
+		}
+	}
+
+	@Test
+	public void seedChangesTheEstimate()
+	{
+		BalanceTimeEstimator estimator = newEstimator();
+		BalanceTimeEstimate first = estimator.estimate(GRAVITY_FACTOR, RUNS, 7);
+		BalanceTimeEstimate second = estimator.estimate(GRAVITY_FACTOR, RUNS, 8);
+		assertFalse(first.mean == second.mean);
+		assertFalse(first.percentile(50) == second.percentile(50));
+	}
+
+	@Test
+	public void distributionOfHandBuiltTimes()
+	{
+		BalanceTimeEstimate estimate = new BalanceTimeEstimate(1.0, new double[] {3.0, 1.0, 5.0, 2.0, 5.0}, 5.0);
+		assertEquals(5, estimate.getRuns());
+		assertEquals(2, estimate.censoredRuns);
+		assertEquals(3.2, estimate.mean, 1e-12);
+
+		//sorted 1, 2, 3, 5, 5: interpolated between runs, clamped to the shortest and longest
+		assertEquals(1.0, estimate.percentile(0), 0.0);
+		assertEquals(1.5, estimate.percentile(12.5), 1e-12);
+		assertEquals(2.0, estimate.percentile(25), 1e-12);
+		assertEquals(3.0, estimate.percentile(50), 1e-12);
+		assertEquals(4.0, estimate.percentile(62.5), 1e-12);
+		assertEquals(5.0, estimate.percentile(100), 0.0);
+		assertEquals(1.0, estimate.percentile(-10), 0.0);
+		assertEquals(5.0, estimate.percentile(200), 0.0);
+
+		//runs with a balance time longer than the given time
+		assertEquals(1.0, estimate.survival(0.0), 0.0);
+		assertEquals(0.8, estimate.survival(1.0), 1e-12);
+		assertEquals(0.6, estimate.survival(2.5), 1e-12);
+		assertEquals(0.4, estimate.survival(4.9), 1e-12);
+		assertEquals(0.0, estimate.survival(5.0), 0.0);
+		assertArrayEquals(new double[] {1.0, 0.8, 0.6, 0.4, 0.4, 0.0}, estimate.survivalCurve(1.0, 6), 1e-12);
+	}
+
+	@Test
+	public void noRuns()
+	{
+		BalanceTimeEstimate estimate = new BalanceTimeEstimate(1.0, new double[0], 5.0);
+		assertEquals(0, estimate.censoredRuns);
+		assertTrue(Double.isNaN(estimate.mean));
+		assertTrue(Double.isNaN(estimate.percentile(50)));
+		assertTrue(Double.isNaN(estimate.survival(1.0)));
+	}
+
+	//the estimate has the same balance time at every rank
+	private static void assertSameEstimate(BalanceTimeEstimate expected, BalanceTimeEstimate actual)
+	{
+		assertEquals(expected.getRuns(), actual.getRuns());
+		assertEquals(expected.censoredRuns, actual.censoredRuns);
+		assertEquals(expected.mean, actual.mean, 0.0);
+		for (int i = 0; i < expected.getRuns(); i++)
+		{
+			double percent = 100.0 * i/(expected.getRuns() - 1);
+			assertEquals(expected.percentile(percent), actual.percentile(percent), 0.0);
+		}
+	}
+}
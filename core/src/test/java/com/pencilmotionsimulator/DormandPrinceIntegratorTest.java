@@ -0,0 +1,93 @@
+package com.pencilmotionsimulator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class DormandPrinceIntegratorTest {
+
+	//a pencil of length 1 under full gravity, so sqrt(g/l) is about 3 per second
+	final private static double L = 1.0;
+	final private static double G = 9.81;
+
+	//one frame at 60 fps
+	final private static double FRAME = 1.0/60;
+
+	//the reference: RK4 at 0.1 ms steps
+	final private static double FINE_STEP = 1e-4;
+
+	@Test
+	public void framesMatchFineRK4()
+	{
+		//falling from near upright, and swinging around the bottom
+		assertMatchesFineRK4(0.01, 0.0, 0.0);
+		assertMatchesFineRK4(2.0, 0.0, 0.3);
+	}
+
+	@Test
+	public void longIntervalMatchesFineRK4()
+	{
+		MotionSimulator simulator = new MotionSimulator(L);
+		//enough steps in the budget to keep to the tolerance over a few seconds in one interval. The local errors add
+		//up over the steps, so the result is within a hundred times the tolerance
+		DormandPrinceIntegrator integrator = new DormandPrinceIntegrator(1e-9, 10000);
+		MotionState state = new MotionState(2.0, 0.0);
+		integrator.integrate(simulator, state, G, 0.3, 3.0);
+
+		MotionState reference = new MotionState(2.0, 0.0);
+		new RK4Integrator(FINE_STEP, Integer.MAX_VALUE).integrate(simulator, reference, G, 0.3, 3.0);
+		assertEquals(reference.x, state.x, 1e-7);
+		assertEquals(reference.v, state.v, 1e-7);
+		assertTrue(integrator.getLastStepCount() > 1);
+	}
+
+	@Test
+	public void hugeIntervalKeepsToStepBudget()
+	{
+		//a frame stalled for a long time, e.g. in the debugger
+		MotionSimulator simulator = new MotionSimulator(L);
+		DormandPrinceIntegrator integrator = new DormandPrinceIntegrator(DormandPrinceIntegrator.DEFAULT_TOLERANCE, 20);
+		MotionState state = new MotionState(2.0, 1.0);
+		integrator.integrate(simulator, state, G, 0.3, 1e6);
+		assertTrue("steps " + integrator.getLastStepCount(), integrator.getLastStepCount() <= 20);
+		assertTrue(integrator.getLastStepCount() > 0);
+		assertTrue(!Double.isNaN(state.x) && !Double.isInfinite(state.x));
+		assertTrue(!Double.isNaN(state.v) && !Double.isInfinite(state.v));
+
+		//and picks up a sensible step size again on the next frame
+		integrator.integrate(simulator, state, G, 0.3, FRAME);
+		assertTrue(!Double.isNaN(state.x) && !Double.isInfinite(state.x));
+	}
+
+	@Test
+	public void emptyIntervalTakesNoSteps()
+	{
+		DormandPrinceIntegrator integrator = new DormandPrinceIntegrator();
+		MotionState state = new MotionState(0.3, 0.5);
+		integrator.integrate(new MotionSimulator(L), state, G, 0.0, 0.0);
+		assertEquals(0, integrator.getLastStepCount());
+		assertEquals(0.3, state.x, 0.0);
+		assertEquals(0.5, state.v, 0.0);
+	}
+
+	//step frame by frame as the frontends do, and compare with fine RK4 after each frame, within ten times the default
+	//tolerance as the local errors add up
+	private static void assertMatchesFineRK4(double x, double v, double theta)
+	{
+		MotionSimulator simulator = new MotionSimulator(L);
+		DormandPrinceIntegrator integrator = new DormandPrinceIntegrator();
+		RK4Integrator rk4 = new RK4Integrator(FINE_STEP, Integer.MAX_VALUE);
+
+		MotionState state = new MotionState(x, v);
+		MotionState reference = new MotionState(x, v);
+		for (int i = 1; i <= 120; i++)
+		{
+			integrator.integrate(simulator, state, G, theta, FRAME);
+			rk4.integrate(simulator, reference, G, theta, FRAME);
+			assertTrue(integrator.getLastStepCount() <= DormandPrinceIntegrator.DEFAULT_MAX_STEPS);
+			assertEquals("x at frame " + i, reference.x, state.x, 1e-5);
+			assertEquals("v at frame " + i, reference.v, state.v, 1e-5);
+		}
+	}
+}
@@ -0,0 +1,171 @@
+package com.pencilmotionsimulator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.Test;
+
+public class MotionSimulatorTest {
+
+	//one frame at 60 fps
+	final private static double FRAME = 1.0/60;
+
+	final private static double G = 9.81;
+
+	@Test
+	public void bouncesAtTheContactTimeWithRestitution()
+	{
+		//no gravity: the pencil moves at constant speed, reaches the wall after 0.5 s and comes back at half the speed
+		MotionSimulator simulator = new MotionSimulator(100.0);
+		simulator.setWalls(0.5, 0.5);
+		MotionState state = new MotionState(0.0, 1.0);
+		simulator.step(state, 0.0, 0.0, 1.0);
+
+		assertEquals(1, state.wallHit);
+		assertEquals(1.0, state.wallHitVelocity, 1e-9);
+		assertEquals(-0.5, state.v, 1e-9);
+		assertEquals(0.5 - 0.5 * 0.5, state.x, 1e-9);
+	}
+
+	@Test
+	public void bounceDoesNotDependOnStepLength()
+	{
+		//falling against the left-hand wall under gravity, in one long step or in frames
+		MotionSimulator simulator = new MotionSimulator(0.05, new RK4Integrator(0.0005, 1000));
+		simulator.setWalls(0.4, 0.5);
+		MotionState once = new MotionState(-0.3, -1.0);
+		simulator.step(once, G, 0.0, 0.1);
+
+		MotionState framed = new MotionState(-0.3, -1.0);
+		double hitVelocity = 0.0;
+		for (int i = 0; i < 10; i++)
+		{
+			simulator.step(framed, G, 0.0, 0.01);
+			//the pencil bounces more than once: keep the hardest hit, as a single step does
+			if (framed.wallHit != 0 && Math.abs(framed.wallHitVelocity) > Math.abs(hitVelocity))
+			{
+				assertEquals(-1, framed.wallHit);
+				hitVelocity = framed.wallHitVelocity;
+			}
+		}
+
+		assertEquals(-1, once.wallHit);
+		assertEquals(once.wallHitVelocity, hitVelocity, 1e-7);
+		assertEquals(once.x, framed.x, 1e-7);
+		assertEquals(once.v, framed.v, 1e-7);
+	}
+
+	@Test
+	public void slowHitStopsAtTheWall()
+	{
+		//gravity pushes the pencil into the right-hand wall, which it reaches slower than WALL_STOP_VELOCITY
+		MotionSimulator simulator = new MotionSimulator(100.0);
+		simulator.setWalls(0.4, 0.5);
+		MotionState state = new MotionState(0.4 - 1e-6, 0.5 * MotionSimulator.WALL_STOP_VELOCITY);
+		simulator.step(state, G, 0.0, FRAME);
+
+		assertEquals(0, state.wallHit);
+		assertEquals(0.4, state.x, 0.0);
+		assertEquals(0.0, state.v, 0.0);
+	}
+
+	@Test
+	public void restingAgainstTheWallDoesNotIntegrate()
+	{
+		final int[] calls = new int[1];
+		final Integrator rk4 = new RK4Integrator();
+		MotionSimulator simulator = new MotionSimulator(100.0, new Integrator() {
+			public void integrate(MotionSimulator simulator, MotionState state, double g, double theta, double dt)
+			{
+				calls[0]++;
+				rk4.integrate(simulator, state, g, theta, dt);
+			}
+		});
+		simulator.setWalls(0.4, 0.5);
+		MotionState state = new MotionState(-0.4, 0.0);
+		for (int i = 0; i < 60; i++)
+		{
+			simulator.step(state, G, 0.0, FRAME);
+		}
+
+		assertEquals(0, calls[0]);
+		assertEquals(-0.4, state.x, 0.0);
+		assertEquals(0.0, state.v, 0.0);
+
+		//once gravity pulls it away from the wall, it moves again
+		simulator.step(state, G, -0.5, FRAME);
+		assertTrue(calls[0] > 0);
+		assertTrue(state.x > -0.4);
+	}
+
+	@Test
+	public void steadyStateSteppingWithRK4AllocatesNothing()
+	{
+		assertStepAllocatesNothing(new MotionSimulator(100.0, new RK4Integrator()));
+	}
+
+	@Test
+	public void steadyStateSteppingWithVerletAllocatesNothing()
+	{
+		assertStepAllocatesNothing(new MotionSimulator(100.0, new VerletIntegrator()));
+	}
+
+	@Test
+	public void steadyStateSteppingWithDormandPrinceAllocatesNothing()
+	{
+		assertStepAllocatesNothing(new MotionSimulator(100.0, new DormandPrinceIntegrator()));
+	}
+
+	//step a pencil bouncing between the walls, as the frontends do on every frame
+	private static void assertStepAllocatesNothing(MotionSimulator simulator)
+	{
+		com.sun.management.ThreadMXBean threads = allocationCounter();
+		long thread = Thread.currentThread().getId();
+
+		simulator.setWalls(0.4, 0.5);
+		MotionState state = new MotionState(0.01, 0.0);
+		//warm up, so that class loading and compilation are done
+		stepMany(simulator, state, 100000);
+
+		//the allocation counter itself may allocate: measure that with no stepping in between
+		long before = threads.getThreadAllocatedBytes(thread);
+		long after = threads.getThreadAllocatedBytes(thread);
+		long overhead = after - before;
+
+		//the runtime may allocate now and then for itself, e.g. while compiling: take the quietest of a few rounds.
+		//an allocation in each step would show in every round, as megabytes
+		long fewest = Long.MAX_VALUE;
+		for (int round = 0; round < 5 && fewest > 0; round++)
+		{
+			before = threads.getThreadAllocatedBytes(thread);
+			stepMany(simulator, state, 1000000);
+			after = threads.getThreadAllocatedBytes(thread);
+			fewest = Math.min(fewest, after - before - overhead);
+		}
+
+		assertEquals("bytes allocated by a million steps", 0, fewest);
+	}
+
+	private static void stepMany(MotionSimulator simulator, MotionState state, int steps)
+	{
+		for (int i = 0; i < steps; i++)
+		{
+			//gravity swings from side to side, so the pencil keeps hitting the walls
+			double theta = ((i / 120) % 2 == 0) ? 0.3 : -0.3;
+			simulator.step(state, G, theta, FRAME);
+		}
+	}
+
+	private static com.sun.management.ThreadMXBean allocationCounter()
+	{
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean counter = (com.sun.management.ThreadMXBean) threads;
+		assumeTrue(counter.isThreadAllocatedMemorySupported());
+		counter.setThreadAllocatedMemoryEnabled(true);
+		return counter;
+	}
+}
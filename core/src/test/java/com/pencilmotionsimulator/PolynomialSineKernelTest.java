@@ -0,0 +1,68 @@
+package com.pencilmotionsimulator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class PolynomialSineKernelTest {
+
+	final private PolynomialSineKernel kernel = new PolynomialSineKernel();
+
+	@Test
+	public void withinMaxErrorOverFullAngleRange()
+	{
+		//every angle x - theta can take, including both ends
+		int points = 1000000;
+		for (int i = 0; i <= points; i++)
+		{
+			assertWithinMaxError(-Math.PI + 2 * Math.PI * i/points);
+		}
+		assertWithinMaxError(Math.PI);
+		assertWithinMaxError(-Math.PI);
+		assertWithinMaxError(0.5 * Math.PI);
+		assertWithinMaxError(-0.5 * Math.PI);
+	}
+
+	@Test
+	public void withinMaxErrorForWrappedAngles()
+	{
+		Random random = new Random(42);
+		for (int i = 0; i < 1000000; i++)
+		{
+			//up to ten turns either way
+			assertWithinMaxError((2 * random.nextDouble() - 1) * 20 * Math.PI);
+		}
+		for (int turns = -10; turns <= 10; turns++)
+		{
+			assertWithinMaxError(turns * 2 * Math.PI);
+			assertWithinMaxError(Math.PI + turns * 2 * Math.PI);
+			assertWithinMaxError(0.5 * Math.PI + turns * 2 * Math.PI);
+		}
+	}
+
+	@Test
+	public void exactlyZeroWhenUpright()
+	{
+		assertEquals(0.0, kernel.sin(0.0), 0.0);
+	}
+
+	@Test
+	public void odd()
+	{
+		Random random = new Random(7);
+		for (int i = 0; i < 10000; i++)
+		{
+			double x = (2 * random.nextDouble() - 1) * Math.PI;
+			assertEquals(-kernel.sin(x), kernel.sin(-x), 0.0);
+		}
+	}
+
+	private void assertWithinMaxError(double x)
+	{
+		double error = Math.abs(kernel.sin(x) - Math.sin(x));
+		assertTrue("error " + error + " at " + x, error <= PolynomialSineKernel.MAX_ERROR);
+	}
+}
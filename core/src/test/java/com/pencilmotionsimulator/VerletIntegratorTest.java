@@ -0,0 +1,120 @@
+package com.pencilmotionsimulator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class VerletIntegratorTest {
+
+	//the pencil of the wallpaper, under full gravity
+	final private static double L = 0.05;
+	final private static double G = 9.81;
+
+	//gravity pointing up the screen, so the pencil swings like a pendulum instead of falling against a wall
+	final private static double THETA = Math.PI;
+
+	//one frame at 60 fps, for one hour
+	final private static double FRAME = 1.0/60;
+	final private static int FRAMES = 60 * 60 * 60;
+
+	/** How the energy error of a long run behaves. */
+	private static class Drift {
+		//largest relative energy error
+		double band;
+		//mean relative energy error over the first and the last tenth of the run
+		double firstMean, lastMean;
+	}
+
+	@Test
+	public void verletEnergyErrorStaysBoundedWithoutTrend()
+	{
+		Drift drift = swing(new VerletIntegrator());
+
+		assertTrue("energy error " + drift.band, drift.band < 1e-4);
+		//the error oscillates around the same mean at the start and at the end of the hour
+		assertTrue("trend " + (drift.lastMean - drift.firstMean) + " against band " + drift.band,
+				Math.abs(drift.lastMean - drift.firstMean) < 1e-3 * drift.band);
+	}
+
+	@Test
+	public void rk4EnergyDriftsSteadily()
+	{
+		Drift drift = swing(new RK4Integrator());
+
+		//RK4 loses energy on every step: the error at the end of the hour is the largest, and ten times what it
+		//was in the first tenth, i.e. it grows in proportion to the time run
+		assertTrue("end " + drift.lastMean + " start " + drift.firstMean, drift.lastMean < 0);
+		assertTrue("end " + drift.lastMean + " start " + drift.firstMean, drift.lastMean < 9 * drift.firstMean);
+		assertTrue("band " + drift.band, drift.band > 0.9 * Math.abs(drift.lastMean));
+
+		//after an hour it has lost more than the Verlet error band
+		assertTrue(Math.abs(drift.lastMean) > swing(new VerletIntegrator()).band);
+	}
+
+	@Test
+	public void cachedAccelerationFollowsSineKernel()
+	{
+		VerletIntegrator integrator = new VerletIntegrator();
+		MotionSimulator simulator = new MotionSimulator(L, integrator);
+		MotionState state = new MotionState(0.1, 0.0);
+		simulator.step(state, G, 0.0, FRAME);
+
+		//the same angle and gravity, but a different sine
+		simulator.setSineKernel(new SineKernel() {
+			public double sin(double x)
+			{
+				return 2 * Math.sin(x);
+			}
+		});
+		MotionState expected = new MotionState(state.x, state.v);
+		new VerletIntegrator().integrate(simulator, expected, G, 0.0, FRAME);
+		simulator.step(state, G, 0.0, FRAME);
+
+		assertEquals(expected.x, state.x, 0.0);
+		assertEquals(expected.v, state.v, 0.0);
+	}
+
+	@Test
+	public void cachedAccelerationFollowsSimulator()
+	{
+		//one integrator shared by two pencils of different length, at the same angle
+		VerletIntegrator integrator = new VerletIntegrator();
+		MotionSimulator shortPencil = new MotionSimulator(L, integrator);
+		MotionSimulator longPencil = new MotionSimulator(10 * L, integrator);
+		MotionState state = new MotionState(0.1, 0.0);
+		shortPencil.step(state, G, 0.0, FRAME);
+
+		MotionState expected = new MotionState(state.x, state.v);
+		new VerletIntegrator().integrate(longPencil, expected, G, 0.0, FRAME);
+		longPencil.step(state, G, 0.0, FRAME);
+
+		assertEquals(expected.x, state.x, 0.0);
+		assertEquals(expected.v, state.v, 0.0);
+	}
+
+	//swing the pencil for an hour at one step per frame, and follow the error of its energy
+	private static Drift swing(Integrator integrator)
+	{
+		MotionSimulator simulator = new MotionSimulator(L, integrator);
+		MotionState state = new MotionState(0.3, 0.0);
+		double startEnergy = simulator.energy(state, G, THETA);
+
+		Drift drift = new Drift();
+		int tenth = FRAMES/10;
+		for (int i = 0; i < FRAMES; i++)
+		{
+			simulator.step(state, G, THETA, FRAME);
+			double error = (simulator.energy(state, G, THETA) - startEnergy)/Math.abs(startEnergy);
+			drift.band = Math.max(drift.band, Math.abs(error));
+			if (i < tenth)
+			{
+				drift.firstMean += error/tenth;
+			} else if (i >= FRAMES - tenth)
+			{
+				drift.lastMean += error/tenth;
+			}
+		}
+		return drift;
+	}
+}
@@ -0,0 +1,362 @@
+package com.pencilsession;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class PencilSessionTest {
+
+	//a 1080x1920 screen with the pencil as drawn on it
+	final private static float WIDTH = 1080, HEIGHT = 1920, PENCIL_WIDTH = 60, PENCIL_LENGTH = 600;
+
+	//a touch halfway up the pencil standing upright
+	final private static float TOUCH_X = 0.5f * WIDTH, TOUCH_Y = HEIGHT - 0.5f * PENCIL_LENGTH;
+
+	//a touch far away from the pencil, which does not move it
+	final private static float AWAY_X = 10, AWAY_Y = 10;
+
+	//gravity tipping the upright pencil over against the left-hand wall, and gravity pointing beyond either wall,
+	//which pulls the pencil off it
+	final private static double LEAN = 0.5, BEYOND_WALL = 1.5;
+
+	final private static long START = 100000;
+	final private static long FRAME = 16;
+
+	@Test
+	public void releaseFollowedByTouchBeforeUpdateIsTakenOver()
+	{
+		PencilSession session = newSession();
+		long now = START;
+		session.setTouch(TOUCH_X, TOUCH_Y);
+		for (int i = 0; i < 20; i++)
+		{
+			session.update(now += FRAME);
+		}
+		assertEquals(-1, session.getTouchReleaseTime());
+
+		//the finger is lifted and put down again between two frames
+		long releaseTime = now + 5;
+		session.releaseTouch(releaseTime);
+		session.setTouch(TOUCH_X + 10, TOUCH_Y);
+		session.update(now += FRAME);
+
+		assertEquals(releaseTime, session.getTouchReleaseTime());
+		//taken over once only
+		session.update(now += FRAME);
+		assertEquals(-1, session.getTouchReleaseTime());
+	}
+
+	@Test
+	public void snapshotHoldsStateOfLastUpdate()
+	{
+		PencilSession session = newSession();
+		long now = START;
+		for (int i = 0; i < 60; i++)
+		{
+			session.update(now += FRAME);
+			PencilSnapshot snapshot = session.getSnapshot();
+			assertEquals(now, snapshot.time);
+			assertEquals(session.getRenderTiltAngle(), snapshot.tiltAngle, 0.0);
+			assertEquals(session.isInverted(), snapshot.inverted);
+			assertEquals(session.isFalling(), snapshot.falling);
+		}
+	}
+
+	@Test
+	public void releaseBeforeTouchInSameFrameReplaysIdentically() throws IOException
+	{
+		ByteArrayOutputStream log = new ByteArrayOutputStream();
+		PencilSession session = newSession();
+		SessionRecorder recorder = new SessionRecorder(log);
+		session.setRecorder(recorder);
+		session.setScreen(WIDTH, HEIGHT, PENCIL_WIDTH, PENCIL_LENGTH);
+
+		ArrayList<double[]> live = new ArrayList<double[]>();
+		long now = START;
+		for (int i = 0; i < 300; i++)
+		{
+			//the phone tilts slowly from side to side
+			session.setAccelerationData(9.81, 0.3 * Math.sin(i/40.0));
+			if (i == 50)
+			{
+				session.setTouch(TOUCH_X, TOUCH_Y);
+			} else if (i > 50 && i < 120)
+			{
+				//drag the pencil sideways
+				session.setTouch(TOUCH_X + 2 * (i - 50), TOUCH_Y);
+			} else if (i == 120 || i == 200)
+			{
+				//lift the finger and put it down again before the next frame
+				session.releaseTouch(now + 3);
+				session.setTouch(TOUCH_X, TOUCH_Y);
+			} else if (i == 160 || i == 240)
+			{
+				session.releaseTouch(now + 7);
+			}
+			session.update(now += FRAME);
+			live.add(frameState(session));
+		}
+		recorder.close();
+		//two releases followed by a touch in the same frame, and two plain ones
+		assertEquals(4, countReleases(live));
+
+		SessionReplayer replayer = new SessionReplayer(new ByteArrayInputStream(log.toByteArray()));
+		int frame = 0;
+		while (replayer.nextFrame())
+		{
+			double[] expected = live.get(frame);
+			double[] replayed = frameState(replayer.getSession());
+			for (int i = 0; i < expected.length; i++)
+			{
+				assertEquals("value " + i + " at frame " + frame, expected[i], replayed[i], 0.0);
+			}
+			frame++;
+		}
+		assertEquals(live.size(), frame);
+	}
+
+	@Test
+	public void parkedSessionWakesOnInputThatMovesPencil()
+	{
+		PencilSession session = newSession();
+		AtomicInteger wakeUps = countWakeUps(session);
+		long now = bringToRest(session, START);
+
+		assertTrue(session.park());
+		//gravity shifts a little, and still holds the pencil against the wall
+		session.setAccelerationData(9.81, LEAN + 0.1);
+		assertEquals(0, wakeUps.get());
+		//then pulls it off the wall: woken once, however many inputs follow
+		session.setAccelerationData(9.81, -BEYOND_WALL);
+		session.setAccelerationData(9.81, -BEYOND_WALL);
+		assertEquals(1, wakeUps.get());
+		session.setTouch(AWAY_X, AWAY_Y);
+		assertEquals(1, wakeUps.get());
+
+		//a touch wakes it up even where it does not move the pencil, as the touch stops it from parking
+		now = bringToRest(session, now);
+		session.releaseTouch(now);
+		session.update(now += FRAME);
+		assertTrue(session.park());
+		session.setTouch(AWAY_X, AWAY_Y);
+		assertEquals(2, wakeUps.get());
+		session.update(now += FRAME);
+		assertFalse(session.park());
+	}
+
+	@Test
+	public void parkOnlyAtRestAndUntouched()
+	{
+		PencilSession session = newSession();
+		countWakeUps(session);
+		session.setAccelerationData(9.81, LEAN);
+		long now = START;
+		session.update(now += FRAME);
+		//not started yet
+		assertFalse(session.park());
+		now = bringToRest(session, now);
+		session.setTouch(AWAY_X, AWAY_Y);
+		assertEquals(PencilSession.UPDATE_AT_REST, session.update(now += FRAME));
+		assertFalse(session.park());
+		session.releaseTouch(now);
+		session.update(now += FRAME);
+		//an input published before park() but not taken over yet
+		session.setAccelerationData(9.81, -BEYOND_WALL);
+		assertFalse(session.park());
+		session.setAccelerationData(9.81, LEAN);
+		session.update(now += FRAME);
+		assertTrue(session.park());
+
+		session.setWakeUpCall(null);
+		session.update(now += FRAME);
+		assertFalse(session.park());
+	}
+
+	@Test(timeout = 60000)
+	public void parkRacingTouchLosesNoWakeUp() throws InterruptedException
+	{
+		final int races = 20000;
+		final PencilSession session = newSession();
+		final AtomicInteger wakeUps = countWakeUps(session);
+		long now = bringToRest(session, START);
+
+		//the UI thread touches the screen once per race, as soon as the game loop starts it
+		final AtomicInteger started = new AtomicInteger(0);
+		final AtomicInteger touched = new AtomicInteger(0);
+		Thread ui = new Thread(new Runnable() {
+			public void run()
+			{
+				Random random = new Random(2);
+				for (int race = 1; race <= races; race++)
+				{
+					while (started.get() < race)
+					{
+						Thread.yield();
+					}
+					//the sandbox may have a single core: yield to let park() run before, during or after the touch
+					if (random.nextBoolean())
+					{
+						Thread.yield();
+					}
+					session.setTouch(AWAY_X, AWAY_Y);
+					touched.set(race);
+				}
+			}
+		});
+		ui.start();
+
+		Random random = new Random(1);
+		int parkedBeforeTouch = 0;
+		for (int race = 1; race <= races; race++)
+		{
+			int wakeUpsBefore = wakeUps.get();
+			started.set(race);
+			if (random.nextBoolean())
+			{
+				Thread.yield();
+			}
+			boolean parked = session.park();
+			while (touched.get() < race)
+			{
+				Thread.yield();
+			}
+
+			//parked means the touch woke the loop up again, no matter which came first
+			int woken = wakeUps.get() - wakeUpsBefore;
+			assertTrue("race " + race + " woken " + woken + " times", woken <= 1);
+			if (parked)
+			{
+				assertEquals("race " + race + " lost its wake-up", 1, woken);
+				parkedBeforeTouch++;
+			}
+
+			//back at rest and untouched for the next race
+			session.update(now += FRAME);
+			session.releaseTouch(now);
+			assertEquals(PencilSession.UPDATE_AT_REST, session.update(now += FRAME));
+		}
+		ui.join();
+		assertTrue(parkedBeforeTouch > 0);
+	}
+
+	@Test
+	public void parkedAndWokenSessionReplaysIdentically() throws IOException
+	{
+		ByteArrayOutputStream log = new ByteArrayOutputStream();
+		PencilSession session = newSession();
+		final AtomicInteger wakeUps = countWakeUps(session);
+		SessionRecorder recorder = new SessionRecorder(log);
+		session.setRecorder(recorder);
+		session.setScreen(WIDTH, HEIGHT, PENCIL_WIDTH, PENCIL_LENGTH);
+
+		ArrayList<double[]> live = new ArrayList<double[]>();
+		long now = START;
+		session.setAccelerationData(9.81, LEAN);
+		int side = -1;
+		for (int park = 0; park < 3; park++)
+		{
+			//falls against a wall and comes to rest
+			int result;
+			do
+			{
+				result = session.update(now += FRAME);
+				live.add(frameState(session));
+			} while (result != PencilSession.UPDATE_AT_REST);
+
+			//the game loop sleeps for a while, and the pencil does not move
+			assertTrue(session.park());
+			session.setAccelerationData(9.81, -side * (LEAN + 0.1));
+			now += 5000;
+			//then gravity pulls it over to the other wall
+			session.setAccelerationData(9.81, side * BEYOND_WALL);
+			assertEquals(park + 1, wakeUps.get());
+			side = -side;
+		}
+		for (int i = 0; i < 60; i++)
+		{
+			session.update(now += FRAME);
+			live.add(frameState(session));
+		}
+		recorder.close();
+
+		SessionReplayer replayer = new SessionReplayer(new ByteArrayInputStream(log.toByteArray()));
+		int frame = 0;
+		while (replayer.nextFrame())
+		{
+			double[] expected = live.get(frame);
+			double[] replayed = frameState(replayer.getSession());
+			for (int i = 0; i < expected.length; i++)
+			{
+				assertEquals("value " + i + " at frame " + frame, expected[i], replayed[i], 0.0);
+			}
+			frame++;
+		}
+		assertEquals(live.size(), frame);
+	}
+
+	//let the pencil fall against the left-hand wall, and return the time it came to rest there
+	static long bringToRest(PencilSession session, long now)
+	{
+		session.setAccelerationData(9.81, LEAN);
+		for (int i = 0; i < 600; i++)
+		{
+			if (session.update(now += FRAME) == PencilSession.UPDATE_AT_REST)
+			{
+				return now;
+			}
+		}
+		throw new AssertionError("pencil did not come to rest");
+	}
+
+	static AtomicInteger countWakeUps(PencilSession session)
+	{
+		final AtomicInteger wakeUps = new AtomicInteger(0);
+		session.setWakeUpCall(new Runnable() {
+			public void run()
+			{
+				wakeUps.incrementAndGet();
+			}
+		});
+		return wakeUps;
+	}
+
+	static PencilSession newSession()
+	{
+		PencilSession session = new PencilSession();
+		session.setScreen(WIDTH, HEIGHT, PENCIL_WIDTH, PENCIL_LENGTH);
+		session.setAccelerationData(9.81, 0.0);
+		return session;
+	}
+
+	//everything an update leaves for the game loop and the render thread
+	static double[] frameState(PencilSession session)
+	{
+		PencilSnapshot snapshot = session.getSnapshot();
+		return new double[] {
+				session.getTiltAngle(), session.getRenderTiltAngle(), session.getAngularVelocity(),
+				session.getTouchReleaseTime(), session.isBalancing() ? 1 : 0, session.isTouchingWall() ? 1 : 0,
+				snapshot.time, snapshot.tiltAngle, snapshot.inverted ? 1 : 0, snapshot.falling ? 1 : 0 };
+	}
+
+	private static int countReleases(ArrayList<double[]> frames)
+	{
+		int releases = 0;
+		for (double[] state : frames)
+		{
+			if (state[3] != -1)
+			{
+				releases++;
+			}
+		}
+		return releases;
+	}
+}
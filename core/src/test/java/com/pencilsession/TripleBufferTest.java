@@ -0,0 +1,138 @@
+package com.pencilsession;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TripleBufferTest {
+
+	/** A value spread over several fields, so that a read during a write would see a mix of two values. */
+	private static class Value {
+		final long[] fields = new long[8];
+
+		void set(long value)
+		{
+			for (int i = 0; i < fields.length; i++)
+			{
+				fields[i] = (i % 2 == 0) ? value : -value;
+			}
+		}
+	}
+
+	@Test
+	public void readerSeesThirdBufferUntilFirstPublish()
+	{
+		Value first = new Value(), second = new Value(), third = new Value();
+		TripleBuffer<Value> buffer = new TripleBuffer<Value>(first, second, third);
+
+		assertSame(first, buffer.getWriteBuffer());
+		assertSame(third, buffer.getReadBuffer());
+		assertFalse(buffer.hasUpdate());
+		assertFalse(buffer.update());
+		assertSame(third, buffer.getReadBuffer());
+	}
+
+	@Test
+	public void readerGetsLatestValueOnce()
+	{
+		TripleBuffer<Value> buffer = new TripleBuffer<Value>(new Value(), new Value(), new Value());
+		for (long value = 1; value <= 3; value++)
+		{
+			buffer.getWriteBuffer().set(value);
+			buffer.publish();
+		}
+
+		assertTrue(buffer.hasUpdate());
+		assertTrue(buffer.update());
+		//the values published in between are skipped
+		assertEquals(3, buffer.getReadBuffer().fields[0]);
+		assertFalse(buffer.hasUpdate());
+		assertFalse(buffer.update());
+		assertEquals(3, buffer.getReadBuffer().fields[0]);
+	}
+
+	@Test
+	public void writerAndReaderNeverShareBuffer()
+	{
+		Value[] values = { new Value(), new Value(), new Value() };
+		TripleBuffer<Value> buffer = new TripleBuffer<Value>(values[0], values[1], values[2]);
+		Random random = new Random(1);
+		long published = 0;
+		long seen = 0;
+		for (int i = 0; i < 100000; i++)
+		{
+			if (random.nextBoolean())
+			{
+				buffer.getWriteBuffer().set(++published);
+				buffer.publish();
+			} else if (buffer.update())
+			{
+				seen = buffer.getReadBuffer().fields[0];
+				assertEquals(published, seen);
+			}
+			assertNotSame(buffer.getWriteBuffer(), buffer.getReadBuffer());
+			//the reader's buffer is never written to while it holds it
+			assertEquals(seen, buffer.getReadBuffer().fields[0]);
+		}
+	}
+
+	@Test(timeout = 60000)
+	public void concurrentReaderSeesNoTornOrOutOfOrderValues() throws InterruptedException
+	{
+		final int count = 2000000;
+		final TripleBuffer<Value> buffer = new TripleBuffer<Value>(new Value(), new Value(), new Value());
+
+		Thread writer = new Thread(new Runnable() {
+			public void run()
+			{
+				for (long value = 1; value <= count; value++)
+				{
+					Value write = buffer.getWriteBuffer();
+					for (int i = 0; i < write.fields.length; i++)
+					{
+						write.fields[i] = (i % 2 == 0) ? value : -value;
+						//give the reader a chance to run in the middle of a write, even on a single core
+						if (value % 1024 == 0 && i == 3)
+						{
+							Thread.yield();
+						}
+					}
+					buffer.publish();
+				}
+			}
+		});
+		writer.start();
+
+		long last = 0;
+		long updates = 0;
+		while (last < count)
+		{
+			if (buffer.update())
+			{
+				long[] fields = buffer.getReadBuffer().fields;
+				long value = fields[0];
+				for (int i = 0; i < fields.length; i++)
+				{
+					assertEquals("field " + i + " of " + value, (i % 2 == 0) ? value : -value, fields[i]);
+				}
+				assertTrue(value + " after " + last, value > last);
+				last = value;
+				updates++;
+			} else if (!writer.isAlive() && !buffer.hasUpdate())
+			{
+				break;
+			}
+		}
+		writer.join();
+
+		//the last value published always gets through
+		assertEquals(count, last);
+		assertTrue(updates > 1);
+	}
+}
@@ -5,16 +5,49 @@ import java.util.Random;
 
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Path;
+import android.graphics.Rect;
 import android.graphics.Region;
 import android.os.SystemClock;
 
-public class Exploder1 {
+import com.pencilanimations.Exploder;
+import com.pencilanimations.ExploderPool;
+import com.pencilanimations.ExplosionConfig;
+
+/**
+ * Breaks an image into triangular fragments that fly apart. The fragments are cut out when the explosion is prepared,
+ * into one bitmap that holds the image twice: on the left with each slice cut to the inside of its triangle, on the
+ * right cut to the outside. Each fragment is a rectangle of that bitmap, with the parts of other fragments
+ * transparent, so drawing a frame of the explosion copies rectangles and needs no clipping.
+ *
+ * Preparing an explosion reuses the bitmap and everything else set up by init(), so an exploder can be used for any
+ * number of explosions without allocating. Take one from an Exploder1Pool for each explosion, and recycle() it when
+ * the explosion is over.
+ */
+public class Exploder1 implements Exploder {
 
     private ArrayList<BitmapFragment> fragments;
     
     //the image used to represent the explosion
     Bitmap image;
+    
+    //the fragments of the image: cut to the inside of the triangles on the left half, to the outside on the right
+    Bitmap fragmentImage;
+    private Canvas fragmentCanvas;
+    
+    //scratch for cutting out the fragments
+    private Path triangle = new Path();
+    private Rect sliceArea = new Rect();
+    
+    //scratch for the area a fragment is drawn to
+    private Rect destination = new Rect();
+    
+    //random numbers for the shapes and the paths of the fragments, seeded for each explosion
+    private Random random = new Random();
+    
+    //the pool the exploder goes back to when recycled, if any
+    ExploderPool pool;
 
     //The x-point within the image at which the explosion will start. Between 0 and 1.
     public static float DEFAULT_BREAKPOINT_X = 0.5f;
@@ -51,6 +84,7 @@ public class Exploder1 {
      * @param double angularVelocity The angular speed
      * @return float explosionScale Relative size of the explosion 
      */
+    @Override
     public float getExplosionScale(double angularVelocity)
     {
     	return (1.8f * (float) (angularVelocity * angularVelocity));
@@ -62,6 +96,7 @@ public class Exploder1 {
      * @param double angularVelocity The angular speed
      * @return long explosionDuration Duration of the explosion in miliseconds
      */
+    @Override
     public long getExplosionDuration(double angularVelocity)
     {
     	int duration = ((int) (17 * (float) Math.abs(angularVelocity)) + 1) * 10;
@@ -69,34 +104,69 @@ public class Exploder1 {
     }
 
     /**
-     * Initialize the explosion animation
+     * Initialize the explosion animation: set up the fragments, and the bitmap they are cut out into
      */
     public void init() {
-        Random rnd=new Random(SystemClock.uptimeMillis());
+        random.setSeed(SystemClock.uptimeMillis());
 
         final int w=image.getWidth();
         final int h=image.getHeight();
         final int sliceW=w/BitmapFragment.SLICES_WIDTH;
         final int sliceH=h/BitmapFragment.SLICES_HEIGHT;
 
-        fragments=new ArrayList<BitmapFragment>(BitmapFragment.SLICES_WIDTH*BitmapFragment.SLICES_HEIGHT);
+        fragmentImage=Bitmap.createBitmap(2*w, h, Bitmap.Config.ARGB_8888);
+        fragmentCanvas=new Canvas(fragmentImage);
+        sliceArea.set(0, 0, sliceW, sliceH);
+
+        //each slice gives two fragments: the part outside its triangle, on the right half, and the part inside
+        fragments=new ArrayList<BitmapFragment>(2*BitmapFragment.SLICES_WIDTH*BitmapFragment.SLICES_HEIGHT);
         for(int i=0;i<BitmapFragment.SLICES_WIDTH;i++){
             int x=i*sliceW;
             for(int j=0;j<BitmapFragment.SLICES_HEIGHT;j++){
                 int y=j*sliceH;
-                Bitmap part=Bitmap.createBitmap(image,x,y,sliceW,sliceH);
-                Path tri=new Path();
-                tri.moveTo(0,0);
-                for(float jj=0;jj<=1;jj+=.2){
-                    tri.lineTo(rnd.nextInt(sliceW), sliceH * jj);
-                }
-                tri.lineTo(0,sliceH);
-                tri.close();
-
-                fragments.add(new BitmapFragment(part, x, y, w, h, Region.Op.DIFFERENCE, tri));
-                fragments.add(new BitmapFragment(part, x, y, w, h, Region.Op.REPLACE, tri));
+                fragments.add(new BitmapFragment(new Rect(w+x, y, w+x+sliceW, y+sliceH), x, y, w, h));
+                fragments.add(new BitmapFragment(new Rect(x, y, x+sliceW, y+sliceH), x, y, w, h));
             }
-        }        
+        }
+        cutFragments();
+    }
+
+    /**
+     * Cut the slices of the image along new random triangles, into the bitmap of the fragments
+     */
+    private void cutFragments() {
+        final int sliceW=sliceArea.width();
+        final int sliceH=sliceArea.height();
+
+        fragmentImage.eraseColor(Color.TRANSPARENT);
+        for (int i = 0; i < fragments.size(); i += 2)
+        {
+            Rect outside=fragments.get(i).source;
+            Rect slice=fragments.get(i+1).source;
+
+            triangle.rewind();
+            triangle.moveTo(0,0);
+            for(float jj=0;jj<=1;jj+=.2){
+                triangle.lineTo(random.nextInt(sliceW), sliceH * jj);
+            }
+            triangle.lineTo(0,sliceH);
+            triangle.close();
+
+            //cut the slice to the outside of the triangle, on the right half
+            fragmentCanvas.save();
+            fragmentCanvas.clipRect(outside);
+            fragmentCanvas.translate(outside.left, outside.top);
+            fragmentCanvas.clipPath(triangle, Region.Op.DIFFERENCE);
+            fragmentCanvas.drawBitmap(image, slice, sliceArea, null);
+            fragmentCanvas.restore();
+
+            //and to the inside, on the left half
+            fragmentCanvas.save();
+            fragmentCanvas.translate(slice.left, slice.top);
+            fragmentCanvas.clipPath(triangle);
+            fragmentCanvas.drawBitmap(image, slice, sliceArea, null);
+            fragmentCanvas.restore();
+        }
     }
 
     /**
@@ -107,12 +177,69 @@ public class Exploder1 {
      */
     public void prepare(float breakpointX, float breakpointY)
     {
+    	prepare(breakpointX, breakpointY, SystemClock.uptimeMillis());
+    }
+
+    /**
+     * Prepare the explosion animation, with new fragments flying to new places, without allocating
+     * 
+     * @param float breakpointX The x-point within the image at which the explosion will start. Between 0 and 1.
+     * @param float breakpointY The y-point within the image at which the explosion will start. Between 0 and 1.
+     * @param long seed Seed for the shapes and paths of the fragments: the same seed gives the same explosion
+     */
+    public void prepare(float breakpointX, float breakpointY, long seed)
+    {
+    	random.setSeed(seed);
+    	cutFragments();
     	for (int i = 0; i < fragments.size(); i++)
     	{
-        	fragments.get(i).prepare(Math.round(breakpointX * image.getWidth()), Math.round(breakpointY * image.getHeight()));
+        	fragments.get(i).prepare(Math.round(breakpointX * image.getWidth()), Math.round(breakpointY * image.getHeight()), random);
+    	}
+    }
+
+    /**
+     * Prepare the explosion animation for a wall hit: the fragments fly away from the wall.
+     * 
+     * @param ExplosionConfig config The explosion config
+     * @param boolean isInverted Whether the pencil stood on the top of the screen when it hit the wall
+     */
+    @Override
+    public void prepare(ExplosionConfig config, boolean isInverted)
+    {
+    	if (isInverted)
+    	{
+    		prepare(((config.direction < 0) ? 0.9f : 0.1f), 0.4f, config.getSeed());
+    	} else
+    	{
+    		prepare(((config.direction > 0) ? 0.9f : 0.1f), 0.6f, config.getSeed());
     	}
     }
 
+    /**
+     * The explosion is over: give the exploder back to the pool it came from, for the next explosion
+     */
+    @Override
+    public void recycle()
+    {
+    	if (pool != null)
+    	{
+    		pool.release(this);
+    	}
+    }
+
+    /**
+     * Draw one frame of the explosion animation, at the explosion position. The fragments fly out further for a
+     * bigger explosion.
+     * 
+     * @param Canvas canvas The android canvas
+     * @param ExplosionConfig config The explosion config
+     * @param long elapsed Time since the explosion started in milliseconds
+     */
+    @Override
+    public void draw(Canvas canvas, ExplosionConfig config, long elapsed) {
+    	draw(canvas, config.explosionXPosition, config.explosionYPosition, elapsed/100f * config.explosionScale);
+    }
+
     /**
      * Draw one frame of the explosion animation.
      * 
@@ -133,11 +260,46 @@ public class Exploder1 {
             int drawX=part.sourceX+(Math.round(diffX*interpolation));
             int drawY=part.sourceY+(Math.round(diffY*interpolation));
 
-            canvas.save();
-            canvas.translate(absoluteDisplacementX-image.getWidth()/2+drawX, absoluteDisplacementY-image.getHeight()/2+drawY);
-            canvas.clipPath(part.triangle, part.op);
-            canvas.drawBitmap(part.bmp, 0, 0, null);
-            canvas.restore();
+            int left=absoluteDisplacementX-image.getWidth()/2+drawX;
+            int top=absoluteDisplacementY-image.getHeight()/2+drawY;
+            destination.set(left, top, left+part.source.width(), top+part.source.height());
+            canvas.drawBitmap(fragmentImage, part.source, destination, null);
     	} 
     }	
+
+    /**
+     * Calculate the area covered by one frame of the explosion animation, as drawn by draw().
+     * 
+     * @param ExplosionConfig config The explosion config
+     * @param long elapsed Time since the explosion started in milliseconds
+     * @param Rect bounds Receives the area
+     */
+    @Override
+    public void getBounds(ExplosionConfig config, long elapsed, Rect bounds) {
+    	getBounds(config.explosionXPosition, config.explosionYPosition, elapsed/100f * config.explosionScale, bounds);
+    }
+
+    /**
+     * Calculate the area covered by one frame of the explosion animation, as drawn by draw().
+     * 
+     * @param int absoluteDisplacementX The x-position of the center of the image on the canvas
+     * @param int absoluteDisplacementY The y-position of the center of the image on the canvas
+     * @param float interpolation Progress of the animation. Between 0 and 1.
+     * @param Rect bounds Receives the area
+     */
+    public void getBounds(int absoluteDisplacementX, int absoluteDisplacementY, float interpolation, Rect bounds) {
+
+    	bounds.setEmpty();
+    	for (int i = 0; i < fragments.size(); i++)
+    	{
+    		BitmapFragment part=fragments.get(i);
+    		
+    		int drawX=part.sourceX+(Math.round((part.destX-part.sourceX)*interpolation));
+            int drawY=part.sourceY+(Math.round((part.destY-part.sourceY)*interpolation));
+            
+            int left=absoluteDisplacementX-image.getWidth()/2+drawX;
+            int top=absoluteDisplacementY-image.getHeight()/2+drawY;
+            bounds.union(left, top, left+part.source.width(), top+part.source.height());
+    	}
+    }
 }
@@ -0,0 +1,37 @@
+package com.explode1;
+
+import android.graphics.Bitmap;
+
+import com.pencilanimations.Exploder;
+import com.pencilanimations.ExploderPool;
+
+/**
+ * Keeps exploders for one image ready for use, so that an explosion at every wall hit costs no allocation. Take an
+ * exploder with obtain() when an explosion starts, prepare it, and give it back with Exploder.recycle() when the
+ * explosion is over. If more explosions run at the same time than the pool was made for, it makes another exploder.
+ */
+public class Exploder1Pool extends ExploderPool {
+
+	//the image used to represent the explosion
+	final private Bitmap image;
+
+    /**
+     * Constructor
+     *
+     * @param Bitmap image The image used to represent the explosion
+     * @param int size Number of explosions that can run at the same time without making another exploder
+     */
+	public Exploder1Pool(Bitmap image, int size)
+	{
+		this.image = image;
+		fill(size);
+	}
+
+	@Override
+	protected Exploder create()
+	{
+		Exploder1 exploder = new Exploder1(image);
+		exploder.pool = this;
+		return exploder;
+	}
+}
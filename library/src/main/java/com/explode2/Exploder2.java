@@ -1,28 +1,69 @@
 package com.explode2;
 
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
-import android.graphics.drawable.BitmapDrawable;
+import android.graphics.Paint;
+import android.graphics.Rect;
 
-public class Exploder2 {
+import com.pencilanimations.BitmapAtlas;
+import com.pencilanimations.Exploder;
+import com.pencilanimations.ExplosionConfig;
+
+/**
+ * Shows a series of images in turn, one every 10 milliseconds. The images are frames of an atlas, which the game
+ * starts decoding as soon as it starts, so that they are ready for the first wall hit. Until they are decoded nothing
+ * is drawn.
+ */
+public class Exploder2 implements Exploder {
+	
+	//explosions of a higher angular speed are drawn scaled up from frames decoded for this speed
+	final public static double MAX_DECODED_ANGULAR_VELOCITY = 1.5;
 	
 	//The series of images that will be shown in turn to animate the explosion
-	BitmapDrawable[] images;
+	BitmapAtlas images;
+	
+	final private Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG | Paint.DITHER_FLAG);
+	
+	//scratch for the area a frame is drawn to
+	final private Rect destination = new Rect();
 	
     /**
      * Constructor
      * 
-     * @param BitmapDrawable[] images The series of images that will be shown in turn to animate the explosion
+     * @param BitmapAtlas images The series of images that will be shown in turn to animate the explosion, at most
+     *  getMaxFrameSize() high
      */
-	public Exploder2(BitmapDrawable[] images) {
+	public Exploder2(BitmapAtlas images) {
 		this.images = images;
     }
 	
+    /**
+     * The largest size a frame is drawn at, for explosions up to MAX_DECODED_ANGULAR_VELOCITY.
+     * 
+     * @return int frameSize Width and height in pixels
+     */
+	public static int getMaxFrameSize()
+	{
+		return 2 * getExplosionSize(2.5f * (float) MAX_DECODED_ANGULAR_VELOCITY);
+	}
+	
+    /**
+     * Half of the size a frame is drawn at.
+     * 
+     * @param float explosionScale Parameter giving the relative size of the explosion
+     */
+	private static int getExplosionSize(float explosionScale)
+	{
+		return 12 + (int) (4.0f * explosionScale * explosionScale);
+	}
+	
     /**
      * Get relative size of the explosion based on the angular speed (if the pencil hits harder, the explosion is bigger).
      * 
      * @param double angularVelocity The angular speed
      * @return float explosionScale Relative size of the explosion 
      */
+    @Override
     public float getExplosionScale(double angularVelocity)
     {
     	return (2.5f * (float) Math.abs(angularVelocity));
@@ -34,11 +75,56 @@ public class Exploder2 {
      * @param double angularVelocity The angular speed
      * @return long explosionDuration Duration of the explosion in miliseconds
      */
+    @Override
     public long getExplosionDuration(double angularVelocity)
     {
     	return 100L;
     }
 
+    /**
+     * Start decoding the images, if the game has not yet. Otherwise the explosion only depends on the config, so the
+     * same exploder draws all explosions.
+     */
+    @Override
+    public void prepare(ExplosionConfig config, boolean isInverted)
+    {
+    	images.load();
+    }
+
+    /**
+     * Draw one frame of the explosion animation, at the explosion position.
+     * 
+     * @param Canvas canvas The android canvas
+     * @param ExplosionConfig config The explosion config
+     * @param long elapsed Time since the explosion started in milliseconds
+     */
+    @Override
+    public void draw(Canvas canvas, ExplosionConfig config, long elapsed)
+    {
+    	draw(canvas, config.explosionXPosition, config.explosionYPosition, Math.round(elapsed/10f), config.explosionScale);
+    }
+
+    /**
+     * Calculate the area covered by one frame of the explosion animation, as drawn by draw().
+     * 
+     * @param ExplosionConfig config The explosion config
+     * @param long elapsed Time since the explosion started in milliseconds
+     * @param Rect bounds Receives the area, empty if nothing is drawn
+     */
+    @Override
+    public void getBounds(ExplosionConfig config, long elapsed, Rect bounds)
+    {
+    	getBounds(config.explosionXPosition, config.explosionYPosition, Math.round(elapsed/10f), config.explosionScale, bounds);
+    }
+
+    /**
+     * The exploder is shared by all explosions: nothing to give back.
+     */
+    @Override
+    public void recycle()
+    {
+    }
+
     /**
      * Draw one frame of the explosion animation.
      * 
@@ -50,17 +136,41 @@ public class Exploder2 {
      */ 
 	public void draw(Canvas canvas, int absoluteDisplacementX, int absoluteDisplacementY, int interpolation, float explosionScale) {
 		
-		int explosionSize = 12 + (int) (4.0f * explosionScale * explosionScale);
+		int explosionSize = getExplosionSize(explosionScale);
 		
 		int xLeftExp = absoluteDisplacementX - explosionSize;
     	int yTopExp = absoluteDisplacementY - explosionSize;
     	int xRightExp = absoluteDisplacementX + explosionSize;
     	int yBottomExp = absoluteDisplacementY + explosionSize;
 		
-    	if (interpolation < images.length)
+    	Bitmap bitmap = images.getBitmap();
+    	if (bitmap != null && interpolation < images.getFrameCount())
     	{
-    		images[interpolation].setBounds(xLeftExp, yTopExp, xRightExp, yBottomExp);
-    		images[interpolation].draw(canvas);
+    		destination.set(xLeftExp, yTopExp, xRightExp, yBottomExp);
+    		canvas.drawBitmap(bitmap, images.getFrame(interpolation), destination, paint);
     	}
 	}
+
+    /**
+     * Calculate the area covered by one frame of the explosion animation, as drawn by draw().
+     * 
+     * @param int absoluteDisplacementX The x-position of the center of the image on the canvas
+     * @param int absoluteDisplacementY The y-position of the center of the image on the canvas
+     * @param float interpolation Progress of the animation. Between 0 and 1.
+     * @param float explosionScale Parameter giving the relative size of the explosion
+     * @param Rect bounds Receives the area, empty if nothing is drawn
+     */ 
+	public void getBounds(int absoluteDisplacementX, int absoluteDisplacementY, int interpolation, float explosionScale, Rect bounds) {
+		
+		int explosionSize = getExplosionSize(explosionScale);
+		
+		if (images.getBitmap() != null && interpolation < images.getFrameCount())
+		{
+			bounds.set(absoluteDisplacementX - explosionSize, absoluteDisplacementY - explosionSize,
+					absoluteDisplacementX + explosionSize, absoluteDisplacementY + explosionSize);
+		} else
+		{
+			bounds.setEmpty();
+		}
+	}
 }
@@ -1,9 +1,13 @@
 package com.explode3;
 
 import android.graphics.Canvas;
+import android.graphics.Rect;
 import android.graphics.drawable.BitmapDrawable;
 
-public class Exploder3 {
+import com.pencilanimations.Exploder;
+import com.pencilanimations.ExplosionConfig;
+
+public class Exploder3 implements Exploder {
 
 	//the image used to represent the explosion
 	BitmapDrawable image;
@@ -24,6 +28,7 @@ public class Exploder3 {
      * @param double angularVelocity The angular speed
      * @return float explosionScale Relative size of the explosion 
      */
+    @Override
     public float getExplosionScale(double angularVelocity)
     {
     	return (2.5f * (float) Math.abs(angularVelocity));
@@ -35,10 +40,53 @@ public class Exploder3 {
      * @param double angularVelocity The angular speed
      * @return long explosionDuration Duration of the explosion in miliseconds
      */
+    @Override
     public long getExplosionDuration(double angularVelocity)
     {
     	return 100L;
     }
+
+    /**
+     * Nothing to set up: the explosion only depends on the config, so the same exploder draws all explosions.
+     */
+    @Override
+    public void prepare(ExplosionConfig config, boolean isInverted)
+    {
+    }
+
+    /**
+     * Draw one frame of the explosion animation, at the explosion position.
+     * 
+     * @param Canvas canvas The android canvas
+     * @param ExplosionConfig config The explosion config
+     * @param long elapsed Time since the explosion started in milliseconds
+     */
+    @Override
+    public void draw(Canvas canvas, ExplosionConfig config, long elapsed)
+    {
+    	draw(canvas, config.explosionXPosition, config.explosionYPosition, elapsed/100f, config.explosionScale);
+    }
+
+    /**
+     * Calculate the area covered by one frame of the explosion animation, as drawn by draw().
+     * 
+     * @param ExplosionConfig config The explosion config
+     * @param long elapsed Time since the explosion started in milliseconds
+     * @param Rect bounds Receives the area
+     */
+    @Override
+    public void getBounds(ExplosionConfig config, long elapsed, Rect bounds)
+    {
+    	getBounds(config.explosionXPosition, config.explosionYPosition, elapsed/100f, config.explosionScale, bounds);
+    }
+
+    /**
+     * The exploder is shared by all explosions: nothing to give back.
+     */
+    @Override
+    public void recycle()
+    {
+    }
 	
     /**
      * Draw one frame of the explosion animation.
@@ -61,4 +109,20 @@ public class Exploder3 {
     	image.draw(canvas);
 	}
 
+    /**
+     * Calculate the area covered by one frame of the explosion animation, as drawn by draw().
+     * 
+     * @param int absoluteDisplacementX The x-position of the center of the image on the canvas
+     * @param int absoluteDisplacementY The y-position of the center of the image on the canvas
+     * @param float interpolation Progress of the animation. Between 0 and 1.
+     * @param float explosionScale Parameter giving the relative size of the explosion
+     * @param Rect bounds Receives the area
+     */
+	public void getBounds(int absoluteDisplacementX, int absoluteDisplacementY, float interpolation, float explosionScale, Rect bounds) {
+		int explosionSize = 3 + (int) (25f * explosionScale * interpolation * interpolation);
+		
+		bounds.set(absoluteDisplacementX - explosionSize, absoluteDisplacementY - explosionSize,
+				absoluteDisplacementX + explosionSize, absoluteDisplacementY + explosionSize);
+	}
+
 }
@@ -0,0 +1,313 @@
+package com.explode4;
+
+import java.util.Random;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Shader;
+
+import com.pencilanimations.Exploder;
+import com.pencilanimations.ExploderPool;
+import com.pencilanimations.ExplosionConfig;
+
+/**
+ * Breaks an image into many small square pieces of debris that fly away from the wall, spinning, fall under gravity
+ * and fade out. Every particle is kept in plain float arrays and moves on a closed-form path, so any frame of the
+ * explosion can be worked out from the time since the start, without stepping through the frames before it.
+ *
+ * A frame is drawn with a single Canvas.drawVertices call: each particle is a quad of two triangles textured with its
+ * piece of the image, and faded with the vertex colors. Preparing an explosion reuses all the arrays, so an exploder
+ * can be used for any number of explosions without allocating. Take one from a ParticleExploderPool for each
+ * explosion, and recycle() it when the explosion is over.
+ */
+public class ParticleExploder implements Exploder {
+
+	final public static int DEFAULT_PARTICLE_COUNT = 240;
+
+	//gravity, in image widths per square millisecond
+	final private static float GRAVITY = 0.0001f;
+
+	//launch speed of a particle of average speed at explosion scale 1, in image widths per millisecond
+	final private static float SPEED = 0.01f;
+
+	//the longest an explosion lasts, in milliseconds
+	final private static long MAX_DURATION = 800L;
+
+	//part of its lifetime a particle takes to fade out at the end
+	final private static float FADE = 0.5f;
+
+	//the image the debris is cut out of
+	final private Bitmap image;
+
+	//draws the debris textured with the image
+	final private Paint paint;
+
+	final private int count;
+
+	//start position relative to the explosion position, and launch velocity, in pixels and milliseconds
+	final private float[] startX, startY, velocityX, velocityY;
+
+	//rotation at the start in radians, and spin in radians per millisecond
+	final private float[] startAngle, spin;
+
+	//time until the particle is gone, in milliseconds
+	final private float[] lifetime;
+
+	//half of the side of the particle, and its texture position: the center of its piece of the image
+	final private float[] halfSize, textureX, textureY;
+
+	//gravity along the y-axis for this explosion, in pixels per square millisecond
+	private float gravity;
+
+	//vertices of the particles alive in the last frame worked out: 4 corners of 2 values each per particle
+	final private float[] vertices, textures;
+	final private int[] colors;
+	final private short[] indices;
+	private int liveCount = 0;
+
+	//config and time of the last frame worked out, so getBounds and draw of the same frame compute it once
+	private ExplosionConfig lastConfig = null;
+	private long lastElapsed = -1;
+
+	//random numbers for the debris, seeded for each explosion
+	final private Random random = new Random();
+
+	//the pool the exploder goes back to when recycled, if any
+	ExploderPool pool;
+
+    /**
+     * Constructor
+     *
+     * @param Bitmap image The image the debris is cut out of
+     * @param int count Number of particles
+     */
+	public ParticleExploder(Bitmap image, int count)
+	{
+		this.image = image;
+		this.count = count;
+
+		paint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG);
+		paint.setShader(new BitmapShader(image, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP));
+
+		startX = new float[count];
+		startY = new float[count];
+		velocityX = new float[count];
+		velocityY = new float[count];
+		startAngle = new float[count];
+		spin = new float[count];
+		lifetime = new float[count];
+		halfSize = new float[count];
+		textureX = new float[count];
+		textureY = new float[count];
+
+		vertices = new float[8 * count];
+		textures = new float[8 * count];
+		//one color per vertex would do, but older versions check the colors against the number of values
+		colors = new int[8 * count];
+		indices = new short[6 * count];
+		for (int i = 0; i < count; i++)
+		{
+			//two triangles per quad: corners 0, 1, 2 and 0, 2, 3
+			short corner = (short) (4 * i);
+			indices[6 * i] = corner;
+			indices[6 * i + 1] = (short) (corner + 1);
+			indices[6 * i + 2] = (short) (corner + 2);
+			indices[6 * i + 3] = corner;
+			indices[6 * i + 4] = (short) (corner + 2);
+			indices[6 * i + 5] = (short) (corner + 3);
+		}
+	}
+
+    /**
+     * Get relative size of the explosion based on the angular speed (if the pencil hits harder, the explosion is bigger).
+     *
+     * @param double angularVelocity The angular speed
+     * @return float explosionScale Relative size of the explosion
+     */
+	@Override
+	public float getExplosionScale(double angularVelocity)
+	{
+		return 0.5f + (float) Math.abs(angularVelocity);
+	}
+
+    /**
+     * Calculate the duration of the explosion based on the angular speed (if the pencil hits harder, the explosion is bigger).
+     *
+     * @param double angularVelocity The angular speed
+     * @return long explosionDuration Duration of the explosion in miliseconds
+     */
+	@Override
+	public long getExplosionDuration(double angularVelocity)
+	{
+		return Math.min(MAX_DURATION, 300L + (long) (250 * Math.abs(angularVelocity)));
+	}
+
+    /**
+     * Prepare the explosion animation for a wall hit: the debris flies away from the wall and up, against gravity.
+     *
+     * @param ExplosionConfig config The explosion config, with scale and duration set
+     * @param boolean isInverted Whether the pencil stood on the top of the screen when it hit the wall
+     */
+	@Override
+	public void prepare(ExplosionConfig config, boolean isInverted)
+	{
+		random.setSeed(config.getSeed());
+		lastConfig = null;
+
+		int width = image.getWidth();
+		int height = image.getHeight();
+
+		//on the inverted screen the wall for a direction is on the other side, and gravity points up the screen
+		float away = ((isInverted ? config.direction : -config.direction) > 0) ? 1f : -1f;
+		float up = isInverted ? 1f : -1f;
+		gravity = -up * GRAVITY * width;
+
+		float speed = SPEED * width * config.explosionScale;
+		for (int i = 0; i < count; i++)
+		{
+			float size = 0.08f * width * (1f + random.nextFloat());
+			halfSize[i] = 0.5f * size;
+			textureX[i] = halfSize[i] + random.nextFloat() * Math.max(0f, width - size);
+			textureY[i] = halfSize[i] + random.nextFloat() * Math.max(0f, height - size);
+
+			startX[i] = (random.nextFloat() - 0.5f) * halfSize[i] * 4f;
+			startY[i] = (random.nextFloat() - 0.5f) * halfSize[i] * 4f;
+
+			//launched between a little below the horizontal and almost straight up
+			double launchAngle = -0.3 + 1.5 * random.nextDouble();
+			float launchSpeed = speed * (0.25f + 1.5f * random.nextFloat());
+			velocityX[i] = away * launchSpeed * (float) Math.cos(launchAngle);
+			velocityY[i] = up * launchSpeed * (float) Math.sin(launchAngle);
+
+			startAngle[i] = (float) (2 * Math.PI * random.nextDouble());
+			spin[i] = (random.nextFloat() - 0.5f) * 0.04f;
+			lifetime[i] = config.explosionDuration * (0.4f + 0.6f * random.nextFloat());
+		}
+	}
+
+    /**
+     * Draw one frame of the explosion animation, at the explosion position.
+     *
+     * @param Canvas canvas The android canvas
+     * @param ExplosionConfig config The explosion config
+     * @param long elapsed Time since the explosion started in milliseconds
+     */
+	@Override
+	public void draw(Canvas canvas, ExplosionConfig config, long elapsed)
+	{
+		computeFrame(config, elapsed);
+		if (liveCount == 0)
+		{
+			return;
+		}
+		canvas.drawVertices(Canvas.VertexMode.TRIANGLES, 8 * liveCount, vertices, 0, textures, 0, colors, 0,
+				indices, 0, 6 * liveCount, paint);
+	}
+
+    /**
+     * Calculate the area covered by one frame of the explosion animation, as drawn by draw().
+     *
+     * @param ExplosionConfig config The explosion config
+     * @param long elapsed Time since the explosion started in milliseconds
+     * @param Rect bounds Receives the area, empty if nothing is drawn
+     */
+	@Override
+	public void getBounds(ExplosionConfig config, long elapsed, Rect bounds)
+	{
+		computeFrame(config, elapsed);
+		if (liveCount == 0)
+		{
+			bounds.setEmpty();
+			return;
+		}
+		float left = vertices[0], right = vertices[0];
+		float top = vertices[1], bottom = vertices[1];
+		for (int i = 2; i < 8 * liveCount; i += 2)
+		{
+			left = Math.min(left, vertices[i]);
+			right = Math.max(right, vertices[i]);
+			top = Math.min(top, vertices[i + 1]);
+			bottom = Math.max(bottom, vertices[i + 1]);
+		}
+		bounds.set((int) Math.floor(left), (int) Math.floor(top), (int) Math.ceil(right), (int) Math.ceil(bottom));
+	}
+
+    /**
+     * The explosion is over: give the exploder back to the pool it came from, for the next explosion
+     */
+	@Override
+	public void recycle()
+	{
+		if (pool != null)
+		{
+			pool.release(this);
+		}
+	}
+
+    /**
+     * Work out the vertices of the particles still alive at a time of the explosion, packed at the start of the arrays.
+     */
+	private void computeFrame(ExplosionConfig config, long elapsed)
+	{
+		if (config == lastConfig && elapsed == lastElapsed)
+		{
+			return;
+		}
+		lastConfig = config;
+		lastElapsed = elapsed;
+
+		float t = Math.max(0, elapsed);
+		float originX = config.explosionXPosition;
+		float originY = config.explosionYPosition;
+		int n = 0;
+		for (int i = 0; i < count; i++)
+		{
+			float life = 1f - t/lifetime[i];
+			if (life <= 0f)
+			{
+				continue;
+			}
+			float x = originX + startX[i] + velocityX[i] * t;
+			float y = originY + startY[i] + velocityY[i] * t + 0.5f * gravity * t * t;
+			double angle = startAngle[i] + spin[i] * t;
+			float h = halfSize[i];
+			float cos = h * (float) Math.cos(angle);
+			float sin = h * (float) Math.sin(angle);
+
+			//corners (-h, -h), (h, -h), (h, h), (-h, h) rotated around the center of the particle
+			int v = 8 * n;
+			vertices[v] = x - cos + sin;
+			vertices[v + 1] = y - sin - cos;
+			vertices[v + 2] = x + cos + sin;
+			vertices[v + 3] = y + sin - cos;
+			vertices[v + 4] = x + cos - sin;
+			vertices[v + 5] = y + sin + cos;
+			vertices[v + 6] = x - cos - sin;
+			vertices[v + 7] = y - sin + cos;
+
+			float u0 = textureX[i] - h, u1 = textureX[i] + h;
+			float v0 = textureY[i] - h, v1 = textureY[i] + h;
+			textures[v] = u0;
+			textures[v + 1] = v0;
+			textures[v + 2] = u1;
+			textures[v + 3] = v0;
+			textures[v + 4] = u1;
+			textures[v + 5] = v1;
+			textures[v + 6] = u0;
+			textures[v + 7] = v1;
+
+			int alpha = (life >= FADE) ? 255 : (int) (255 * life/FADE);
+			int color = Color.argb(alpha, 255, 255, 255);
+			colors[4 * n] = color;
+			colors[4 * n + 1] = color;
+			colors[4 * n + 2] = color;
+			colors[4 * n + 3] = color;
+			n++;
+		}
+		liveCount = n;
+	}
+}
@@ -0,0 +1,42 @@
+package com.explode4;
+
+import android.graphics.Bitmap;
+
+import com.pencilanimations.Exploder;
+import com.pencilanimations.ExploderPool;
+
+/**
+ * Keeps particle exploders for one image ready for use, so that an explosion at every wall hit costs no allocation.
+ * Take an exploder with obtain() when an explosion starts, prepare it, and give it back with Exploder.recycle() when
+ * the explosion is over. If more explosions run at the same time than the pool was made for, it makes another exploder.
+ */
+public class ParticleExploderPool extends ExploderPool {
+
+	//the image the debris is cut out of
+	final private Bitmap image;
+
+	//number of particles of each explosion
+	final private int particleCount;
+
+    /**
+     * Constructor
+     *
+     * @param Bitmap image The image the debris is cut out of
+     * @param int particleCount Number of particles of each explosion
+     * @param int size Number of explosions that can run at the same time without making another exploder
+     */
+	public ParticleExploderPool(Bitmap image, int particleCount, int size)
+	{
+		this.image = image;
+		this.particleCount = particleCount;
+		fill(size);
+	}
+
+	@Override
+	protected Exploder create()
+	{
+		ParticleExploder exploder = new ParticleExploder(image, particleCount);
+		exploder.pool = this;
+		return exploder;
+	}
+}
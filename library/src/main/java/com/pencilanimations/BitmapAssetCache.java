@@ -0,0 +1,198 @@
+package com.pencilanimations;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import android.content.ComponentCallbacks2;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+/**
+ * Image resources decoded at a given size, shared by everything in the process that draws them: the game view, and
+ * all wallpaper engines at the same time (e.g. the preview and the wallpaper on the home screen). Take a bitmap with
+ * acquire() and give it back with release() once nothing draws it any more. Each image is decoded once for each size,
+ * however many hold it.
+ *
+ * Images nobody holds are kept up to a memory budget, so that a new surface of a size seen before, e.g. after
+ * rotating back, does not decode them again. trimMemory() drops them when the system runs low on memory. Dropped
+ * bitmaps are not recycled, since a frame still being drawn may use them: their memory is freed once they are no
+ * longer referenced.
+ */
+public class BitmapAssetCache {
+
+	//part of the memory available to the app that images nobody holds may take
+	final public static int UNUSED_MEMORY_FRACTION = 16;
+
+	/** A decoded image, and how many hold it. */
+	private static class Entry {
+
+		final Bitmap bitmap;
+		int references = 0;
+
+		Entry(Bitmap bitmap)
+		{
+			this.bitmap = bitmap;
+		}
+	}
+
+	private static BitmapAssetCache instance = null;
+
+	//decoded images by resource id and size, least recently acquired first
+	final private LinkedHashMap<Long, Entry> entries = new LinkedHashMap<Long, Entry>(16, 0.75f, true);
+
+	//memory budget for images nobody holds, in bytes, and the memory they take
+	final private long maxUnusedBytes;
+	private long unusedBytes = 0;
+
+    /**
+     * Constructor
+     *
+     * @param long maxUnusedBytes Memory budget for images nobody holds, in bytes
+     */
+	public BitmapAssetCache(long maxUnusedBytes)
+	{
+		this.maxUnusedBytes = maxUnusedBytes;
+	}
+
+    /**
+     * The cache shared by the whole process.
+     */
+	public static synchronized BitmapAssetCache getInstance()
+	{
+		if (instance == null)
+		{
+			instance = new BitmapAssetCache(Runtime.getRuntime().maxMemory()/UNUSED_MEMORY_FRACTION);
+		}
+		return instance;
+	}
+
+    /**
+     * Take an image decoded at a given size, decoding it if nobody has it yet. The bitmap must not be changed.
+     *
+     * @param Resources res The resources of the app
+     * @param int id The resource id of the image
+     * @param int width Width of the bitmap, less than 65536
+     * @param int height Height of the bitmap, less than 65536
+     *
+     * @return Bitmap bitmap The image, to give back with release()
+     */
+	public Bitmap acquire(Resources res, int id, int width, int height)
+	{
+		return acquire(res, id, Math.max(1, width), Math.max(1, height), false);
+	}
+
+    /**
+     * Take an image decoded for the screen density, as BitmapFactory.decodeResource gives it, decoding it if nobody
+     * has it yet. The bitmap must not be changed.
+     *
+     * @param Resources res The resources of the app
+     * @param int id The resource id of the image
+     *
+     * @return Bitmap bitmap The image, to give back with release()
+     */
+	public Bitmap acquire(Resources res, int id)
+	{
+		return acquire(res, id, 0, 0, true);
+	}
+
+	private Bitmap acquire(Resources res, int id, int width, int height, boolean forDensity)
+	{
+		Long key = Long.valueOf(((long) id << 32) | ((long) width << 16) | height);
+		synchronized (this)
+		{
+			Entry entry = entries.get(key);
+			if (entry != null)
+			{
+				return hold(entry);
+			}
+		}
+
+		//decode without holding the lock, another thread may be decoding something else
+		Bitmap bitmap = forDensity ? BitmapFactory.decodeResource(res, id) : BitmapDecoder.decodeScaled(res, id, width, height);
+
+		synchronized (this)
+		{
+			//if another thread decoded the same image in the meantime, use that one
+			Entry entry = entries.get(key);
+			if (entry != null)
+			{
+				return hold(entry);
+			}
+			entry = new Entry(bitmap);
+			entry.references = 1;
+			entries.put(key, entry);
+			return bitmap;
+		}
+	}
+
+	private Bitmap hold(Entry entry)
+	{
+		if (entry.references == 0)
+		{
+			unusedBytes -= entry.bitmap.getByteCount();
+		}
+		entry.references++;
+		return entry.bitmap;
+	}
+
+    /**
+     * Give back an image taken with acquire(), once nothing draws it any more.
+     *
+     * @param Bitmap bitmap The image, or null
+     */
+	public synchronized void release(Bitmap bitmap)
+	{
+		if (bitmap == null)
+		{
+			return;
+		}
+		for (Entry entry : entries.values())
+		{
+			if (entry.bitmap == bitmap)
+			{
+				if (entry.references > 0)
+				{
+					entry.references--;
+					if (entry.references == 0)
+					{
+						unusedBytes += bitmap.getByteCount();
+						trimUnused(maxUnusedBytes);
+					}
+				}
+				return;
+			}
+		}
+	}
+
+    /**
+     * Drop images nobody holds, depending on how low the system is on memory. Call from onTrimMemory.
+     *
+     * @param int level The level passed to ComponentCallbacks2.onTrimMemory
+     */
+	public synchronized void trimMemory(int level)
+	{
+		if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL)
+		{
+			trimUnused(0);
+		} else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW)
+		{
+			trimUnused(maxUnusedBytes/2);
+		}
+	}
+
+	//drop the least recently acquired images nobody holds, until they take at most maxBytes
+	private void trimUnused(long maxBytes)
+	{
+		Iterator<Entry> iterator = entries.values().iterator();
+		while (unusedBytes > maxBytes && iterator.hasNext())
+		{
+			Entry entry = iterator.next();
+			if (entry.references == 0)
+			{
+				unusedBytes -= entry.bitmap.getByteCount();
+				iterator.remove();
+			}
+		}
+	}
+}
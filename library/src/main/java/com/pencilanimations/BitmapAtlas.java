@@ -0,0 +1,146 @@
+package com.pencilanimations;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Rect;
+import android.os.Process;
+
+/**
+ * A series of animation frames packed side by side into one image resource, all of the same width. The image is not
+ * decoded until it is first needed: load() starts decoding it on a background thread, and getBitmap() returns null
+ * until it is done, so the thread that draws never waits for it.
+ *
+ * The frames are decoded at most at the size they are drawn at: no larger than the largest frame drawn, and no
+ * larger than the image at the screen density, as decoding the resource as a drawable would give it. The bitmap is
+ * taken from the BitmapAssetCache, so release() the atlas when it is not drawn any more.
+ */
+public class BitmapAtlas {
+
+	final private Resources res;
+	final private int id;
+	final private int frameCount;
+
+	//largest height a frame is drawn at, in pixels
+	final private int maxFrameHeight;
+
+	//the decoded frames, and their areas in it
+	private volatile Bitmap bitmap = null;
+	final private Rect[] frames;
+
+	private boolean loading = false;
+	private boolean released = false;
+
+    /**
+     * Constructor. Nothing is decoded yet.
+     *
+     * @param Resources res The resources of the app
+     * @param int id The resource id of the image with the frames side by side
+     * @param int frameCount Number of frames in the image
+     * @param int maxFrameHeight Largest height a frame is drawn at, in pixels
+     */
+	public BitmapAtlas(Resources res, int id, int frameCount, int maxFrameHeight)
+	{
+		this.res = res;
+		this.id = id;
+		this.frameCount = frameCount;
+		this.maxFrameHeight = maxFrameHeight;
+		frames = new Rect[frameCount];
+		for (int i = 0; i < frameCount; i++)
+		{
+			frames[i] = new Rect();
+		}
+	}
+
+	public int getFrameCount()
+	{
+		return frameCount;
+	}
+
+    /**
+     * Start decoding the frames on a background thread, unless they are decoded or being decoded already.
+     */
+	public synchronized void load()
+	{
+		if (loading)
+		{
+			return;
+		}
+		loading = true;
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run()
+			{
+				Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+				decode();
+			}
+		}, "BitmapAtlas");
+		thread.start();
+	}
+
+    /**
+     * The decoded frames, see getFrame() for where each frame is.
+     *
+     * @return Bitmap bitmap The frames, or null if they are not decoded yet
+     */
+	public Bitmap getBitmap()
+	{
+		return bitmap;
+	}
+
+    /**
+     * The area of a frame in the bitmap. Only valid once getBitmap() returns the bitmap.
+     *
+     * @param int index The frame, from 0
+     *
+     * @return Rect frame The area of the frame
+     */
+	public Rect getFrame(int index)
+	{
+		return frames[index];
+	}
+
+	private void decode()
+	{
+		BitmapFactory.Options size = BitmapDecoder.decodeSize(res, id);
+		//the size a drawable decoded for the screen density would have
+		float density = res.getDisplayMetrics().density;
+		int height = Math.min(maxFrameHeight, Math.round(density * size.outHeight));
+		int frameWidth = Math.max(1, Math.round((float) height * size.outWidth/(frameCount * size.outHeight)));
+		height = Math.max(1, height);
+
+		Bitmap decoded = BitmapAssetCache.getInstance().acquire(res, id, frameCount * frameWidth, height);
+		for (int i = 0; i < frameCount; i++)
+		{
+			frames[i].set(i * frameWidth, 0, (i + 1) * frameWidth, height);
+		}
+		synchronized (this)
+		{
+			//publish the frames with the bitmap
+			bitmap = decoded;
+			if (released)
+			{
+				BitmapAssetCache.getInstance().release(decoded);
+			}
+		}
+	}
+
+    /**
+     * Give the bitmap back to the BitmapAssetCache, now or once it is decoded. The atlas may still be drawn until
+     * then, but is not decoded again.
+     */
+	public synchronized void release()
+	{
+		if (released)
+		{
+			return;
+		}
+		released = true;
+		//no more decoding
+		loading = true;
+		if (bitmap != null)
+		{
+			BitmapAssetCache.getInstance().release(bitmap);
+		}
+	}
+}
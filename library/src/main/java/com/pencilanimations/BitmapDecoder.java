@@ -0,0 +1,82 @@
+package com.pencilanimations;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+/**
+ * Decodes image resources straight to the size they are drawn at, so that drawing them needs no scaling and the
+ * full-size image never sits in memory. The image is sub-sampled while decoding to the smallest power of two fraction
+ * that is still at least as large as needed, then scaled once, with filtering, to the exact size.
+ */
+public class BitmapDecoder {
+
+    /**
+     * Read the size of an image without decoding it.
+     *
+     * @param Resources res The resources of the app
+     * @param int id The resource id of the image
+     *
+     * @return BitmapFactory.Options options outWidth and outHeight hold the size of the image in pixels
+     */
+	public static BitmapFactory.Options decodeSize(Resources res, int id)
+	{
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		options.inScaled = false;
+		BitmapFactory.decodeResource(res, id, options);
+		return options;
+	}
+
+    /**
+     * Decode an image at a given size. The bitmap is premultiplied, with an alpha channel if the image has one.
+     *
+     * @param Resources res The resources of the app
+     * @param int id The resource id of the image
+     * @param int width Width of the bitmap
+     * @param int height Height of the bitmap
+     *
+     * @return Bitmap bitmap The image at the given size
+     */
+	public static Bitmap decodeScaled(Resources res, int id, int width, int height)
+	{
+		BitmapFactory.Options size = decodeSize(res, id);
+
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		//don't let the decoder scale for the screen density, the size is set here
+		options.inScaled = false;
+		options.inSampleSize = calculateSampleSize(size.outWidth, size.outHeight, width, height);
+		Bitmap decoded = BitmapFactory.decodeResource(res, id, options);
+		if (decoded.getWidth() == width && decoded.getHeight() == height)
+		{
+			return decoded;
+		}
+
+		Bitmap scaled = Bitmap.createScaledBitmap(decoded, Math.max(1, width), Math.max(1, height), true);
+		if (scaled != decoded)
+		{
+			decoded.recycle();
+		}
+		return scaled;
+	}
+
+    /**
+     * The largest power of two to sub-sample an image by while decoding, keeping it at least as large as needed.
+     *
+     * @param int imageWidth Width of the image
+     * @param int imageHeight Height of the image
+     * @param int width Width needed
+     * @param int height Height needed
+     *
+     * @return int inSampleSize Value for BitmapFactory.Options.inSampleSize
+     */
+	public static int calculateSampleSize(int imageWidth, int imageHeight, int width, int height)
+	{
+		int sampleSize = 1;
+		while (imageWidth/(2 * sampleSize) >= width && imageHeight/(2 * sampleSize) >= height)
+		{
+			sampleSize *= 2;
+		}
+		return sampleSize;
+	}
+}
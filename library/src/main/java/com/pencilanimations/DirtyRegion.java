@@ -0,0 +1,184 @@
+package com.pencilanimations;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.view.SurfaceHolder;
+
+import com.pencildisplay.PencilDisplayHelper;
+
+/**
+ * Keeps track of the screen area a frame draws on, so only that area and the area of the previous frame need to be
+ * repainted. Add everything the frame will draw between begin() and lockCanvas(), and call commit() once the frame is
+ * posted. The surface keeps the pixels outside the locked area from the previous frame.
+ */
+public class DirtyRegion {
+
+	//margin around everything drawn, for anti-aliasing and rounding
+	final private static int MARGIN = 2;
+
+	//area drawn by this frame and by the previous one
+	final private Rect drawn = new Rect();
+	final private Rect lastDrawn = new Rect();
+
+	//area to repaint, and scratch for the parts added
+	final private Rect dirty = new Rect();
+	final private Rect part = new Rect();
+
+	final private int[] bounds = new int[4];
+
+	//size of the surface
+	private int width = 0, height = 0;
+
+    /**
+     * Set the size of the surface. The whole surface is repainted by the next frame.
+     *
+     * @param int width Width of the surface
+     * @param int height Height of the surface
+     */
+	public void setSize(int width, int height)
+	{
+		this.width = width;
+		this.height = height;
+		lastDrawn.set(0, 0, width, height);
+	}
+
+    /**
+     * Start a new frame, with nothing drawn yet.
+     */
+	public void begin()
+	{
+		drawn.setEmpty();
+	}
+
+    /**
+     * The frame draws on the whole surface.
+     */
+	public void addAll()
+	{
+		drawn.set(0, 0, width, height);
+	}
+
+    /**
+     * The frame draws on an area.
+     *
+     * @param Rect area The area, may be empty
+     */
+	public void add(Rect area)
+	{
+		if (area.isEmpty())
+		{
+			return;
+		}
+		part.set(area);
+		part.inset(-MARGIN, -MARGIN);
+		drawn.union(part);
+	}
+
+    /**
+     * The frame draws the pencil.
+     *
+     * @param PencilDisplayHelper displayHelper Helper for the screen the pencil is drawn on
+     * @param double tiltAngle The pencil tilt angle to the horizontal
+     * @param boolean isInverted Whether or not screen is inverted
+     */
+	public void addPencil(PencilDisplayHelper displayHelper, double tiltAngle, boolean isInverted)
+	{
+		displayHelper.calculatePencilBounds(tiltAngle, isInverted, bounds);
+		part.set(bounds[0], bounds[1], bounds[2], bounds[3]);
+		add(part);
+	}
+
+    /**
+     * The frame draws a line of text with Canvas.drawText.
+     *
+     * @param Paint paint The paint the text is drawn with, including its alignment
+     * @param String text The text
+     * @param float x The x-position the text is drawn at
+     * @param float y The y-position of the baseline of the text
+     * @param boolean isInverted Whether the text is drawn with the canvas turned upside down around its center
+     */
+	public void addText(Paint paint, String text, float x, float y, boolean isInverted)
+	{
+		addText(paint, paint.measureText(text), x, y, isInverted);
+	}
+
+    /**
+     * The frame draws a line of text with HudText.draw.
+     *
+     * @param HudText text The text, with the paint it is drawn with
+     * @param float x The x-position the text is drawn at
+     * @param float y The y-position of the baseline of the text
+     * @param boolean isInverted Whether the text is drawn with the canvas turned upside down around its center
+     */
+	public void addText(HudText text, float x, float y, boolean isInverted)
+	{
+		addText(text.getPaint(), text.getWidth(), x, y, isInverted);
+	}
+
+	private void addText(Paint paint, float textWidth, float x, float y, boolean isInverted)
+	{
+		float left;
+		switch (paint.getTextAlign())
+		{
+		case CENTER:
+			left = x - 0.5f * textWidth;
+			break;
+		case RIGHT:
+			left = x - textWidth;
+			break;
+		default:
+			left = x;
+		}
+		float right = left + textWidth;
+		float top = y + paint.ascent();
+		float bottom = y + paint.descent();
+
+		if (isInverted)
+		{
+			float invertedLeft = width - right;
+			float invertedTop = height - bottom;
+			right = width - left;
+			bottom = height - top;
+			left = invertedLeft;
+			top = invertedTop;
+		}
+		part.set((int) Math.floor(left), (int) Math.floor(top), (int) Math.ceil(right), (int) Math.ceil(bottom));
+		add(part);
+	}
+
+    /**
+     * The area to repaint: what this frame draws and what the previous frame drew, limited to the surface.
+     */
+	public Rect getDirtyRect()
+	{
+		dirty.set(drawn);
+		dirty.union(lastDrawn);
+		if (!dirty.intersect(0, 0, width, height))
+		{
+			dirty.setEmpty();
+		}
+		return dirty;
+	}
+
+    /**
+     * Lock the area to repaint. The surface may grow the area, e.g. for the first frame, so the frame has to draw
+     * everything that falls into the canvas clip, not only what it added.
+     *
+     * @param SurfaceHolder holder The surface
+     *
+     * @return Canvas The canvas clipped to the area to repaint, or null
+     */
+	public Canvas lockCanvas(SurfaceHolder holder)
+	{
+		return holder.lockCanvas(getDirtyRect());
+	}
+
+    /**
+     * The frame has been drawn: the next frame repaints what this one drew.
+     */
+	public void commit()
+	{
+		lastDrawn.set(drawn);
+	}
+}
@@ -0,0 +1,58 @@
+package com.pencilanimations;
+
+import android.graphics.Canvas;
+import android.graphics.Rect;
+
+/**
+ * An explosion style. The game takes an exploder from an ExploderPool for each wall hit, prepares it with the
+ * explosion config, draws it every frame until the explosion duration is over, and then recycles it.
+ */
+public interface Exploder {
+
+    /**
+     * Get relative size of the explosion based on the angular speed (if the pencil hits harder, the explosion is bigger).
+     *
+     * @param double angularVelocity The angular speed
+     * @return float explosionScale Relative size of the explosion
+     */
+	float getExplosionScale(double angularVelocity);
+
+    /**
+     * Calculate the duration of the explosion based on the angular speed (if the pencil hits harder, the explosion is bigger).
+     *
+     * @param double angularVelocity The angular speed
+     * @return long explosionDuration Duration of the explosion in miliseconds
+     */
+	long getExplosionDuration(double angularVelocity);
+
+    /**
+     * Set up a new explosion. The position, direction, scale, duration and start time in the config are already set.
+     *
+     * @param ExplosionConfig config The explosion config
+     * @param boolean isInverted Whether the pencil stood on the top of the screen when it hit the wall
+     */
+	void prepare(ExplosionConfig config, boolean isInverted);
+
+    /**
+     * Draw one frame of the explosion animation.
+     *
+     * @param Canvas canvas The android canvas
+     * @param ExplosionConfig config The explosion config
+     * @param long elapsed Time since the explosion started in milliseconds
+     */
+	void draw(Canvas canvas, ExplosionConfig config, long elapsed);
+
+    /**
+     * Calculate the area covered by one frame of the explosion animation, as drawn by draw().
+     *
+     * @param ExplosionConfig config The explosion config
+     * @param long elapsed Time since the explosion started in milliseconds
+     * @param Rect bounds Receives the area, empty if nothing is drawn
+     */
+	void getBounds(ExplosionConfig config, long elapsed, Rect bounds);
+
+    /**
+     * The explosion is over: give the exploder back to the pool it came from, if any.
+     */
+	void recycle();
+}
@@ -0,0 +1,82 @@
+package com.pencilanimations;
+
+import java.util.ArrayList;
+
+/**
+ * Keeps exploders ready for use, so that an explosion at every wall hit costs no allocation. Take an exploder with
+ * obtain() when an explosion starts, and give it back with Exploder.recycle() when it is over. If more explosions run
+ * at the same time than the pool was filled for, it makes another exploder.
+ *
+ * Exploders that keep no state of their own for an explosion can be shared by all explosions, see shared().
+ */
+public abstract class ExploderPool {
+
+	//exploders not in use
+	final private ArrayList<Exploder> free = new ArrayList<Exploder>();
+
+    /**
+     * Make an exploder for the pool. Exploders that keep state for an explosion give themselves back with release()
+     * when recycled.
+     */
+	protected abstract Exploder create();
+
+    /**
+     * Make exploders up front, from the constructor of the pool once create() can run.
+     *
+     * @param int size Number of explosions that can run at the same time without making another exploder
+     */
+	protected void fill(int size)
+	{
+		free.ensureCapacity(size);
+		while (free.size() < size)
+		{
+			free.add(create());
+		}
+	}
+
+    /**
+     * Take an exploder for a new explosion. Call Exploder.prepare before drawing it.
+     *
+     * @return Exploder exploder An exploder not in use
+     */
+	public Exploder obtain()
+	{
+		if (free.isEmpty())
+		{
+			return create();
+		}
+		return free.remove(free.size() - 1);
+	}
+
+    /**
+     * Take an exploder back, when its explosion is over.
+     *
+     * @param Exploder exploder The exploder, taken from this pool
+     */
+	public void release(Exploder exploder)
+	{
+		if (!free.contains(exploder))
+		{
+			free.add(exploder);
+		}
+	}
+
+    /**
+     * A pool that hands out the same exploder for every explosion, for exploders that keep no state of their own
+     * for an explosion and do nothing when recycled.
+     *
+     * @param Exploder exploder The exploder for all explosions
+     *
+     * @return ExploderPool pool The pool
+     */
+	public static ExploderPool shared(final Exploder exploder)
+	{
+		return new ExploderPool() {
+			@Override
+			protected Exploder create()
+			{
+				return exploder;
+			}
+		};
+	}
+}
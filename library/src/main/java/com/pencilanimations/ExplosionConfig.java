@@ -19,9 +19,20 @@ public class ExplosionConfig {
 	 public int direction = 1;
 	 //start time of explosion
 	 public long explosionStartTime;
+	 //exploder taken from a pool for this explosion
+	 public Exploder exploder;
 	 
 	 public ExplosionConfig(int direction)
 	 {
 		 this.direction = direction;
 	 }
+	 
+	 /**
+	  * Seed for the random parts of the explosion, different for each explosion. The same explosion on the same
+	  * wall at the same time, e.g. when a session is replayed, gives the same seed.
+	  */
+	 public long getSeed()
+	 {
+		 return 31 * explosionStartTime + direction;
+	 }
 }
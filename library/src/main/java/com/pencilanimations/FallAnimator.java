@@ -1,7 +1,6 @@
 package com.pencilanimations;
 
 import android.graphics.Canvas;
-import android.graphics.drawable.BitmapDrawable;
 import android.util.Log;
 
 /**
@@ -9,8 +8,8 @@ import android.util.Log;
  */
 public class FallAnimator {
 
-	//the drawable object
-	private BitmapDrawable drawable;
+	//pre-rendered pencil images
+	private PencilSpriteCache sprites;
 
 	//bounds of pencil in standard orientation
 	private int xLeftStandard, yTopStandard, xRightStandard, yBottomStandard,
@@ -30,7 +29,7 @@ public class FallAnimator {
 			int xLeftInverted, int yTopInverted, int xRightInverted, int yBottomInverted,
 			float pivotXStandard, float pivotYStandard,
 			float pivotXInverted, float pivotYInverted,
-			BitmapDrawable drawable)
+			PencilSpriteCache sprites)
 	{
 		this.xLeftStandard = xLeftStandard;
 		this.yTopStandard = yTopStandard;
@@ -46,7 +45,7 @@ public class FallAnimator {
 		this.pivotYStandard = pivotYStandard;
 		this.pivotXInverted = pivotXInverted;
 		this.pivotYInverted = pivotYInverted;
-		this.drawable = drawable;	
+		this.sprites = sprites;
 	}
 	
     /**
@@ -72,8 +71,6 @@ public class FallAnimator {
      */
 	public void draw(Canvas canvas, float interpolation)
 	{
-		canvas.save();
-		
 		int xLeft, yTop, xRight, yBottom;
 		float pivotX, pivotY;
 		
@@ -99,14 +96,7 @@ public class FallAnimator {
 
 		Log.d("pencil", "FallAnimator: draw with with tiltAngle="+tiltAngle+", pivotX="+pivotX+", pivotY="+pivotY);
 		
-		canvas.rotate((float) tiltAngle * 180.0f/((float) Math.PI), pivotX, pivotY);
-		
-    	drawable.setBounds(xLeft, yTop, xRight, yBottom);
-
-    	drawable.draw(canvas);
-
-    	canvas.restore();
-
+		sprites.draw(canvas, tiltAngle, pivotX, pivotY, xLeft, yTop);
 	}
 
 }
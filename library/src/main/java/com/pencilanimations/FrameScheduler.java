@@ -0,0 +1,115 @@
+package com.pencilanimations;
+
+import java.util.concurrent.TimeUnit;
+
+import android.view.Choreographer;
+
+/**
+ * Calls back once per display refresh (vsync) while running, driven by Choreographer frame callbacks on the thread
+ * that created the scheduler. That thread needs a Looper. The time handed to the callback is the vsync time of the
+ * frame rather than the time the callback happens to run, so frames are evenly spaced even if the callback is late.
+ */
+public class FrameScheduler implements Choreographer.FrameCallback {
+
+	/** Called once per frame. */
+	public interface Callback {
+
+	    /**
+	     * Update and draw one frame.
+	     *
+	     * @param long frameTime Vsync time of the frame in milliseconds, on the same clock as now()
+	     */
+		void onFrame(long frameTime);
+	}
+
+	final private Choreographer choreographer;
+
+	final private Callback callback;
+
+	//whether to keep calling back every frame, and whether a frame callback is waiting
+	private boolean running = false;
+	private boolean posted = false;
+
+	//vsync time of the frame being called back, in nanoseconds
+	private long frameTimeNanos = 0;
+
+    /**
+     * Constructor, on the thread that will be called back.
+     *
+     * @param Callback callback Called once per frame
+     */
+	public FrameScheduler(Callback callback)
+	{
+		this.callback = callback;
+		choreographer = Choreographer.getInstance();
+	}
+
+    /**
+     * Current time in milliseconds on the clock of the frame times. This is the monotonic clock, the same as
+     * SystemClock.uptimeMillis() and MotionEvent.getEventTime().
+     */
+	public static long now()
+	{
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+	}
+
+    /**
+     * Call back at every frame from the next one on.
+     */
+	public void start()
+	{
+		running = true;
+		requestFrame();
+	}
+
+    /**
+     * Stop calling back. A frame already requested is dropped.
+     */
+	public void stop()
+	{
+		running = false;
+		if (posted)
+		{
+			choreographer.removeFrameCallback(this);
+			posted = false;
+		}
+	}
+
+    /**
+     * Call back at the next frame, once, even if not running. Several requests before that frame give one callback.
+     */
+	public void requestFrame()
+	{
+		if (!posted)
+		{
+			posted = true;
+			choreographer.postFrameCallback(this);
+		}
+	}
+
+	public boolean isRunning()
+	{
+		return running;
+	}
+
+    /**
+     * Vsync time of the frame being called back, or of the last one, in nanoseconds on the clock of System.nanoTime().
+     */
+	public long getFrameTimeNanos()
+	{
+		return frameTimeNanos;
+	}
+
+	@Override
+	public void doFrame(long frameTimeNanos)
+	{
+		posted = false;
+		this.frameTimeNanos = frameTimeNanos;
+		//ask for the next frame first, so the callback can still stop the scheduler
+		if (running)
+		{
+			requestFrame();
+		}
+		callback.onFrame(TimeUnit.NANOSECONDS.toMillis(frameTimeNanos));
+	}
+}
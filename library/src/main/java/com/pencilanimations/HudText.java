@@ -0,0 +1,150 @@
+package com.pencilanimations;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+
+import com.pencildisplay.PencilDisplayHelper;
+
+/**
+ * A line of text drawn on every frame, such as the balance timer or the frame rate, kept in a reusable char array so
+ * that updating, measuring and drawing it allocates nothing. The width of each character is measured once for the
+ * text size of the paint, and the width of the text is added up from those when the text changes.
+ */
+public class HudText {
+
+	//longest text kept
+	final public static int MAX_LENGTH = 32;
+
+	//characters the widths are measured for up front: printable ASCII
+	final private static char FIRST_MEASURED = ' ';
+	final private static char LAST_MEASURED = '~';
+
+	final private Paint paint;
+
+	final private char[] chars = new char[MAX_LENGTH];
+	private int length = 0;
+
+	//widths of the characters from FIRST_MEASURED to LAST_MEASURED, and the text size they were measured at
+	final private float[] charWidths = new float[LAST_MEASURED - FIRST_MEASURED + 1];
+	private float measuredTextSize = -1;
+
+	//width of the text, or -1 if not worked out since the text changed
+	private float width = -1;
+
+    /**
+     * Constructor
+     *
+     * @param Paint paint The paint the text is drawn with, including its size and alignment
+     */
+	public HudText(Paint paint)
+	{
+		this.paint = paint;
+	}
+
+	public Paint getPaint()
+	{
+		return paint;
+	}
+
+    /**
+     * Set the text, e.g. a score that changes rarely.
+     *
+     * @param String text The text, cut at MAX_LENGTH characters
+     */
+	public void set(String text)
+	{
+		length = Math.min(text.length(), MAX_LENGTH);
+		text.getChars(0, length, chars, 0);
+		width = -1;
+	}
+
+    /**
+     * Set the text to a label followed by a number, e.g. "FPS: 60".
+     *
+     * @param String label The text before the number
+     * @param int number The number, not negative
+     */
+	public void set(String label, int number)
+	{
+		length = Math.min(label.length(), MAX_LENGTH - 10);
+		label.getChars(0, length, chars, 0);
+		length = PencilDisplayHelper.formatNumber(number, 1, chars, length);
+		width = -1;
+	}
+
+    /**
+     * Set the text to characters formatted elsewhere, e.g. with PencilDisplayHelper.formatNumber.
+     *
+     * @param char[] text The characters, copied
+     * @param int length Number of characters of the text, cut at MAX_LENGTH
+     */
+	public void set(char[] text, int length)
+	{
+		this.length = Math.min(length, MAX_LENGTH);
+		System.arraycopy(text, 0, chars, 0, this.length);
+		width = -1;
+	}
+
+    /**
+     * Set the text to a time interval, formatted by PencilDisplayHelper.formatInterval.
+     *
+     * @param long interval Time interval in milliseconds
+     */
+	public void setInterval(long interval)
+	{
+		length = PencilDisplayHelper.formatInterval(interval, chars);
+		width = -1;
+	}
+
+    /**
+     * The width of the text as drawn with the paint.
+     */
+	public float getWidth()
+	{
+		if (paint.getTextSize() != measuredTextSize)
+		{
+			measureChars();
+		}
+		if (width < 0)
+		{
+			float sum = 0;
+			for (int i = 0; i < length; i++)
+			{
+				char c = chars[i];
+				if (c < FIRST_MEASURED || c > LAST_MEASURED)
+				{
+					//not measured up front, measure the whole text
+					sum = paint.measureText(chars, 0, length);
+					break;
+				}
+				sum += charWidths[c - FIRST_MEASURED];
+			}
+			width = sum;
+		}
+		return width;
+	}
+
+    /**
+     * Draw the text.
+     *
+     * @param Canvas canvas The android canvas
+     * @param float x The x-position the text is drawn at, as for Canvas.drawText
+     * @param float y The y-position of the baseline of the text
+     */
+	public void draw(Canvas canvas, float x, float y)
+	{
+		canvas.drawText(chars, 0, length, x, y, paint);
+	}
+
+	private void measureChars()
+	{
+		char[] all = new char[charWidths.length];
+		for (int i = 0; i < all.length; i++)
+		{
+			all[i] = (char) (FIRST_MEASURED + i);
+		}
+		paint.getTextWidths(all, 0, all.length, charWidths);
+		measuredTextSize = paint.getTextSize();
+		width = -1;
+	}
+}
@@ -0,0 +1,257 @@
+package com.pencilanimations;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.graphics.drawable.BitmapDrawable;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+import com.pencildisplay.SpriteBudget;
+import com.pencildisplay.SpriteSlots;
+
+/**
+ * Pencil images pre-rendered at the display size and at tilt angles rounded to a fixed step, so that drawing a pencil
+ * at rest or balancing is a single untransformed bitmap copy instead of a rotated, scaled and filtered draw of the
+ * full-size image.
+ *
+ * Nothing is rendered while drawing a frame: an angle without a sprite is drawn rotated as before, only rounded to
+ * the angle step. Once the pencil stays at an angle, a background thread shared by all caches renders the sprites
+ * around it. A moving pencil is drawn rotated, as it would only be drawn once from each sprite. The sprites of all
+ * caches in the process share the memory budget of SpriteBudget.getInstance(), which trimMemory() trims when the
+ * system runs low on memory.
+ *
+ * A sprite only depends on the angle, not on where the pencil stands, so the same cache draws the pencil on the
+ * bottom and on the top of the screen and during the fall animation. Create a new cache when the display size of
+ * the pencil changes, and release() the old one.
+ */
+public class PencilSpriteCache {
+
+	//0.25 degrees
+	final public static double DEFAULT_ANGLE_STEP = Math.PI/720.0;
+
+	//sprites rendered either way of the angle the pencil stays at, for a balancing pencil wobbling around it
+	final public static int DEFAULT_RENDER_AHEAD = 4;
+
+	/** Pencil image rendered at one angle. */
+	private static class Sprite {
+
+		final Bitmap bitmap;
+
+		//position of the top left corner of the bitmap relative to the rotated top left corner of the pencil
+		final int left, top;
+
+		//rotation of the sprite
+		final double cos, sin;
+
+		Sprite(Bitmap bitmap, int left, int top, double angle)
+		{
+			this.bitmap = bitmap;
+			this.left = left;
+			this.top = top;
+			cos = Math.cos(angle);
+			sin = Math.sin(angle);
+		}
+	}
+
+	//renders the sprites of all caches
+	private static Handler renderHandler = null;
+
+	//the pencil image, and its size on screen
+	final private BitmapDrawable drawable;
+	final private int width, height;
+
+	final private SpriteSlots<Sprite> sprites;
+	final private int renderAhead;
+
+	final private Paint paint = new Paint();
+
+	//for the background thread: how to filter the image, and scratch for working out the size of a sprite
+	final private Paint renderPaint;
+	final private Matrix matrix = new Matrix();
+	final private RectF area = new RectF();
+
+	final private Handler handler;
+
+	final private SpriteSlots.Renderer<Sprite> renderer = new SpriteSlots.Renderer<Sprite>() {
+		@Override
+		public long sizeOf(double angle)
+		{
+			mapArea(angle);
+			return 4L * ((int) Math.ceil(area.right) - (int) Math.floor(area.left))
+					* ((int) Math.ceil(area.bottom) - (int) Math.floor(area.top));
+		}
+
+		@Override
+		public Sprite render(double angle)
+		{
+			mapArea(angle);
+			int left = (int) Math.floor(area.left);
+			int top = (int) Math.floor(area.top);
+			int spriteWidth = (int) Math.ceil(area.right) - left;
+			int spriteHeight = (int) Math.ceil(area.bottom) - top;
+			Bitmap bitmap = Bitmap.createBitmap(spriteWidth, spriteHeight, Bitmap.Config.ARGB_8888);
+			Canvas canvas = new Canvas(bitmap);
+			canvas.translate(-left, -top);
+			canvas.rotate((float) Math.toDegrees(angle));
+			//draw the bitmap rather than the drawable, whose bounds belong to the thread that draws
+			area.set(0, 0, width, height);
+			canvas.drawBitmap(drawable.getBitmap(), null, area, renderPaint);
+			return new Sprite(bitmap, left, top, angle);
+		}
+	};
+
+	final private Runnable renderTask = new Runnable() {
+		@Override
+		public void run()
+		{
+			sprites.render(renderer, renderAhead);
+		}
+	};
+
+    /**
+     * Constructor
+     *
+     * @param BitmapDrawable drawable The pencil image
+     * @param int width Width of the pencil on screen
+     * @param int height Length of the pencil on screen
+     * @param double maxTiltAngle Largest tilt angle either way to keep sprites for
+     * @param double angleStep Angle between two sprites, in radians. The far end of the pencil is drawn up to
+     *  height * angleStep/2 pixels off its exact position.
+     * @param int renderAhead Number of sprites to render either way of the angle the pencil stays at
+     * @param SpriteBudget budget Memory budget shared with the other caches of the process
+     */
+	public PencilSpriteCache(BitmapDrawable drawable, int width, int height, double maxTiltAngle, double angleStep,
+			int renderAhead, SpriteBudget budget)
+	{
+		this.drawable = drawable;
+		this.width = width;
+		this.height = height;
+		this.renderAhead = renderAhead;
+		sprites = new SpriteSlots<Sprite>(maxTiltAngle, angleStep, budget);
+		renderPaint = new Paint(drawable.getPaint());
+		renderPaint.setFilterBitmap(true);
+		handler = getRenderHandler();
+	}
+
+    /**
+     * Constructor with the default angle step and the budget of the process
+     *
+     * @param BitmapDrawable drawable The pencil image
+     * @param int width Width of the pencil on screen
+     * @param int height Length of the pencil on screen
+     * @param double maxTiltAngle Largest tilt angle either way to keep sprites for
+     */
+	public PencilSpriteCache(BitmapDrawable drawable, int width, int height, double maxTiltAngle)
+	{
+		this(drawable, width, height, maxTiltAngle, DEFAULT_ANGLE_STEP, DEFAULT_RENDER_AHEAD, SpriteBudget.getInstance());
+	}
+
+	private static synchronized Handler getRenderHandler()
+	{
+		if (renderHandler == null)
+		{
+			HandlerThread thread = new HandlerThread("PencilSpriteCache", Process.THREAD_PRIORITY_BACKGROUND);
+			thread.start();
+			renderHandler = new Handler(thread.getLooper());
+		}
+		return renderHandler;
+	}
+
+    /**
+     * Drop sprites, depending on how low the system is on memory. Call from onTrimMemory.
+     *
+     * @param int level The level passed to ComponentCallbacks2.onTrimMemory
+     */
+	public static void trimMemory(int level)
+	{
+		SpriteBudget budget = SpriteBudget.getInstance();
+		if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL)
+		{
+			budget.trim(0);
+		} else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW)
+		{
+			budget.trim(budget.getMaxBytes()/2);
+		}
+	}
+
+    /**
+     * The angle the pencil is actually drawn at for a tilt angle.
+     *
+     * @param double tiltAngle The pencil tilt angle to the horizontal
+     *
+     * @return double tiltAngle The tilt angle rounded to the angle step, if there is a sprite for it
+     */
+	public double quantize(double tiltAngle)
+	{
+		return sprites.quantize(tiltAngle);
+	}
+
+    /**
+     * Draw the pencil, the same as rotating the canvas by the tilt angle around the pivot and drawing the image with
+     * its top left corner at (xLeft, yTop).
+     *
+     * @param Canvas canvas The android canvas
+     * @param double tiltAngle The pencil tilt angle to the horizontal
+     * @param float pivotX The x-position of the rotation pivot
+     * @param float pivotY The y-position of the rotation pivot
+     * @param int xLeft The x-position of the left side of the pencil before rotation
+     * @param int yTop The y-position of the top of the pencil before rotation
+     */
+	public void draw(Canvas canvas, double tiltAngle, float pivotX, float pivotY, int xLeft, int yTop)
+	{
+		int index = sprites.index(tiltAngle);
+		if (index == SpriteSlots.NO_SLOT)
+		{
+			drawRotated(canvas, tiltAngle, pivotX, pivotY, xLeft, yTop);
+			return;
+		}
+		Sprite sprite = sprites.get(index);
+		if (sprites.drawn(index))
+		{
+			handler.post(renderTask);
+		}
+		if (sprite == null)
+		{
+			//at the angle of the sprite, which the dirty region covers
+			drawRotated(canvas, sprites.angle(index), pivotX, pivotY, xLeft, yTop);
+			return;
+		}
+
+		//rotate the top left corner of the pencil around the pivot
+		float left = xLeft - pivotX;
+		float top = yTop - pivotY;
+		double x = pivotX + left * sprite.cos - top * sprite.sin;
+		double y = pivotY + left * sprite.sin + top * sprite.cos;
+		canvas.drawBitmap(sprite.bitmap, (float) Math.round(x) + sprite.left, (float) Math.round(y) + sprite.top, paint);
+	}
+
+	private void drawRotated(Canvas canvas, double tiltAngle, float pivotX, float pivotY, int xLeft, int yTop)
+	{
+		canvas.save();
+		canvas.rotate((float) Math.toDegrees(tiltAngle), pivotX, pivotY);
+		drawable.setBounds(xLeft, yTop, xLeft + width, yTop + height);
+		drawable.draw(canvas);
+		canvas.restore();
+	}
+
+	//area of the pencil rotated around its top left corner, on the background thread
+	private void mapArea(double angle)
+	{
+		matrix.setRotate((float) Math.toDegrees(angle));
+		area.set(0, 0, width, height);
+		matrix.mapRect(area);
+	}
+
+    /**
+     * Drop all sprites for good, once the cache is not drawn any more, and give their memory back to the budget.
+     */
+	public void release()
+	{
+		sprites.release();
+	}
+}
@@ -0,0 +1,179 @@
+package com.pencilmetrics;
+
+import android.os.SystemClock;
+
+/**
+ * Timing of the frames drawn by a surface: how far apart the frames are, how long the physics update and the drawing
+ * of a frame take, and how long a sensor reading takes to reach the screen. Each is kept in a LatencyHistogram, and
+ * frames that come later than the frame budget allows are counted as jank. Everything is allocated up front, so the
+ * metrics can be fed on every frame.
+ *
+ * Feed it from the thread that draws: beginFrame() at the start of every frame callback, the durations of the update
+ * and the drawing, framePosted() once a frame is posted to the surface, and stopped() when the frame callbacks stop,
+ * so the time until they start again is not taken for a late frame. onSensorEvent() may be called from any thread.
+ */
+public class FrameMetrics {
+
+	//a frame is late if it comes more than this many frame budgets after the one before: it missed a vsync
+	final public static float JANK_FACTOR = 1.5f;
+
+	//frames this late are counted as frozen as well, in nanoseconds
+	final public static long FROZEN_FRAME_NANOS = 700000000L;
+
+	//sensor latencies longer than this are not counted: the sensor clock is not the same as elapsedRealtimeNanos on
+	//all devices
+	final public static long MAX_SENSOR_LATENCY_NANOS = 1000000000L;
+
+	/** Time between the vsyncs of successive frames */
+	final public LatencyHistogram frameInterval = new LatencyHistogram();
+
+	/** Time taken by the physics update of a frame */
+	final public LatencyHistogram physics = new LatencyHistogram();
+
+	/** Time taken to draw a frame and post it, including waiting for a buffer to draw into */
+	final public LatencyHistogram draw = new LatencyHistogram();
+
+	/** Time from a sensor reading to the frame that first used it being posted */
+	final public LatencyHistogram sensorToPhoton = new LatencyHistogram();
+
+	//time between frames at the refresh rate of the display, in nanoseconds
+	private long frameBudget = 16666667L;
+
+	//counted since the metrics were made, not cleared by reset()
+	private long frames = 0;
+	private long jankFrames = 0;
+	private long frozenFrames = 0;
+
+	//vsync time of the last frame, or -1 if the frame callbacks stopped since
+	private long lastFrameTime = -1;
+
+	//time of the oldest sensor reading no frame has used yet, and of the one used by the current frame, or 0
+	private volatile long pendingSensorTime = 0;
+	private long frameSensorTime = 0;
+
+	//whether the frame callbacks are running, sensor readings while they are not are not drawn
+	private volatile boolean running = false;
+
+    /**
+     * Set the frame budget from the refresh rate of the display.
+     *
+     * @param float refreshRate Refresh rate in frames per second, as Display.getRefreshRate(); ignored if not positive
+     */
+	public void setRefreshRate(float refreshRate)
+	{
+		if (refreshRate > 0)
+		{
+			frameBudget = (long) (1000000000L/refreshRate);
+		}
+	}
+
+	public long getFrameBudget()
+	{
+		return frameBudget;
+	}
+
+    /**
+     * A frame callback started.
+     *
+     * @param long frameTimeNanos Vsync time of the frame in nanoseconds
+     */
+	public void beginFrame(long frameTimeNanos)
+	{
+		if (lastFrameTime >= 0)
+		{
+			long interval = frameTimeNanos - lastFrameTime;
+			frameInterval.record(interval);
+			frames++;
+			if (interval > JANK_FACTOR * frameBudget)
+			{
+				jankFrames++;
+			}
+			if (interval >= FROZEN_FRAME_NANOS)
+			{
+				frozenFrames++;
+			}
+		}
+		lastFrameTime = frameTimeNanos;
+		running = true;
+
+		//the update of this frame uses the sensor readings until now
+		frameSensorTime = pendingSensorTime;
+		pendingSensorTime = 0;
+	}
+
+    /**
+     * The frame was posted to the surface.
+     */
+	public void framePosted()
+	{
+		if (frameSensorTime != 0)
+		{
+			long latency = SystemClock.elapsedRealtimeNanos() - frameSensorTime;
+			if (latency >= 0 && latency <= MAX_SENSOR_LATENCY_NANOS)
+			{
+				sensorToPhoton.record(latency);
+			}
+			frameSensorTime = 0;
+		}
+	}
+
+    /**
+     * The frame callbacks stopped, e.g. while the pencil is at rest: the next frame does not follow this one.
+     */
+	public void stopped()
+	{
+		lastFrameTime = -1;
+		running = false;
+		pendingSensorTime = 0;
+		frameSensorTime = 0;
+	}
+
+    /**
+     * A sensor reading arrived. May be called from any thread. Only the oldest reading not yet used by a frame is
+     * kept, so the latency is that of the reading that waited longest.
+     *
+     * @param long timestamp Time of the reading in nanoseconds, as SensorEvent.timestamp
+     */
+	public void onSensorEvent(long timestamp)
+	{
+		if (running && pendingSensorTime == 0)
+		{
+			pendingSensorTime = timestamp;
+		}
+	}
+
+    /**
+     * Number of frame intervals counted.
+     */
+	public long getFrames()
+	{
+		return frames;
+	}
+
+    /**
+     * Number of frames that came more than JANK_FACTOR frame budgets after the one before.
+     */
+	public long getJankFrames()
+	{
+		return jankFrames;
+	}
+
+    /**
+     * Number of frames that came at least FROZEN_FRAME_NANOS after the one before.
+     */
+	public long getFrozenFrames()
+	{
+		return frozenFrames;
+	}
+
+    /**
+     * Forget the durations in the histograms, to start a new window. The frame counts are kept.
+     */
+	public void reset()
+	{
+		frameInterval.reset();
+		physics.reset();
+		draw.reset();
+		sensorToPhoton.reset();
+	}
+}
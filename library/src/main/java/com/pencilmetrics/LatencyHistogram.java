@@ -0,0 +1,128 @@
+package com.pencilmetrics;
+
+/**
+ * Counts durations in nanoseconds in buckets of logarithmic size, in a fixed array allocated up front, so that
+ * recording a duration on every frame costs no allocation and no sorting. Each power of two is split into
+ * SUB_BUCKETS buckets, so a percentile is known to within 1/SUB_BUCKETS (12.5%) of its value, from nanoseconds
+ * up to 2^MAX_EXPONENT nanoseconds (about 18 minutes). Longer durations are counted in the last bucket.
+ *
+ * Not thread-safe: record and read on the same thread.
+ */
+public class LatencyHistogram {
+
+	//each power of two is split into 2^SUB_BUCKET_BITS buckets
+	final private static int SUB_BUCKET_BITS = 3;
+	final public static int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	//the largest power of two kept apart from the ones below it
+	final public static int MAX_EXPONENT = 40;
+
+	//values below SUB_BUCKETS have a bucket each, then SUB_BUCKETS buckets for each power of two up to MAX_EXPONENT
+	final private long[] counts = new long[(MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS];
+
+	private long count = 0;
+	private long max = 0;
+
+    /**
+     * Count one duration.
+     *
+     * @param long nanos The duration in nanoseconds, counted as 0 if negative
+     */
+	public void record(long nanos)
+	{
+		long value = Math.max(0, nanos);
+		counts[bucketOf(value)]++;
+		count++;
+		if (value > max)
+		{
+			max = value;
+		}
+	}
+
+    /**
+     * The duration that a given part of the durations counted are at most, rounded up to the end of its bucket.
+     *
+     * @param double percentile The part of the durations, from 0 to 100, e.g. 99 for the 99th percentile
+     *
+     * @return long nanos The duration in nanoseconds, or 0 if nothing was counted
+     */
+	public long getPercentile(double percentile)
+	{
+		if (count == 0)
+		{
+			return 0;
+		}
+		//the rank of the duration asked for, from 1
+		long rank = Math.max(1, (long) Math.ceil(percentile/100.0 * count));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++)
+		{
+			seen += counts[i];
+			if (seen >= rank)
+			{
+				//the last bucket also counts everything longer, up to the longest
+				return (i == counts.length - 1) ? max : Math.min(upperBoundOf(i), max);
+			}
+		}
+		return max;
+	}
+
+    /**
+     * Number of durations counted since the last reset.
+     */
+	public long getCount()
+	{
+		return count;
+	}
+
+    /**
+     * The longest duration counted since the last reset, in nanoseconds.
+     */
+	public long getMax()
+	{
+		return max;
+	}
+
+    /**
+     * Forget all durations counted.
+     */
+	public void reset()
+	{
+		for (int i = 0; i < counts.length; i++)
+		{
+			counts[i] = 0;
+		}
+		count = 0;
+		max = 0;
+	}
+
+	//the bucket a value is counted in
+	private static int bucketOf(long value)
+	{
+		if (value < SUB_BUCKETS)
+		{
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		if (exponent > MAX_EXPONENT)
+		{
+			return (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS - 1;
+		}
+		//the bits right after the highest one pick the bucket within the power of two
+		int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	//the largest value counted in a bucket
+	private static long upperBoundOf(int bucket)
+	{
+		if (bucket < SUB_BUCKETS)
+		{
+			return bucket;
+		}
+		int exponent = bucket/SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long subBucket = bucket % SUB_BUCKETS;
+		int shift = exponent - SUB_BUCKET_BITS;
+		return ((SUB_BUCKETS + subBucket + 1) << shift) - 1;
+	}
+}
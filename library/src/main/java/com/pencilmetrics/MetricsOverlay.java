@@ -0,0 +1,153 @@
+package com.pencilmetrics;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+
+import com.pencilanimations.DirtyRegion;
+import com.pencilanimations.HudText;
+import com.pencildisplay.PencilDisplayHelper;
+
+/**
+ * Debug text showing the FrameMetrics of a surface: the 50th, 95th and 99th percentile of the frame interval, the
+ * physics update, the drawing and the sensor latency in milliseconds, and the number of late frames. The lines are
+ * drawn one above the other, the last one at the given baseline, aligned as the paint says.
+ *
+ * The percentiles are worked out every UPDATE_INTERVAL, over the frames since the histograms were last reset, which
+ * happens every WINDOW, so the text shows how the last few seconds went rather than the whole session.
+ */
+public class MetricsOverlay {
+
+	//time between updates of the text, in nanoseconds
+	final public static long UPDATE_INTERVAL = 1000000000L;
+
+	//time between resets of the histograms, in nanoseconds
+	final public static long WINDOW = 5000000000L;
+
+	//longest duration shown, in tenths of a millisecond, so that a line fits into a HudText
+	final private static long MAX_TENTHS = 999999;
+
+	final private FrameMetrics metrics;
+
+	//header, frame interval, physics, draw, sensor latency and late frames
+	final private HudText[] lines = new HudText[6];
+
+	//the line being formatted
+	final private char[] buffer = new char[HudText.MAX_LENGTH];
+
+	//frame time of the last update of the text and of the last reset of the histograms, in nanoseconds
+	private long lastUpdate = 0;
+	private long windowStart = 0;
+	private boolean started = false;
+
+    /**
+     * Constructor
+     *
+     * @param FrameMetrics metrics The metrics shown
+     * @param Paint paint The paint the text is drawn with, including its size and alignment
+     */
+	public MetricsOverlay(FrameMetrics metrics, Paint paint)
+	{
+		this.metrics = metrics;
+		for (int i = 0; i < lines.length; i++)
+		{
+			lines[i] = new HudText(paint);
+		}
+		lines[0].set("p50/p95/p99 ms");
+	}
+
+    /**
+     * Update the text if it is due.
+     *
+     * @param long frameTimeNanos Vsync time of the frame being drawn, in nanoseconds
+     */
+	public void update(long frameTimeNanos)
+	{
+		if (!started)
+		{
+			started = true;
+			windowStart = frameTimeNanos;
+		} else if (frameTimeNanos - lastUpdate < UPDATE_INTERVAL)
+		{
+			return;
+		}
+		lastUpdate = frameTimeNanos;
+
+		setLine(lines[1], "frame ", metrics.frameInterval);
+		setLine(lines[2], "physics ", metrics.physics);
+		setLine(lines[3], "draw ", metrics.draw);
+		setLine(lines[4], "sensor ", metrics.sensorToPhoton);
+
+		int length = append("jank ", buffer, 0);
+		length = PencilDisplayHelper.formatNumber(metrics.getJankFrames(), 1, buffer, length);
+		length = append(" frozen ", buffer, length);
+		length = PencilDisplayHelper.formatNumber(metrics.getFrozenFrames(), 1, buffer, length);
+		lines[5].set(buffer, length);
+
+		if (frameTimeNanos - windowStart >= WINDOW)
+		{
+			metrics.reset();
+			windowStart = frameTimeNanos;
+		}
+	}
+
+    /**
+     * Add the area draw() will draw on.
+     *
+     * @param DirtyRegion region The area to repaint
+     * @param float x The x-position the text is drawn at, as for Canvas.drawText
+     * @param float y The y-position of the baseline of the last line
+     * @param boolean isInverted Whether the canvas is rotated by 180 degrees when the text is drawn
+     */
+	public void addTo(DirtyRegion region, float x, float y, boolean isInverted)
+	{
+		float spacing = lines[0].getPaint().getFontSpacing();
+		for (int i = 0; i < lines.length; i++)
+		{
+			region.addText(lines[i], x, y - (lines.length - 1 - i) * spacing, isInverted);
+		}
+	}
+
+    /**
+     * Draw the text.
+     *
+     * @param Canvas canvas The android canvas
+     * @param float x The x-position the text is drawn at, as for Canvas.drawText
+     * @param float y The y-position of the baseline of the last line
+     */
+	public void draw(Canvas canvas, float x, float y)
+	{
+		float spacing = lines[0].getPaint().getFontSpacing();
+		for (int i = 0; i < lines.length; i++)
+		{
+			lines[i].draw(canvas, x, y - (lines.length - 1 - i) * spacing);
+		}
+	}
+
+	//set a line to a label followed by the percentiles of a histogram, e.g. "frame 16.6/16.9/33.4"
+	private void setLine(HudText line, String label, LatencyHistogram histogram)
+	{
+		int length = append(label, buffer, 0);
+		length = appendMillis(histogram.getPercentile(50), buffer, length);
+		buffer[length++] = '/';
+		length = appendMillis(histogram.getPercentile(95), buffer, length);
+		buffer[length++] = '/';
+		length = appendMillis(histogram.getPercentile(99), buffer, length);
+		line.set(buffer, length);
+	}
+
+	//write a duration in nanoseconds as milliseconds with one decimal, return the end offset
+	private static int appendMillis(long nanos, char[] buffer, int offset)
+	{
+		long tenths = Math.min(MAX_TENTHS, (nanos + 50000)/100000);
+		int end = PencilDisplayHelper.formatNumber(tenths/10, 1, buffer, offset);
+		buffer[end++] = '.';
+		buffer[end++] = (char) ('0' + tenths % 10);
+		return end;
+	}
+
+	private static int append(String text, char[] buffer, int offset)
+	{
+		text.getChars(0, text.length(), buffer, offset);
+		return offset + text.length();
+	}
+}
@@ -1,6 +1,8 @@
 
 package com.pencilwallpaper;
 
+import java.util.ArrayList;
+
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.res.Resources;
@@ -8,40 +10,57 @@ import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.Paint.Align;
+import android.graphics.Rect;
 import android.graphics.drawable.BitmapDrawable;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
-import android.os.Handler;
 import android.service.wallpaper.WallpaperService;
 import android.util.Log;
 import android.view.MotionEvent;
 import android.view.SurfaceHolder;
+import android.view.WindowManager;
 
-import com.explode1.Exploder1;
+import com.explode1.Exploder1Pool;
 import com.explode2.Exploder2;
 import com.explode3.Exploder3;
+import com.explode4.ParticleExploder;
+import com.explode4.ParticleExploderPool;
+import com.pencilanimations.BitmapAssetCache;
+import com.pencilanimations.BitmapAtlas;
+import com.pencilanimations.BitmapDecoder;
+import com.pencilanimations.DirtyRegion;
+import com.pencilanimations.ExploderPool;
 import com.pencilanimations.ExplosionConfig;
+import com.pencilanimations.FrameScheduler;
+import com.pencilanimations.HudText;
+import com.pencilanimations.PencilSpriteCache;
 import com.pencildisplay.PencilDisplayHelper;
+import com.pencilmetrics.FrameMetrics;
+import com.pencilmetrics.MetricsOverlay;
+import com.pencilmotionsimulator.FixedTimestep;
 import com.pencilmotionsimulator.MotionSimulator;
+import com.pencilmotionsimulator.MotionState;
+import com.pencilmotionsimulator.VerletIntegrator;
 
 /** Show a pencil balanced on its tip, falling over. */
 
 public class PencilWallpaper extends WallpaperService {
 	
+	//1 = fragments of the image, 2 = series of images, 3 = growing image, 4 = particles of debris
 	static int EXPLODE_STYLE = 1;
 	
+	//show percentiles of the frame timing of the last few seconds instead of the frame rate, in debug builds only
+	static boolean SHOW_FRAME_METRICS = BuildConfig.DEBUG;
+	
 	//will be set from shared preferences in setGravityFromSharedPreferences
 	public static float gravityFactor = 0.015f;
 	
 	final static String SETTINGS_SHARED_PREFS_NAME = "PencilWallpaperSettings";
 
-    private final Handler mHandler = new Handler();
-
     @Override
     public void onCreate() {
         super.onCreate();
@@ -52,16 +71,21 @@ public class PencilWallpaper extends WallpaperService {
         super.onDestroy();
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        //drop the images no engine draws any more, and the pencil sprites the engines render again when needed
+        BitmapAssetCache.getInstance().trimMemory(level);
+        PencilSpriteCache.trimMemory(level);
+    }
+
     @Override
     public Engine onCreateEngine() {
         return new PencilEngine();
     }
 
-    class PencilEngine extends Engine {
+    class PencilEngine extends Engine implements FrameScheduler.Callback {
     	  
-    	//time interval between drawing of animation frames in miliseconds
-    	final private static int FRAME_INTERVAL = 5;
-    	
     	//gravitational parameter
     	private double g = 9.81;
     	
@@ -76,7 +100,13 @@ public class PencilWallpaper extends WallpaperService {
     	private double pencilPhysicalLength = 0.05;
     	
     	//motion simulator used to animate pencil
-    	private MotionSimulator motionSimulator = new MotionSimulator(pencilPhysicalLength);
+    	private MotionSimulator motionSimulator = new MotionSimulator(pencilPhysicalLength, new VerletIntegrator());
+    	
+    	//angular displacement and velocity handed to the motion simulator, reused on every step
+    	private MotionState motionState = new MotionState();
+    	
+    	//splits the time between frames into physics steps of fixed size
+    	private FixedTimestep physicsClock = new FixedTimestep();
     	
     	//display length of pencil
     	private float pencilDisplayLength;
@@ -86,6 +116,9 @@ public class PencilWallpaper extends WallpaperService {
 
     	//maximum angle that the pencil is allowed to tilt before it hits the side of the box
     	private double maxTiltAngle;
+    	
+    	//fraction of its speed the pencil keeps when bouncing off the side of the box
+    	final private double WALL_RESTITUTION = 0.5;
 
     	//initial angular displacement
     	final private double INITIAL_TILT_ANGLE = 0.0;
@@ -93,6 +126,12 @@ public class PencilWallpaper extends WallpaperService {
     	//angular displacement
     	private double tiltAngle = INITIAL_TILT_ANGLE;
     	
+    	//angular displacement after the previous physics step
+    	private double previousTiltAngle = INITIAL_TILT_ANGLE;
+    	
+    	//angular displacement shown on screen, interpolated between the last two physics steps
+    	private double renderTiltAngle = INITIAL_TILT_ANGLE;
+    	
     	//initial angular velocity
     	final private double INITIAL_ANGULAR_VELOCITY = 0.0;
     	
@@ -124,13 +163,26 @@ public class PencilWallpaper extends WallpaperService {
         /** Used to figure out elapsed time between frames */
         private long mLastTime = 0;
         
+        /** Vsync time of the current frame, the time all updates and drawing of the frame use */
+        private long mFrameTime;
+        
         private BitmapDrawable pencilDrawable = null;
         
-        private Exploder1 exploder1 = null;
-
-        private Exploder2 exploder2 = null;
+        //pencil images pre-rendered at the display size, for the current surface size
+        private PencilSpriteCache pencilSprites = null;
+        
+        //at most one explosion on each wall
+        final private static int EXPLOSIONS_AT_ONCE = 2;
+        
+        //exploders of EXPLODE_STYLE, one taken for each explosion
+        private ExploderPool explosions = null;
         
-        private Exploder3 exploder3 = null;
+        //canvas width the explosion images were made for
+        private int explosionImageWidth = 0;
+        
+        //explosion images taken from the BitmapAssetCache, to give back when they are replaced
+        private ArrayList<Bitmap> explosionBitmaps = new ArrayList<Bitmap>();
+        private BitmapAtlas explosionAtlas = null;
 
         //config for the explosion when the pencil hits the right-hand wall
         private ExplosionConfig explosionConfigRhs = new ExplosionConfig(1);
@@ -157,12 +209,21 @@ public class PencilWallpaper extends WallpaperService {
         final float scale = getResources().getDisplayMetrics().density;
 
         private int framesPerSecond = 0;
-        //the runnable that will be used to animate the wallpaper
-        private final Runnable mDrawPencil = new Runnable() {
-            public void run() {
-                drawFrame();
-            }
-        };
+        
+        //text of the frame rate for the frame being drawn
+        private HudText fpsText;
+        
+        //timing of the frames, and the text showing it
+        private final FrameMetrics frameMetrics = new FrameMetrics();
+        private MetricsOverlay metricsOverlay;
+        
+        //area of the surface to repaint on the next frame
+        private DirtyRegion dirtyRegion = new DirtyRegion();
+        
+        //scratch for the area covered by an explosion
+        private Rect explosionBounds = new Rect();
+        //animates the wallpaper, one frame per display refresh
+        private FrameScheduler frameScheduler;
         
         //whether or not the launch screen is currently visible
         private boolean mVisible;
@@ -180,15 +241,25 @@ public class PencilWallpaper extends WallpaperService {
         	paintText.setColor(Color.GRAY);
         	paintText.setTextAlign(Align.RIGHT);
         	paintText.setTextSize(10.0f * scale + 0.5f);
+        	fpsText = new HudText(paintText);
+        	metricsOverlay = new MetricsOverlay(frameMetrics, paintText);
+        	frameMetrics.setRefreshRate(((WindowManager) getSystemService(WINDOW_SERVICE))
+        			.getDefaultDisplay().getRefreshRate());
         }
         
         /**
          * Initialize the pencil image
          */
-        private void initializePencilBitmap(Context context)
+        private void initializePencilBitmap(Context context, int width, int height)
         {
         	Resources res = context.getResources();
-        	pencilDrawable = new BitmapDrawable(res, BitmapFactory.decodeResource(res, R.drawable.pencil));
+        	BitmapAssetCache assets = BitmapAssetCache.getInstance();
+        	if (pencilDrawable != null)
+        	{
+        		assets.release(pencilDrawable.getBitmap());
+        	}
+        	//decoded straight to the size it is drawn at, so drawing it needs no scaling, and shared by all engines
+        	pencilDrawable = new BitmapDrawable(res, assets.acquire(res, R.drawable.pencil, width, height));
         	pencilDrawable.setAntiAlias(true);    	
         }
         
@@ -197,37 +268,65 @@ public class PencilWallpaper extends WallpaperService {
          */
         private void initializeExplosionBitmap(Context context)
         {
+        	//the explosion images only depend on the width of the canvas
+        	if (explosionImageWidth == mCanvasWidth)
+        	{
+        		return;
+        	}
+        	explosionImageWidth = mCanvasWidth;
+        	releaseExplosionBitmaps();
+        	
         	if (EXPLODE_STYLE == 1)
         	{
-        		//explodable picture for the standard pencil orientation
-        		Bitmap explodableBmp = BitmapFactory.decodeResource(getResources(), R.drawable.explodable);
-        		Matrix matrix = new Matrix();
-        		float scale = (0.03f * mCanvasWidth)/ explodableBmp.getWidth();
-        		matrix.postScale(scale, scale);
-        		Bitmap resizedBitmap = Bitmap.createBitmap(explodableBmp, 0, 0, explodableBmp.getWidth(), explodableBmp.getHeight(), matrix, true);
-        		exploder1 = new Exploder1(resizedBitmap, 0.9f, 0.6f);
-
+        		explosions = new Exploder1Pool(acquireExplodable(R.drawable.explodable, 0.03f), EXPLOSIONS_AT_ONCE);
         	} else if (EXPLODE_STYLE == 2)
         	{
-        		Resources res = context.getResources();
-        		BitmapDrawable[] explodableBmps = new BitmapDrawable[11];
-        		explodableBmps[0] = new BitmapDrawable(res, BitmapFactory.decodeResource(res, R.drawable.boom1));
-        		explodableBmps[1] = new BitmapDrawable(res, BitmapFactory.decodeResource(res, R.drawable.boom2));
-        		explodableBmps[2] = new BitmapDrawable(res, BitmapFactory.decodeResource(res, R.drawable.boom3));
-        		explodableBmps[3] = new BitmapDrawable(res, BitmapFactory.decodeResource(res, R.drawable.boom4));
-        		explodableBmps[4] = new BitmapDrawable(res, BitmapFactory.decodeResource(res, R.drawable.boom5));
-        		explodableBmps[5] = new BitmapDrawable(res, BitmapFactory.decodeResource(res, R.drawable.boom6));
-        		explodableBmps[6] = new BitmapDrawable(res, BitmapFactory.decodeResource(res, R.drawable.boom7));
-        		explodableBmps[7] = new BitmapDrawable(res, BitmapFactory.decodeResource(res, R.drawable.boom8));
-        		explodableBmps[8] = new BitmapDrawable(res, BitmapFactory.decodeResource(res, R.drawable.boom9));
-        		explodableBmps[9] = new BitmapDrawable(res, BitmapFactory.decodeResource(res, R.drawable.boom10));
-        		explodableBmps[10] = new BitmapDrawable(res, BitmapFactory.decodeResource(res, R.drawable.boom11));
-        		exploder2 = new Exploder2(explodableBmps);
+        		//one image with all the frames, decoded once the physics starts
+        		explosionAtlas = new BitmapAtlas(context.getResources(), R.drawable.boom_atlas, 11, Exploder2.getMaxFrameSize());
+        		explosions = ExploderPool.shared(new Exploder2(explosionAtlas));
         	}  else if (EXPLODE_STYLE == 3)
         	{
         		Resources res = context.getResources();
-        		BitmapDrawable explodableBmp = new BitmapDrawable(res, BitmapFactory.decodeResource(res, R.drawable.boom));
-        		exploder3 = new Exploder3(explodableBmp);
+        		Bitmap boom = BitmapAssetCache.getInstance().acquire(res, R.drawable.boom);
+        		explosionBitmaps.add(boom);
+        		BitmapDrawable explodableBmp = new BitmapDrawable(res, boom);
+        		explosions = ExploderPool.shared(new Exploder3(explodableBmp));
+        	} else if (EXPLODE_STYLE == 4)
+        	{
+        		explosions = new ParticleExploderPool(acquireExplodable(R.drawable.explodable, 0.03f),
+        				ParticleExploder.DEFAULT_PARTICLE_COUNT, EXPLOSIONS_AT_ONCE);
+        	}
+        }
+        
+        /**
+         * Take an explodable picture from the BitmapAssetCache, scaled to a part of the canvas width
+         */
+        private Bitmap acquireExplodable(int id, float widthFraction)
+        {
+        	Resources res = getResources();
+        	BitmapFactory.Options size = BitmapDecoder.decodeSize(res, id);
+        	int width = Math.round(widthFraction * mCanvasWidth);
+        	int height = Math.round((float) width * size.outHeight/ size.outWidth);
+        	Bitmap explodableBmp = BitmapAssetCache.getInstance().acquire(res, id, width, height);
+        	explosionBitmaps.add(explodableBmp);
+        	return explodableBmp;
+        }
+        
+        /**
+         * Give the explosion images back to the BitmapAssetCache
+         */
+        private void releaseExplosionBitmaps()
+        {
+        	BitmapAssetCache assets = BitmapAssetCache.getInstance();
+        	for (int i = 0; i < explosionBitmaps.size(); i++)
+        	{
+        		assets.release(explosionBitmaps.get(i));
+        	}
+        	explosionBitmaps.clear();
+        	if (explosionAtlas != null)
+        	{
+        		explosionAtlas.release();
+        		explosionAtlas = null;
         	}
         }
 
@@ -238,29 +337,46 @@ public class PencilWallpaper extends WallpaperService {
             //get sensor manager
             sensorManager = (SensorManager) getSystemService(SENSOR_SERVICE);
 
+            frameScheduler = new FrameScheduler(this);
         }
 
         @Override
         public void onDestroy() {
             super.onDestroy();
-            mHandler.removeCallbacks(mDrawPencil);
+            frameScheduler.stop();
             
             //unregister sensor listener to save battery
             sensorManager.unregisterListener(mSensorListener);
+            
+            //other engines may still draw the images
+            if (pencilSprites != null)
+            {
+            	pencilSprites.release();
+            }
+            if (pencilDrawable != null)
+            {
+            	BitmapAssetCache.getInstance().release(pencilDrawable.getBitmap());
+            	pencilDrawable = null;
+            }
+            releaseExplosionBitmaps();
+            explosionImageWidth = 0;
         }
 
         @Override
         public void onVisibilityChanged(boolean visible) {
             mVisible = visible;
             if (visible) {
-            	mLastTime = System.currentTimeMillis();
+            	mLastTime = FrameScheduler.now();
+            	//repaint everything on the first frame after being hidden
+            	dirtyRegion.setSize(mCanvasWidth, mCanvasHeight);
                 //register sensor listener
                 Sensor accelerometer = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
                 sensorManager.registerListener(mSensorListener, accelerometer, SensorManager.SENSOR_DELAY_NORMAL);
 
-                drawFrame();
+                frameScheduler.start();
             } else {
-                mHandler.removeCallbacks(mDrawPencil);
+                frameScheduler.stop();
+                frameMetrics.stopped();
                 
                 //unregister sensor listener to save battery
                 sensorManager.unregisterListener(mSensorListener);
@@ -273,22 +389,24 @@ public class PencilWallpaper extends WallpaperService {
 
             mCanvasWidth = width;
             mCanvasHeight = height;
-            
-            initializePencilBitmap(getApplicationContext());
+            dirtyRegion.setSize(width, height);
             
             initializeExplosionBitmap(getApplicationContext());
             
             //initialize drawing dimension parameters
             pencilDisplayLength = 0.7f * mCanvasHeight;
 
-            float drawableWidth = pencilDrawable.getIntrinsicWidth();
-            float drawableHeight = pencilDrawable.getIntrinsicHeight();
+            //only the aspect ratio of the image is needed here, the bitmap is decoded at the display size below
+            BitmapFactory.Options pencilSize = BitmapDecoder.decodeSize(getApplicationContext().getResources(), R.drawable.pencil);
+            float drawableWidth = pencilSize.outWidth;
+            float drawableHeight = pencilSize.outHeight;
             pencilDisplayWidth = (drawableWidth/ drawableHeight) * pencilDisplayLength + 1.0f;
 
             //create display helper
             displayHelper = new PencilDisplayHelper(mCanvasWidth, mCanvasHeight, pencilDisplayWidth, pencilDisplayLength);
             
             maxTiltAngle = displayHelper.calculateMaxTiltAngle();
+            motionSimulator.setWalls(maxTiltAngle, WALL_RESTITUTION);
             
             //bounds of pencil in standard orientation
         	xLeftStandard = (int) (mCanvasWidth/2.0 - pencilDisplayWidth/2.0);
@@ -300,7 +418,18 @@ public class PencilWallpaper extends WallpaperService {
     		pivotXStandard = mCanvasWidth/2.0f;
     		pivotYStandard = mCanvasHeight;
 
-            drawFrame();
+    		initializePencilBitmap(getApplicationContext(), xRightStandard - xLeftStandard, yBottomStandard - yTopStandard);
+    		
+    		//render the pencil again at the new size
+    		if (pencilSprites != null)
+    		{
+    			pencilSprites.release();
+    		}
+    		pencilSprites = new PencilSpriteCache(pencilDrawable, xRightStandard - xLeftStandard, yBottomStandard - yTopStandard, maxTiltAngle);
+
+            //redraw at the next display refresh, even if not animating
+            noUpdateCount = 0;
+            frameScheduler.requestFrame();
         }
 
         public void setGravityFromSharedPreferences()
@@ -323,49 +452,79 @@ public class PencilWallpaper extends WallpaperService {
 
             super.onSurfaceDestroyed(holder);
             mVisible = false;
-            mHandler.removeCallbacks(mDrawPencil);
+            frameScheduler.stop();
+            frameMetrics.stopped();
+            
+            if (pencilSprites != null)
+            {
+            	pencilSprites.release();
+            	pencilSprites = null;
+            }
         }
 
         /**
          * Draw the scene
          */
-        //count for how many iterations the physics has not been updated
+        //count for how many frames the physics has not been updated
     	int noUpdateCount = 0;
-        void drawFrame() {
+        public void onFrame(long frameTime) {
+
+            mFrameTime = frameTime;
+            frameMetrics.beginFrame(frameScheduler.getFrameTimeNanos());
+
+            long physicsStart = System.nanoTime();
+            boolean physicsUpdated = updatePhysics(frameTime);
+            frameMetrics.physics.record(System.nanoTime() - physicsStart);
+            if (physicsUpdated)
+            {
+            	noUpdateCount = 0;
+            } else
+            {
+            	noUpdateCount++;
+            }
+
+            if (!physicsUpdated && noUpdateCount > 5 && !isAnimating())
+            {
+            	//if view has been drawn at least 5 times (because sometimes frames overlap),
+            	//and the physics was NOT updated in the last cycle, don't lock the canvas to redraw it
+            	
+            	//the pencil is at rest and cannot move until the next input: stop the frame callbacks as well,
+            	//until setAccelerationData or onTouchEvent wakes them up
+            	if (mTouchX == -1)
+            	{
+            		frameScheduler.stop();
+            		frameMetrics.stopped();
+            	}
+            	return;
+            }
 
             final SurfaceHolder holder = getSurfaceHolder();
 
+            //only repaint the area drawn on by this frame or the previous one
+            if (SHOW_FRAME_METRICS)
+            {
+            	metricsOverlay.update(frameScheduler.getFrameTimeNanos());
+            } else
+            {
+            	fpsText.set("FPS: ", framesPerSecond);
+            }
+            addDrawnAreas();
+
+            long drawStart = System.nanoTime();
             Canvas c = null;
             try {
-                c = holder.lockCanvas();
+                c = dirtyRegion.lockCanvas(holder);
                 if (c != null) {
-                	boolean physicsUpdated = updatePhysics();
-                	if (physicsUpdated)
-                	{
-                		noUpdateCount = 0;
-                	} else
-                	{
-                		noUpdateCount++;
-                	}
-                	
-                	if (!physicsUpdated && noUpdateCount > 5)
-                    {
-                		//if view has been drawn at least 5 times (because sometimes frames overlap),
-                    	//and the physics was NOT updated in the last cycle, don't redraw it
-                    } else
-                    {
-                    	// draw something
-                    	doDraw(c);
-                    }
+                	// draw something
+                	doDraw(c);
                 }
             } finally {
-                if (c != null) holder.unlockCanvasAndPost(c);
-            }
-
-            // Reschedule the next redraw
-            mHandler.removeCallbacks(mDrawPencil);
-            if (mVisible) {
-                mHandler.postDelayed(mDrawPencil, FRAME_INTERVAL);
+                if (c != null) {
+                	holder.unlockCanvasAndPost(c);
+                	dirtyRegion.commit();
+                	frameMetrics.draw.record(System.nanoTime() - drawStart);
+                	frameMetrics.framePosted();
+                }
             }
         }
 
@@ -375,22 +534,27 @@ public class PencilWallpaper extends WallpaperService {
          * @return boolean True if the physical parameters of the system were updated and the view needs to be
          *  re-drawn, otherwise false
          */
-        private boolean updatePhysics() {
+        private boolean updatePhysics(long now) {
 
         	//initialize mLastTime
         	if (mLastTime == 0)
         	{
-        		mLastTime = System.currentTimeMillis() + 100;
+        		mLastTime = now + 100;
         		return true;
         	}
-
-        	long now = System.currentTimeMillis();
   
         	// Do nothing if mLastTime is in the future.
             // This allows the game-start to delay the start of the physics
             // by 100ms or whatever.
             if (mLastTime >= now) return true;
 
+            //the physics has started: decode the explosion images now rather than at the first wall hit, which
+            //would not be drawn while they are decoding
+            if (explosionAtlas != null)
+            {
+            	explosionAtlas.load();
+            }
+
 	            //check if user is currently touching the pencil
 	        	boolean previousUnderTouchControl = underTouchControl; //previous status of underTouchControl
 	            underTouchControl = false;
@@ -417,6 +581,9 @@ public class PencilWallpaper extends WallpaperService {
 		        		mLastTime = now;
 		        		tiltAngle = (tiltAngle > 0) ? maxTiltAngle : -maxTiltAngle;
 		        		angularVelocity = 0.0;
+		        		previousTiltAngle = tiltAngle;
+		        		renderTiltAngle = tiltAngle;
+		        		physicsClock.reset();
 		        		return false;
 		        	}
 	            }
@@ -430,48 +597,27 @@ public class PencilWallpaper extends WallpaperService {
 	            	double oldTiltAngle = tiltAngle;
 	            	tiltAngle = displayHelper.calculateTiltAngleFromTouchPosition(mTouchX, mTouchY, touchControlOffset, false);
 	            	angularVelocity	= (tiltAngle - oldTiltAngle)/elapsed;
+	            	handleWallContact();
+	            	previousTiltAngle = tiltAngle;
+	            	renderTiltAngle = tiltAngle;
+	            	physicsClock.reset();
 	            } else
 	            {
-	            	//calculate pencil's motion under acceleration as measured from the sensors
-		            double[] motionArray = motionSimulator.calc(tiltAngle, angularVelocity, PencilWallpaper.gravityFactor*g, theta, elapsed);
-		            tiltAngle = motionArray[0];
-		            angularVelocity = motionArray[1];
-	            }
-	            
-	            //if the pencil has reached the maximum tilt angle, don't let it go any further
-	            if (Math.abs(tiltAngle) > maxTiltAngle)
-	            {
-	            	//make sure the pencil is shown as lying on the side
-	            	tiltAngle = (tiltAngle > 0) ? maxTiltAngle : - maxTiltAngle;
-	            	
-	            	if (!underTouchControl && (Math.abs(angularVelocity) < 0.01))
-	            	{
-	            		//stop pencil if it's moving too slowly
-	            		angularVelocity = 0.0;
-	            	}
-	
-	            	if ((tiltAngle > 0 && angularVelocity > 0) || (tiltAngle < 0 && angularVelocity < 0))
+	            	//calculate pencil's motion under acceleration as measured from the sensors, in steps of fixed size
+	            	physicsClock.addFrameTime(elapsed);
+	            	while (physicsClock.nextStep())
 	            	{
-	            		//if pencil hits the wall at above a certain speed, generate an explosion
-	            		if (Math.abs(angularVelocity) > 0.3f)
-	            		{
-		            		if (tiltAngle > 0 && !explosionConfigRhs.doExplosion)
-		            		{
-		            			//initialize explosion on right-hand wall
-		            			initializeExplosion(explosionConfigRhs);
-		            		} else if (tiltAngle < 0 && !explosionConfigLhs.doExplosion)
-		            		{
-		            			//initialize explosion on left-hand wall
-		            			initializeExplosion(explosionConfigLhs);
-		            		}
-	            		}
-	            		
-	            		if (!underTouchControl)
+	            		previousTiltAngle = tiltAngle;
+	            		motionState.set(tiltAngle, angularVelocity);
+	            		motionSimulator.step(motionState, PencilWallpaper.gravityFactor*g, theta, physicsClock.getStepSize());
+	            		tiltAngle = motionState.x;
+	            		angularVelocity = motionState.v;
+	            		if (motionState.wallHit != 0)
 	            		{
-		            		//make pencil bounce off side
-		            		angularVelocity = -0.5 * angularVelocity;
+	            			explodeOnWallHit(motionState.wallHit, motionState.wallHitVelocity);
 	            		}
 	            	}
+	            	renderTiltAngle = physicsClock.interpolate(previousTiltAngle, tiltAngle);
 	            }
 
             //calculate frames per second for display
@@ -481,43 +627,73 @@ public class PencilWallpaper extends WallpaperService {
             return true;
         }
 
+        /**
+         * If the pencil has been pushed by touch beyond the maximum tilt angle, don't let it go any further. Start an
+         * explosion if it hits the wall hard enough. Without touch, the motion simulator takes care of the walls.
+         */
+        private void handleWallContact()
+        {
+        	if (Math.abs(tiltAngle) <= maxTiltAngle)
+        	{
+        		return;
+        	}
+
+        	//make sure the pencil is shown as lying on the side
+        	tiltAngle = (tiltAngle > 0) ? maxTiltAngle : - maxTiltAngle;
+
+        	if ((tiltAngle > 0 && angularVelocity > 0) || (tiltAngle < 0 && angularVelocity < 0))
+        	{
+        		explodeOnWallHit((tiltAngle > 0) ? 1 : -1, angularVelocity);
+        	}
+        }
+
+        /**
+         * If pencil hits the wall at above a certain speed, generate an explosion
+         * 
+         * @param int direction 1 = right-hand wall, -1 = left-hand wall
+         * @param double hitVelocity Angular velocity with which the pencil hits the wall
+         */
+        private void explodeOnWallHit(int direction, double hitVelocity)
+        {
+        	if (Math.abs(hitVelocity) > 0.3f)
+        	{
+        		if (direction > 0 && !explosionConfigRhs.doExplosion)
+        		{
+        			//initialize explosion on right-hand wall
+        			initializeExplosion(explosionConfigRhs, hitVelocity);
+        		} else if (direction < 0 && !explosionConfigLhs.doExplosion)
+        		{
+        			//initialize explosion on left-hand wall
+        			initializeExplosion(explosionConfigLhs, hitVelocity);
+        		}
+        	}
+        }
+
         /**
          * Initialize the explosion when the pencil hits the side
+         * 
+         * @param ExplosionConfig config The explosion config
+         * @param double hitVelocity Angular velocity with which the pencil hits the wall
          */
-        private void initializeExplosion(ExplosionConfig config)
+        private void initializeExplosion(ExplosionConfig config, double hitVelocity)
         {
         	config.doExplosion = true;
 
-        	config.explosionStartTime = System.currentTimeMillis();
+        	config.explosionStartTime = mFrameTime;
 
         	//config.explosionXPosition = ((direction > 0) ? ((int) ( 0.5 * mCanvasWidth + 0.5 * pencilDisplayWidth)) : ((int) (0.5 * mCanvasWidth -  0.5 * pencilDisplayWidth)));
         	//config.explosionYPosition = (int) (mCanvasHeight - 0.98f * pencilDisplayLength);
 
-        	int[] position = displayHelper.getExplosionPosition(config, angularVelocity, maxTiltAngle, false);
+        	int[] position = displayHelper.getExplosionPosition(config.direction, hitVelocity, maxTiltAngle, false);
         	
         	config.explosionXPosition = position[0];
         	config.explosionYPosition = position[1];
 
-        	if (EXPLODE_STYLE == 1)
-        	{
-        		config.explosionScale = exploder1.getExplosionScale(angularVelocity);
-        		config.explosionDuration = exploder1.getExplosionDuration(angularVelocity);
-        		float breakpointX, breakpointY;
-
-        			breakpointX = ((config.direction > 0) ? 0.9f : 0.1f);
-        			breakpointY = 0.6f;
-        			exploder1.prepare(breakpointX, breakpointY);
-
-        		//exploder1.prepare(0.5f, 0.6f);
-        	} else if (EXPLODE_STYLE == 2)
-        	{
-        		config.explosionScale = exploder2.getExplosionScale(angularVelocity);
-        		config.explosionDuration = exploder2.getExplosionDuration(angularVelocity);
-        	} else if (EXPLODE_STYLE == 3)
-        	{
-        		config.explosionScale = exploder3.getExplosionScale(angularVelocity);
-        		config.explosionDuration = exploder3.getExplosionDuration(angularVelocity);
-        	}
+        	//a fresh exploder for this explosion, the one for the other wall may still be exploding
+        	config.exploder = explosions.obtain();
+        	config.explosionScale = config.exploder.getExplosionScale(hitVelocity);
+        	config.explosionDuration = config.exploder.getExplosionDuration(hitVelocity);
+        	config.exploder.prepare(config, false);
         }
 
         /**
@@ -531,6 +707,34 @@ public class PencilWallpaper extends WallpaperService {
         	//magnitude of acceleration
         	this.g = g;
         	this.theta = theta;
+        	
+        	//while idle, only wake up if the pencil can leave the wall
+        	if (displayHelper != null && !displayHelper.isAtRest(tiltAngle, maxTiltAngle, angularVelocity, theta))
+        	{
+        		wakeUp();
+        	}
+        }
+        
+        /**
+         * Restart the frame callbacks if visible and idle
+         */
+        private void wakeUp()
+        {
+        	if (mVisible && !frameScheduler.isRunning())
+        	{
+        		//nothing moved while idle
+        		mLastTime = FrameScheduler.now();
+        		noUpdateCount = 0;
+        		frameScheduler.start();
+        	}
+        }
+        
+        /**
+         * Whether an explosion is still to be drawn
+         */
+        private boolean isAnimating()
+        {
+        	return explosionConfigRhs.doExplosion || explosionConfigLhs.doExplosion;
         }
 
         /**
@@ -549,8 +753,14 @@ public class PencilWallpaper extends WallpaperService {
 
         	drawPencil(canvas);
 
-        	//show frames per second
-            canvas.drawText("FPS: "+framesPerSecond, mCanvasWidth, 0.98f * mCanvasHeight, paintText);
+        	//show frame timing, or frames per second
+            if (SHOW_FRAME_METRICS)
+            {
+            	metricsOverlay.draw(canvas, mCanvasWidth, 0.98f * mCanvasHeight);
+            } else
+            {
+            	fpsText.draw(canvas, mCanvasWidth, 0.98f * mCanvasHeight);
+            }
         }
         
         /**
@@ -569,16 +779,11 @@ public class PencilWallpaper extends WallpaperService {
         {
         	//Log.d("pencil", "drawing normal pencil with isInverted="+isInverted);
         	
-        	canvas.save();
-
         	//Log.d("pencil", "drawPencil: draw with with tiltAngle="+tiltAngle+", pivotX="+pivotXStandard+", pivotY="+pivotYStandard);
-	        canvas.rotate((float) tiltAngle * 180.0f/((float) Math.PI), pivotXStandard, pivotYStandard);
-	        	
-	        pencilDrawable.setBounds(xLeftStandard, yTopStandard, xRightStandard, yBottomStandard);
-
-        	pencilDrawable.draw(canvas);
-	
-        	canvas.restore();
+        	if (pencilSprites != null)
+        	{
+        		pencilSprites.draw(canvas, renderTiltAngle, pivotXStandard, pivotYStandard, xLeftStandard, yTopStandard);
+        	}
         	
         	//explosion on right-hand wall
         	if (explosionConfigRhs.doExplosion)
@@ -597,36 +802,66 @@ public class PencilWallpaper extends WallpaperService {
          */
         private void drawExplosion(Canvas canvas, ExplosionConfig config)
         {
-        	long now = System.currentTimeMillis();
-        	long duration = now - config.explosionStartTime;
-        	if (EXPLODE_STYLE == 1)
-        	{
-        		float interpolation = duration/100f;
+        	long duration = mFrameTime - config.explosionStartTime;
+        	config.exploder.draw(canvas, config, duration);
 
-        			exploder1.draw(canvas, config.explosionXPosition, config.explosionYPosition, interpolation * config.explosionScale);
-
-        	} else if (EXPLODE_STYLE == 2)
+        	if (duration > config.explosionDuration)
         	{
-        		int iteration = Math.round(duration/10f);
-        		exploder2.draw(canvas, config.explosionXPosition, config.explosionYPosition, iteration, config.explosionScale);
-        	} else if (EXPLODE_STYLE == 3)
+        		config.doExplosion = false;
+        		config.exploder.recycle();
+        		config.exploder = null;
+        		//draw a few frames more, to clear the last one of the explosion
+        		noUpdateCount = 0;
+        	}
+        }
+        
+        /**
+         * Collect the areas doDraw will draw on: the pencil, the explosions and the text
+         */
+        private void addDrawnAreas()
+        {
+        	dirtyRegion.begin();
+        	//no sprites between onSurfaceDestroyed and the next onSurfaceChanged
+        	if (displayHelper == null || pencilSprites == null)
         	{
-        		float interpolation = duration/100f;
-        		exploder3.draw(canvas, config.explosionXPosition, config.explosionYPosition, interpolation, config.explosionScale);
+        		dirtyRegion.addAll();
+        		return;
         	}
-
-        	if (duration > config.explosionDuration)
+        	
+        	dirtyRegion.addPencil(displayHelper, pencilSprites.quantize(renderTiltAngle), false);
+        	if (explosionConfigRhs.doExplosion)
         	{
-        		config.doExplosion = false;
+        		addExplosionArea(explosionConfigRhs);
+        	}
+        	if (explosionConfigLhs.doExplosion)
+        	{
+        		addExplosionArea(explosionConfigLhs);
+        	}
+        	if (SHOW_FRAME_METRICS)
+        	{
+        		metricsOverlay.addTo(dirtyRegion, mCanvasWidth, 0.98f * mCanvasHeight, false);
+        	} else
+        	{
+        		dirtyRegion.addText(fpsText, mCanvasWidth, 0.98f * mCanvasHeight, false);
         	}
         }
         
+        /**
+         * Add the area drawExplosion will draw on
+         */
+        private void addExplosionArea(ExplosionConfig config)
+        {
+        	config.exploder.getBounds(config, mFrameTime - config.explosionStartTime, explosionBounds);
+        	dirtyRegion.add(explosionBounds);
+        }
+        
         @Override
         public void onTouchEvent(MotionEvent event) {
         	
         	if (event.getAction() == MotionEvent.ACTION_MOVE) {
                 mTouchX = event.getX();
                 mTouchY = event.getY();
+                wakeUp();
             } else {
             	mTouchX = -1;
             	mTouchY = -1;
@@ -668,6 +903,7 @@ public class PencilWallpaper extends WallpaperService {
         			//we only used the force in the x/y plane
         			double theta = Math.atan2(gravityData[0], gravityData[1]);
 
+        			frameMetrics.onSensorEvent(event.timestamp);
         			setAccelerationData(g, theta);
         			
         		} else